@@ -1,11 +1,37 @@
+import cycling.ConcurrentCyclingPortal;
 import cycling.CyclingPortal;
+import cycling.DuplicatedResultException;
+import cycling.FsyncPolicy;
+import cycling.IllegalNameException;
+import cycling.Journal;
+import cycling.JournalRecord;
+import cycling.LeaderboardPublisher;
+import cycling.LiveTimingPipeline;
+import cycling.NameNotRecognisedException;
+import cycling.RankingDelta;
+import cycling.ReadOnlyCyclingPortal;
 import cycling.SegmentType;
+import cycling.SnapshotReport;
 import cycling.StageType;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.Month;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class AssertionTestApp {
     public static void main(String[] args){
@@ -78,10 +104,12 @@ public class AssertionTestApp {
             System.out.println(e);
         }
 
+        Path savedFile=null;
         try{
-            portal.saveCyclingPortal("test.ser");
+            savedFile=Files.createTempFile("test", ".ser");
+            portal.saveCyclingPortal(savedFile.toString());
             portal.eraseCyclingPortal();
-            portal.loadCyclingPortal("test.ser");
+            portal.loadCyclingPortal(savedFile.toString());
             portal.addCategorizedClimbToStage(1, 45.0, SegmentType.C1, 10.0, 5.0);
             portal.addCategorizedClimbToStage(1, 25.0, SegmentType.C2, 2.0, 15.0);
             portal.addCategorizedClimbToStage(1, 125.0, SegmentType.C3, 1.0, 15.0);
@@ -96,6 +124,11 @@ public class AssertionTestApp {
         catch(Exception e){
             System.out.println(e);
         }
+        finally{
+            if(savedFile!=null){
+                savedFile.toFile().delete();
+            }
+        }
 
         try{
             portal.concludeStagePreparation(1);
@@ -131,6 +164,551 @@ public class AssertionTestApp {
             System.out.println(e);
         }
 
+        Path tempDirectory=null;
+        File snapshotFile=null;
+        File journalFile=null;
+        try{
+            tempDirectory=Files.createTempDirectory("portal");
+            snapshotFile=tempDirectory.resolve("test.cyc").toFile();
+            journalFile=tempDirectory.resolve("test.log").toFile();
+            portal.concludeStagePreparation(2);
+            portal.registerStageResults(2, new int[] {2,3,4}, new LocalTime[][] {
+                {LocalTime.of(0, 0, 0),LocalTime.of(0, 20, 0),LocalTime.of(3, 0, 0)},
+                {LocalTime.of(0, 0, 0),LocalTime.of(0, 19, 0),LocalTime.of(2, 59, 0)},
+                {LocalTime.of(0, 0, 0),LocalTime.of(0, 21, 0),LocalTime.of(3, 0, 0)}});
+            assert(Arrays.equals(portal.getRidersRankInStage(2), new int[] {3,2,4}));
+            try{
+                portal.registerStageResults(2, new int[] {5,2}, new LocalTime[][] {
+                    {LocalTime.of(0, 0, 0),LocalTime.of(0, 20, 0),LocalTime.of(3, 0, 0)},
+                    {LocalTime.of(0, 0, 0),LocalTime.of(0, 20, 0),LocalTime.of(3, 0, 0)}});
+                assert(false);
+            }
+            catch(DuplicatedResultException e){
+                assert(portal.getRidersRankInStage(2).length==3);//Nothing from the failed batch is registered
+            }
+            long misses=portal.getStageCacheMisses(2);
+            int[] rank=portal.getRidersRankInStage(2);
+            rank[0]=-1;//Changing a returned array must not change the cache
+            assert(Arrays.equals(portal.getRidersRankInStage(2), new int[] {3,2,4}));
+            assert(portal.getStageCacheMisses(2)==misses);
+            portal.deleteRiderResultsInStage(2, 3);
+            assert(Arrays.equals(portal.getRidersRankInStage(2), new int[] {2,4}));
+            assert(portal.getStageCacheMisses(2)==misses+1);
+            assert(Arrays.equals(portal.getRidersGeneralClassificationRank(1), new int[] {2,4}));//Only riders with results in both stages
+            assert(portal.getGeneralClassificationTimesInRace(1)[0].equals(Duration.ofSeconds(5*3600+24*60+22)));
+            portal.deleteRiderResultsInStage(2, 4);
+            assert(Arrays.equals(portal.getRidersGeneralClassificationRank(1), new int[] {2}));
+            assert(portal.getRidersPointClassificationRank(1).length==1);
+            portal.setClassificationParallelism(2);
+            portal.registerRiderResultsInStage(2, 4, LocalTime.of(0, 0, 0),LocalTime.of(0, 21, 0),LocalTime.of(3, 0, 0));
+            assert(Arrays.equals(portal.getRidersGeneralClassificationRank(1), new int[] {2,4}));//Same result when stages are scored in parallel
+            portal.setClassificationParallelism(1);
+            ReadOnlyCyclingPortal pinned=portal.snapshot();
+            int[] pinnedRanks=pinned.getRidersRankInStage(2);
+            portal.deleteRiderResultsInStage(2, 4);
+            assert(portal.getRidersRankInStage(2).length==pinnedRanks.length-1);
+            assert(Arrays.equals(pinned.getRidersRankInStage(2), pinnedRanks));//The snapshot doesn't see the change
+            assert(pinned.getRankedAdjustedElapsedTimesInStage(2).length==pinnedRanks.length);
+            assert(Arrays.equals(pinned.getRidersGeneralClassificationRank(1), new int[] {2,4}));
+            portal.registerRiderResultsInStage(2, 4, LocalTime.of(0, 0, 0),LocalTime.of(0, 21, 0),LocalTime.of(3, 0, 0));
+            try{
+                pinned.createTeam("Pinned", "read only");
+                assert(false);
+            }
+            catch(UnsupportedOperationException e){
+                assert(pinned.getTeams().length==portal.getTeams().length);
+            }
+            int[] ranks=portal.getRidersRankInStage(1);
+            portal.saveCyclingPortal(snapshotFile.getPath());
+            portal.eraseCyclingPortal();
+            portal.loadCyclingPortal(snapshotFile.getPath());
+            assert(Arrays.equals(portal.getRidersRankInStage(1), ranks));
+            assert(Arrays.equals(portal.getRidersGeneralClassificationRank(1), new int[] {2,4}));
+            portal.openCyclingPortalArchive(snapshotFile.getPath());
+            try{
+                portal.createRace("The-one-", "a name only the archive's directory knows about yet");
+                assert(false);
+            }
+            catch(IllegalNameException e){
+            }
+            assert(Arrays.equals(portal.getRidersRankInStage(1), ranks));//Race 1 is read from the archive when its stage is looked up
+            assert(portal.getRaceIds().length==2);
+            portal.openJournal(journalFile.getPath(), FsyncPolicy.EVERY_RECORD, 1);
+            int teamId=portal.createTeam("Journalled", "replayed");
+            portal.closeJournal();
+            portal.loadCyclingPortal(snapshotFile.getPath(), journalFile.getPath());//The snapshot is from before the team was created
+            assert(portal.findTeam(teamId)!=null);
+            assert(portal.getTeamIdByName("Journalled")==teamId);//The name index is rebuilt on load and kept up to date by replay
+            assert(portal.getRaceIdByName("The-one-")==1);
+            try{
+                portal.getStageIdByName("Nowhere");
+                assert(false);
+            }
+            catch(NameNotRecognisedException e){
+                assert(pinned.getRaceIdByName("The-one-")==1);
+            }
+            assert(portal.purgeRiderResults(new int[] {2,4})>0);
+            assert(Arrays.stream(portal.getRidersGeneralClassificationRank(1)).noneMatch(id -> id==2 || id==4));
+            assert(portal.purgeRiderResults(new int[] {2,4})==0);
+        }
+        catch(Exception e){
+            System.out.println(e);
+        }
+        finally{
+            for(File file : new File[] {snapshotFile, journalFile}){
+                if(file!=null){
+                    file.delete();
+                }
+            }
+            if(tempDirectory!=null){
+                tempDirectory.toFile().delete();
+            }
+        }
+
+        try{
+            ConcurrentCyclingPortal shared = new ConcurrentCyclingPortal();
+            AtomicInteger failures = new AtomicInteger();
+            Thread[] threads = new Thread[8];
+            for(int t=0;t<threads.length;t++){
+                int thread=t;
+                threads[t] = new Thread(() -> {
+                    try{
+                        for(int i=0;i<25;i++){
+                            if(thread%2==0){
+                                shared.createTeam("Team"+thread+"x"+i, "concurrent");
+                            }
+                            else{
+                                int[] teams=shared.getTeams();//Reads alongside the writers
+                                if(teams.length>0){
+                                    shared.getTeamRiders(teams[teams.length-1]);
+                                }
+                            }
+                        }
+                    }
+                    catch(Exception e){
+                        failures.incrementAndGet();
+                    }
+                });
+                threads[t].start();
+            }
+            for(Thread thread : threads){
+                thread.join();
+            }
+            assert(failures.get()==0);
+            assert(Arrays.stream(shared.getTeams()).distinct().count()==100);//No ID given out twice
+            int riderTeam=shared.getTeams()[0];
+            int[] stages=new int[2];
+            for(int r=0;r<stages.length;r++){
+                int raceId=shared.createRace("Striped"+r, "concurrent");
+                stages[r]=shared.addStageToRace(raceId, "StripedStage"+r, "flat", 100, LocalDateTime.of(2024, Month.JULY, 1, 12, 0), StageType.FLAT);
+                shared.concludeStagePreparation(stages[r]);
+            }
+            int[] riders=new int[50];
+            for(int i=0;i<riders.length;i++){
+                riders[i]=shared.createRider(riderTeam, "Striped"+i, 1990);
+            }
+            for(int r=0;r<stages.length;r++){
+                int stageId=stages[r];
+                threads[r] = new Thread(() -> {//Each race is timed on its own thread
+                    try{
+                        for(int i=0;i<riders.length;i++){
+                            shared.registerRiderResultsInStage(stageId, riders[i], LocalTime.of(12, 0), LocalTime.of(15, 0, i));
+                            shared.getRidersRankInStage(stageId);
+                        }
+                    }
+                    catch(Exception e){
+                        failures.incrementAndGet();
+                    }
+                });
+                threads[r].start();
+            }
+            threads[0].join();
+            threads[1].join();
+            assert(failures.get()==0);
+            assert(Arrays.equals(shared.getRidersRankInStage(stages[0]), riders));
+            assert(Arrays.equals(shared.getRidersRankInStage(stages[1]), riders));
+        }
+        catch(Exception e){
+            System.out.println(e);
+        }
+
+        Path outOfOrderFile=null;
+        try{//Races take stage IDs and write their records under their own locks, so a higher ID can be journalled first
+            outOfOrderFile=Files.createTempFile("portal", ".journal");
+            Journal journal=new Journal(outOfOrderFile.toString(), FsyncPolicy.NEVER, 16);
+            journal.append(1, new JournalRecord(JournalRecord.CREATE_RACE).putInt(1).putString("First").putString("race"));
+            journal.append(2, new JournalRecord(JournalRecord.CREATE_RACE).putInt(2).putString("Second").putString("race"));
+            journal.append(3, new JournalRecord(JournalRecord.ADD_STAGE).putInt(2).putInt(2).putString("SecondStage").putString("flat")
+                .putDouble(100).putDateTime(LocalDateTime.of(2024, Month.JULY, 1, 12, 0)).putInt(StageType.FLAT.ordinal()));
+            journal.append(4, new JournalRecord(JournalRecord.ADD_STAGE).putInt(1).putInt(1).putString("FirstStage").putString("flat")
+                .putDouble(100).putDateTime(LocalDateTime.of(2024, Month.JULY, 1, 12, 0)).putInt(StageType.FLAT.ordinal()));
+            journal.close();
+            CyclingPortal replayed=new CyclingPortal();
+            assert(replayed.replayJournal(outOfOrderFile.toString())==4);
+            int nextStage=replayed.addStageToRace(1, "FirstStageTwo", "flat", 100, LocalDateTime.of(2024, Month.JULY, 2, 12, 0), StageType.FLAT);
+            assert(nextStage==3);//The counter doesn't go back to the lower ID replayed last
+            assert(Arrays.equals(replayed.getRaceStages(1), new int[] {1,3}));
+            assert(Arrays.equals(replayed.getRaceStages(2), new int[] {2}));
+        }
+        catch(Exception e){
+            System.out.println(e);
+        }
+        finally{
+            if(outOfOrderFile!=null){
+                outOfOrderFile.toFile().delete();
+            }
+        }
+
+        try{//Timing events are put together into rows and registered in batches
+            ConcurrentCyclingPortal live=new ConcurrentCyclingPortal();
+            int liveTeam=live.createTeam("Timed", "riders");
+            int liveRace=live.createRace("LiveRace", "timed");
+            int liveStage=live.addStageToRace(liveRace, "LiveStage", "flat", 100, LocalDateTime.of(2024, Month.JULY, 1, 12, 0), StageType.FLAT);
+            live.addIntermediateSprintToStage(liveStage, 50);
+            live.concludeStagePreparation(liveStage);
+            int[] liveRiders=new int[20];
+            for(int i=0;i<liveRiders.length;i++){
+                liveRiders[i]=live.createRider(liveTeam, "Live"+i, 1990);
+            }
+            int directRider=live.createRider(liveTeam, "Direct", 1990);
+            live.registerRiderResultsInStage(liveStage, directRider, LocalTime.of(12, 0), LocalTime.of(13, 0), LocalTime.of(14, 5));
+            LiveTimingPipeline pipeline=new LiveTimingPipeline(live, 4, 8);//A small queue so producers have to wait
+            for(int checkpoint=0;checkpoint<3;checkpoint++){
+                for(int i=0;i<liveRiders.length;i++){
+                    pipeline.submit(liveStage, liveRiders[i], checkpoint, LocalTime.of(12+checkpoint, 0, liveRiders.length-i));
+                }
+            }
+            pipeline.submit(liveStage, liveRiders[0], 1, LocalTime.of(13, 0));//A second crossing of the same point
+            pipeline.submit(liveStage, liveRiders[0], 3, LocalTime.of(13, 0));//A point the stage doesn't have
+            pipeline.submit(liveStage+1, liveRiders[0], 0, LocalTime.of(13, 0));//A stage that doesn't exist
+            pipeline.submit(liveStage, liveRiders[0], 2, LocalTime.of(14, 0));//The row is complete so a second read doesn't start a new one
+            pipeline.submit(liveStage, directRider, 2, LocalTime.of(14, 0));//The rider already has a result in the portal
+            pipeline.submit(liveStage, 9999, 0, LocalTime.of(12, 0));//The rider doesn't exist so the row is refused
+            pipeline.submit(liveStage, 9999, 1, LocalTime.of(13, 0));
+            pipeline.submit(liveStage, 9999, 2, LocalTime.of(14, 0));
+            pipeline.flush();
+            live.deleteRiderResultsInStage(liveStage, liveRiders[0]);//Once the result is deleted the rider can be timed again
+            pipeline.submit(liveStage, liveRiders[0], 0, LocalTime.of(12, 0));
+            pipeline.submit(liveStage, liveRiders[0], 1, LocalTime.of(13, 0));
+            pipeline.submit(liveStage, liveRiders[0], 2, LocalTime.of(14, 10));
+            pipeline.close();
+            assert(pipeline.getRowsCommitted()==liveRiders.length+1);
+            assert(pipeline.getRejectedEvents()==5);
+            assert(pipeline.getRejectedRows()==1);
+            assert(pipeline.getPendingRows()==0);
+            assert(pipeline.getEventsReceived()==3*liveRiders.length+11);
+            assert(pipeline.getLastFailure()==null);
+            int[] liveRanks=live.getRidersRankInStage(liveStage);
+            assert(liveRanks[0]==liveRiders[liveRiders.length-1]);
+            assert(liveRanks[liveRanks.length-1]==liveRiders[0]);//Re-timed slower than everyone
+            assert(live.getRiderResultsInStage(liveStage, liveRiders[0]).length==2);
+            try{
+                pipeline.submit(liveStage, liveRiders[0], 0, LocalTime.of(12, 0));
+                assert(false);
+            }
+            catch(IllegalStateException e){
+            }
+        }
+        catch(Exception e){
+            System.out.println(e);
+        }
+
+        try{//An unexpected error while registering loses only the rows it hit and the worker carries on
+            ConcurrentCyclingPortal failing=new ConcurrentCyclingPortal(){
+                @Override
+                public void registerStageResults(int stageId, int[] riderIds, LocalTime[][] checkpoints){
+                    throw new UncheckedIOException(new IOException("The journal couldn't be written"));
+                }
+
+                @Override
+                public void registerRiderResultsInStage(int stageId, int riderId, LocalTime... checkpoints){
+                    throw new UncheckedIOException(new IOException("The journal couldn't be written"));
+                }
+            };
+            int failingTeam=failing.createTeam("Failing", "riders");
+            int failingRace=failing.createRace("FailingRace", "timed");
+            int failingStage=failing.addStageToRace(failingRace, "FailingStage", "flat", 100, LocalDateTime.of(2024, Month.JULY, 1, 12, 0), StageType.FLAT);
+            failing.concludeStagePreparation(failingStage);
+            LiveTimingPipeline pipeline=new LiveTimingPipeline(failing, 2, 2);
+            for(int i=0;i<10;i++){//More events than the queue holds, so submit would block if the worker had died
+                int riderId=failing.createRider(failingTeam, "Failing"+i, 1990);
+                pipeline.submit(failingStage, riderId, 0, LocalTime.of(12, 0));
+                pipeline.submit(failingStage, riderId, 1, LocalTime.of(14, 0, i));
+            }
+            pipeline.flush();
+            assert(pipeline.getRejectedRows()==10);
+            assert(pipeline.getRowsCommitted()==0);
+            assert(pipeline.getLastFailure() instanceof UncheckedIOException);
+            pipeline.close();
+        }
+        catch(Exception e){
+            System.out.println(e);
+        }
+
+        try{//Ranking changes are pushed to subscribers as deltas
+            ConcurrentCyclingPortal pushed=new ConcurrentCyclingPortal();
+            int pushTeam=pushed.createTeam("Pushed", "riders");
+            int pushRace=pushed.createRace("PushRace", "pushed");
+            int pushStage=pushed.addStageToRace(pushRace, "PushStage", "flat", 100, LocalDateTime.of(2024, Month.JULY, 1, 12, 0), StageType.FLAT);
+            pushed.concludeStagePreparation(pushStage);
+            int[] pushRiders=new int[3];
+            for(int i=0;i<pushRiders.length;i++){
+                pushRiders[i]=pushed.createRider(pushTeam, "Pushed"+i, 1990);
+            }
+            LeaderboardPublisher stageBoard=pushed.getStagePublisher(pushStage);
+            LeaderboardPublisher raceBoard=pushed.getRacePublisher(pushRace);
+            long pushHits=pushed.getStageCacheHits(pushStage);
+            long pushMisses=pushed.getStageCacheMisses(pushStage);
+            RankingDelta start=stageBoard.current();
+            List<RankingDelta> received=Collections.synchronizedList(new ArrayList<RankingDelta>());
+            CountDownLatch completed=new CountDownLatch(1);
+            stageBoard.subscribe(new Flow.Subscriber<RankingDelta>(){
+                public void onSubscribe(Flow.Subscription subscription){
+                    subscription.request(Long.MAX_VALUE);
+                }
+                public void onNext(RankingDelta delta){
+                    received.add(delta);
+                }
+                public void onError(Throwable throwable){
+                }
+                public void onComplete(){
+                    completed.countDown();
+                }
+            });
+            for(int i=0;i<pushRiders.length;i++){//Each rider is faster than the last so moves to the top
+                pushed.registerRiderResultsInStage(pushStage, pushRiders[i], LocalTime.of(12, 0), LocalTime.of(15, 0, 30-i));
+            }
+            pushed.deleteRiderResultsInStage(pushStage, pushRiders[1]);
+            assert(pushed.getStageCacheHits(pushStage)==pushHits);//Publishing isn't counted as a request
+            assert(pushed.getStageCacheMisses(pushStage)==pushMisses);
+            int[] finalRank=pushed.getRidersRankInStage(pushStage);
+            assert(pushed.getStageCacheHits(pushStage)+pushed.getStageCacheMisses(pushStage)==pushHits+pushMisses+1);
+            assert(Arrays.equals(raceBoard.current().getRiderIds(), pushed.getRidersGeneralClassificationRank(pushRace)));
+            pushed.removeStageById(pushStage);//Closes the stage's publisher
+            assert(completed.await(5, TimeUnit.SECONDS));
+            assert(stageBoard.isClosed());
+            assert(raceBoard.current().getSize()==0);
+            int[] rebuilt=start.applyTo(new int[0]);
+            long sequence=start.getSequence();
+            for(RankingDelta delta : received){
+                assert(delta.getSequence()==sequence+1);
+                sequence=delta.getSequence();
+                rebuilt=delta.applyTo(rebuilt);
+            }
+            assert(received.size()==4);
+            assert(received.get(3).getPositions().length==1);//Only the rider who moved up a place
+            assert(Arrays.equals(rebuilt, finalRank));
+        }
+        catch(Exception e){
+            System.out.println(e);
+        }
+
+        Path snapshotDirectory=null;
+        try{//Background snapshots capture the portal at one moment while results carry on being registered
+            snapshotDirectory=Files.createTempDirectory("snapshots");
+            String snapshotJournal=snapshotDirectory.resolve("snapshots.log").toString();
+            ConcurrentCyclingPortal snapped=new ConcurrentCyclingPortal();
+            snapped.openJournal(snapshotJournal, FsyncPolicy.EVERY_RECORD, 1);
+            int snapTeam=snapped.createTeam("Snapped", "riders");
+            int snapRace=snapped.createRace("SnapRace", "snapped");
+            int snapStage=snapped.addStageToRace(snapRace, "SnapStage", "flat", 100, LocalDateTime.of(2024, Month.JULY, 1, 12, 0), StageType.FLAT);
+            snapped.concludeStagePreparation(snapStage);
+            int[] snapRiders=new int[2000];
+            for(int i=0;i<snapRiders.length;i++){
+                snapRiders[i]=snapped.createRider(snapTeam, "Snapped"+i, 1990);
+            }
+            snapped.startBackgroundSnapshots(snapshotDirectory.toString(), "snap", 2);
+            SnapshotReport before=snapped.snapshotInBackground().get();
+            assert(before.getFilename().endsWith("snap-1.cyc"));
+            assert(before.getSize()==Files.size(Path.of(before.getFilename())));
+            CountDownLatch started=new CountDownLatch(1);
+            Thread registrar=new Thread(() -> {
+                try{
+                    for(int i=0;i<snapRiders.length;i++){//Each rider is slower than the last so ranks in registration order
+                        snapped.registerRiderResultsInStage(snapStage, snapRiders[i], LocalTime.of(12, 0), LocalTime.of(15, 0).plusSeconds(i));
+                        if(i==19){
+                            started.countDown();
+                        }
+                    }
+                }
+                catch(Exception e){
+                    System.out.println(e);
+                }
+            });
+            registrar.start();
+            assert(started.await(5, TimeUnit.SECONDS));
+            CompletableFuture<SnapshotReport> during=snapped.snapshotInBackground();
+            registrar.join();
+            SnapshotReport midway=during.get();
+            int registered=(int)(midway.getJournalSequence()-before.getJournalSequence());//One journal record per result
+            assert(registered>=20 && registered<=snapRiders.length);
+            snapped.closeJournal();
+            CyclingPortal restored=new CyclingPortal();
+            restored.loadCyclingPortal(midway.getFilename());
+            assert(Arrays.equals(restored.getRidersRankInStage(snapStage), Arrays.copyOf(snapRiders, registered)));//The ranking as it was at capture
+            restored.loadCyclingPortal(midway.getFilename(), snapshotJournal);
+            assert(Arrays.equals(restored.getRidersRankInStage(snapStage), snapRiders));//The journal replays the rest
+            SnapshotReport last=null;
+            for(int i=0;i<3;i++){
+                last=snapped.snapshotInBackground().get();
+            }
+            assert(last.getFilename().endsWith("snap-5.cyc"));
+            assert(last.getJournalSequence()==before.getJournalSequence()+snapRiders.length);
+            assert(last.getSize()==Files.size(Path.of(last.getFilename())));
+            assert(snapped.getLastSnapshotReport()==last);
+            String[] kept=snapshotDirectory.toFile().list((directory, name) -> name.endsWith(".cyc"));
+            Arrays.sort(kept);
+            assert(Arrays.equals(kept, new String[] {"snap-4.cyc", "snap-5.cyc"}));//Only the newest are kept
+            snapped.stopBackgroundSnapshots();
+        }
+        catch(Exception e){
+            System.out.println(e);
+        }
+        finally{
+            if(snapshotDirectory!=null){
+                for(File file : snapshotDirectory.toFile().listFiles()){
+                    file.delete();
+                }
+                snapshotDirectory.toFile().delete();
+            }
+        }
+
+        Path archiveFile=null;
+        try{//Riders are removed from an opened archive without reading the races they never rode in
+            archiveFile=Files.createTempFile("archive", ".cyc");
+            CyclingPortal archived=new CyclingPortal();
+            int archiveTeam=archived.createTeam("Archived", "riders");
+            int first=archived.createRider(archiveTeam, "First", 1990);
+            int second=archived.createRider(archiveTeam, "Second", 1991);
+            int third=archived.createRider(archiveTeam, "Third", 1992);
+            int[] archiveRaces=new int[3];
+            int[] archiveStages=new int[4];
+            for(int i=0;i<archiveRaces.length;i++){
+                archiveRaces[i]=archived.createRace("ArchiveRace"+i, "archived");
+            }
+            for(int i=0;i<archiveStages.length;i++){//Race 0 has two stages
+                archiveStages[i]=archived.addStageToRace(archiveRaces[Math.max(0, i-1)], "ArchiveStage"+i, "flat", 100, LocalDateTime.of(2024, Month.JULY, 1+i, 12, 0), StageType.FLAT);
+                archived.concludeStagePreparation(archiveStages[i]);
+            }
+            int[][] archiveRiders={{first, second}, {first}, {first, second}, {third}};
+            for(int i=0;i<archiveStages.length;i++){
+                for(int j=0;j<archiveRiders[i].length;j++){
+                    archived.registerRiderResultsInStage(archiveStages[i], archiveRiders[i][j], LocalTime.of(12, 0), LocalTime.of(15, j, 0));
+                }
+            }
+            archived.saveCyclingPortal(archiveFile.toString());
+            CyclingPortal opened=new CyclingPortal();
+            opened.openCyclingPortalArchive(archiveFile.toString());
+            opened.removeRider(first);//Results in three stages of two races
+            opened.removeStageById(archiveStages[0]);//The second rider's only other result
+            opened.removeRider(second);
+            assert(Arrays.equals(opened.getRaceStages(archiveRaces[0]), new int[] {archiveStages[1]}));
+            assert(opened.getRidersRankInStage(archiveStages[1]).length==0);
+            assert(opened.getRidersRankInStage(archiveStages[2]).length==0);
+            assert(Arrays.equals(opened.getRidersRankInStage(archiveStages[3]), new int[] {third}));
+            assert(Arrays.equals(opened.getTeamRiders(archiveTeam), new int[] {third}));
+            assert(opened.purgeRiderResults(new int[] {third})==1);
+        }
+        catch(Exception e){
+            System.out.println(e);
+        }
+        finally{
+            if(archiveFile!=null){
+                archiveFile.toFile().delete();
+            }
+        }
+
+        try{//Runs of the ranking are read without copying the whole field
+            CyclingPortal board=new CyclingPortal();
+            int boardTeam=board.createTeam("Board", "riders");
+            int boardRace=board.createRace("BoardRace", "ranked");
+            int boardStage=board.addStageToRace(boardRace, "BoardStage", "flat", 100, LocalDateTime.of(2024, Month.JULY, 1, 12, 0), StageType.FLAT);
+            board.concludeStagePreparation(boardStage);
+            for(int i=0;i<10;i++){
+                int riderId=board.createRider(boardTeam, "Board"+i, 1990);
+                board.registerRiderResultsInStage(boardStage, riderId, LocalTime.of(12, 0), LocalTime.of(15, 0, 50-i*5));
+            }
+            int[] fullRank=board.getRidersRankInStage(boardStage);
+            LocalTime[] fullTimes=board.getRankedAdjustedElapsedTimesInStage(boardStage);
+            assert(Arrays.equals(board.getRidersRankInStage(boardStage, 0, 3), Arrays.copyOfRange(fullRank, 0, 3)));
+            assert(Arrays.equals(board.getRidersRankInStage(boardStage, 8, 5), Arrays.copyOfRange(fullRank, 8, 10)));
+            assert(board.getRidersRankInStage(boardStage, 20, 5).length==0);
+            assert(Arrays.equals(board.getRankedAdjustedElapsedTimesInStage(boardStage, 4, 3), Arrays.copyOfRange(fullTimes, 4, 7)));
+            assert(board.getRiderPositionInStage(boardStage, fullRank[6])==6);
+            assert(Arrays.equals(board.getRidersAroundRiderInStage(boardStage, fullRank[1], 2, 2), Arrays.copyOfRange(fullRank, 0, 4)));
+            long hits=board.findStageInRace(boardStage).getCacheHits();
+            long misses=board.findStageInRace(boardStage).getCacheMisses();
+            board.getRidersGeneralClassificationRank(boardRace);
+            board.getRidersPointClassificationRank(boardRace);
+            assert(board.findStageInRace(boardStage).getCacheHits()==hits);//Race classifications aren't counted as stage queries
+            assert(board.findStageInRace(boardStage).getCacheMisses()==misses);
+            try{
+                board.getRidersRankInStage(boardStage, -1, 3);
+                assert(false);
+            }
+            catch(IllegalArgumentException e){
+            }
+        }
+        catch(Exception e){
+            System.out.println(e);
+        }
+
+        try{//Tied riders are ranked the same whether registered one at a time or in one batch
+            LocalTime[] finishes={LocalTime.of(11, 0, 10), LocalTime.of(11, 0, 20), LocalTime.of(11, 0, 10), LocalTime.of(11, 0, 20), LocalTime.of(11, 0, 5)};
+            int[][] ranks=new int[3][];
+            for(int way=0;way<3;way++){
+                CyclingPortal tied=new CyclingPortal();
+                int tiedTeam=tied.createTeam("Tied", "riders");
+                int tiedRace=tied.createRace("TiedRace", "tied");
+                int tiedStage=tied.addStageToRace(tiedRace, "TiedStage", "flat", 100, LocalDateTime.of(2024, Month.JULY, 1, 10, 0), StageType.FLAT);
+                tied.concludeStagePreparation(tiedStage);
+                int[] tiedRiders=new int[finishes.length];
+                LocalTime[][] rows=new LocalTime[finishes.length][];
+                for(int i=0;i<finishes.length;i++){
+                    tiedRiders[i]=tied.createRider(tiedTeam, "Tied"+i, 1990);
+                    rows[i]=new LocalTime[]{LocalTime.of(10, 0), finishes[i]};
+                }
+                if(way==0){
+                    for(int i=0;i<finishes.length;i++){
+                        tied.registerRiderResultsInStage(tiedStage, tiedRiders[i], rows[i]);
+                    }
+                }
+                else if(way==1){
+                    tied.registerStageResults(tiedStage, tiedRiders, rows);
+                }
+                else{//One rider first, then the rest as a batch into a stage that already has results
+                    tied.registerRiderResultsInStage(tiedStage, tiedRiders[0], rows[0]);
+                    tied.registerStageResults(tiedStage, Arrays.copyOfRange(tiedRiders, 1, finishes.length), Arrays.copyOfRange(rows, 1, finishes.length));
+                }
+                ranks[way]=tied.getRidersRankInStage(tiedStage);
+            }
+            assert(Arrays.equals(ranks[0], ranks[1]));
+            assert(Arrays.equals(ranks[0], ranks[2]));
+        }
+        catch(Exception e){
+            System.out.println(e);
+        }
+
+        try{//A stage with no start time is saved and loaded in the binary format
+            CyclingPortal undated=new CyclingPortal();
+            int undatedRace=undated.createRace("UndatedRace", "no start time");
+            int undatedStage=undated.addStageToRace(undatedRace, "UndatedStage", "flat", 100, null, StageType.FLAT);
+            Path undatedFile=Files.createTempFile("undated", ".cyc");
+            try{
+                undated.saveCyclingPortal(undatedFile.toString());
+                undated.eraseCyclingPortal();
+                undated.loadCyclingPortal(undatedFile.toString());
+                assert(Arrays.equals(undated.getRaceStages(undatedRace), new int[] {undatedStage}));
+                assert(undated.getStageLength(undatedStage)==100);
+            }
+            finally{
+                Files.deleteIfExists(undatedFile);
+            }
+        }
+        catch(Exception e){
+            System.out.println(e);
+        }
+
         try{
             System.out.println("fin");
         }
@@ -0,0 +1,148 @@
+import cycling.ConcurrentCyclingPortal;
+import cycling.CyclingPortal;
+import cycling.MiniCyclingPortalInterface;
+import cycling.StageType;
+
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ContentionBenchmark --- Measures how result registration scales with the number of races being timed at once.
+ * Each active race gets its own thread which registers a result for every rider in its stage, ranks the stage
+ * and deletes the results again, over and over. The same work is run on a ConcurrentCyclingPortal, where each
+ * race has its own lock, and on a CyclingPortal behind one shared monitor.
+ * Usage: java ContentionBenchmark [most races] [seconds per run]
+ *
+ * @author Matt Trenchard
+ * @version 1.0
+ */
+public class ContentionBenchmark {
+    private static final int RIDERS=200;
+
+    /**
+     * Does one unit of work on a portal: one result registered, ranked or deleted
+     */
+    private interface Work{
+        /**
+         * Carries out the work
+         * @param stageId   The stage being timed
+         * @param riderId   The rider being timed
+         * @param step   0 registers the rider's result, 1 ranks the stage and 2 deletes the result
+         * @throws Exception If the portal rejects the work
+         */
+        void run(int stageId, int riderId, int step) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception{
+        int mostRaces=args.length>0 ? Integer.parseInt(args[0]) : 8;
+        double seconds=args.length>1 ? Double.parseDouble(args[1]) : 1;
+        System.out.println("cores: "+Runtime.getRuntime().availableProcessors());
+        System.out.println("races  striped ops/s  global ops/s");
+        for(int races=1;races<=mostRaces;races*=2){
+            ConcurrentCyclingPortal striped=new ConcurrentCyclingPortal();
+            int[] stripedStages=setUp(striped,races);
+            double stripedRate=measure(races,seconds,stripedStages,(stageId,riderId,step) -> {
+                work(striped,stageId,riderId,step);
+            });
+            CyclingPortal plain=new CyclingPortal();
+            int[] plainStages=setUp(plain,races);
+            double globalRate=measure(races,seconds,plainStages,(stageId,riderId,step) -> {
+                synchronized(plain){
+                    work(plain,stageId,riderId,step);
+                }
+            });
+            System.out.printf("%5d  %13.0f  %12.0f%n",races,stripedRate,globalRate);
+        }
+    }
+
+    /**
+     * Creates the riders and a race with one stage waiting for results for each active race
+     * @param portal   The portal to fill
+     * @param races   The number of races
+     * @return The ID of each race's stage
+     * @throws Exception If the portal rejects the set up
+     */
+    private static int[] setUp(MiniCyclingPortalInterface portal, int races) throws Exception{
+        int teamId=portal.createTeam("Bench", "riders");
+        for(int i=0;i<RIDERS;i++){
+            portal.createRider(teamId, "Rider"+i, 1990);
+        }
+        int[] stageIds=new int[races];
+        for(int i=0;i<races;i++){
+            int raceId=portal.createRace("Race"+i, "benchmark");
+            stageIds[i]=portal.addStageToRace(raceId, "Stage"+i, "flat", 150, LocalDateTime.of(2024,7,1,12,0), StageType.FLAT);
+            portal.concludeStagePreparation(stageIds[i]);
+        }
+        return stageIds;
+    }
+
+    /**
+     * Carries out one unit of work on a portal
+     * @param portal   The portal
+     * @param stageId   The stage being timed
+     * @param riderId   The rider being timed
+     * @param step   0 registers the rider's result, 1 ranks the stage and 2 deletes the result
+     * @throws Exception If the portal rejects the work
+     */
+    private static void work(MiniCyclingPortalInterface portal, int stageId, int riderId, int step) throws Exception{
+        if(step==0){
+            portal.registerRiderResultsInStage(stageId, riderId, LocalTime.of(12,0), LocalTime.of(15,0,riderId%60,riderId));
+        }
+        else if(step==1){
+            portal.getRidersRankInStage(stageId);
+        }
+        else{
+            portal.deleteRiderResultsInStage(stageId, riderId);
+        }
+    }
+
+    /**
+     * Runs one thread per race for a while and counts the work done
+     * @param races   The number of races
+     * @param seconds   How long to run for
+     * @param stageIds   The stage of each race
+     * @param work   The work to do
+     * @return The units of work done per second over all threads
+     * @throws InterruptedException If interrupted while waiting for the threads
+     */
+    private static double measure(int races, double seconds, int[] stageIds, Work work) throws InterruptedException{
+        AtomicBoolean stop=new AtomicBoolean();
+        AtomicLong done=new AtomicLong();
+        Thread[] threads=new Thread[races];
+        for(int t=0;t<races;t++){
+            int stageId=stageIds[t];
+            threads[t]=new Thread(() -> {
+                long count=0;
+                try{
+                    while(!stop.get()){
+                        for(int step=0;step<3;step++){
+                            for(int riderId=1;riderId<=RIDERS;riderId++){
+                                work.run(stageId, riderId, step);
+                                count++;
+                                if(step==1){
+                                    break;//One ranking per lap
+                                }
+                            }
+                        }
+                    }
+                }
+                catch(Exception e){
+                    System.out.println(e);
+                }
+                done.addAndGet(count);
+            });
+        }
+        long start=System.nanoTime();
+        for(Thread thread : threads){
+            thread.start();
+        }
+        Thread.sleep((long) (seconds*1000));
+        stop.set(true);
+        for(Thread thread : threads){
+            thread.join();
+        }
+        return done.get()/((System.nanoTime()-start)/1e9);
+    }
+}
@@ -0,0 +1,1231 @@
+package cycling;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * ConcurrentCyclingPortal --- A MiniCyclingPortalInterface that can be shared between threads.
+ * Every call is passed on to a CyclingPortal while holding StampedLocks. The portal's lock is only held for writing
+ * when teams, riders or races are created or removed, or the whole portal is replaced. Everything else belongs to
+ * one race, so it holds the portal's lock for reading and that race's own lock, letting results for different
+ * races be registered at the same time. Lookups that only read the portal's data are first tried without any lock
+ * and their answer is only kept if no writer got a lock in the meantime. Calls that fill in the stages' and races'
+ * cached classifications hold read locks, which still lets them run alongside each other.
+ * Stage names are unique across every race, which the session guarantees by reserving a name in its index of
+ * stage names before a stage is added, so adding stages to different races needs no shared lock.
+ * New IDs are taken from the session's atomic counters so they are never given out twice.
+ * Changes to a stage's ranking or a race's general classification are pushed to subscribers of its
+ * LeaderboardPublisher while the lock of the write is still held. A ranking is only worked out after a write
+ * if something has asked for its publisher.
+ * Contains attributes:
+ * portal(CyclingPortal) - The portal all calls are passed on to
+ * lock(StampedLock) - Held for writing while teams, riders or races change and for reading while a race is used
+ * stagePublishers, racePublishers(ConcurrentHashMap<Integer,LeaderboardPublisher>) - The publisher of each stage's
+ * ranking and each race's general classification that has been asked for
+ *
+ * @author Matt Trenchard
+ * @version 1.4
+ */
+public class ConcurrentCyclingPortal implements MiniCyclingPortalInterface{
+    private final CyclingPortal portal;
+    private final StampedLock lock;
+    private final ConcurrentHashMap<Integer,LeaderboardPublisher> stagePublishers;
+    private final ConcurrentHashMap<Integer,LeaderboardPublisher> racePublishers;
+
+    /**
+     * A lookup on the portal that doesn't change anything, so it can be tried without holding the lock
+     * @param <T> The type of the answer
+     * @param <E> The exception the lookup can throw
+     */
+    private interface PortalRead<T,E extends Exception>{
+        /**
+         * Carries out the lookup
+         * @param portal   The portal to read
+         * @return The answer of the lookup
+         * @throws E If the lookup fails
+         */
+        T apply(CyclingPortal portal) throws E;
+    }
+
+    /**
+     * Finds the race a call is about, so its lock can be taken
+     */
+    private interface RaceLookup{
+        /**
+         * Finds the race
+         * @param portal   The portal to search
+         * @return The race, or a null value if the ID isn't recognised
+         */
+        Race find(CyclingPortal portal);
+    }
+
+    /**
+     * Carries out a lookup without taking the lock. If a writer took the lock while the lookup ran, whatever it
+     * returned or threw may have come from half changed data, so it is carried out again holding the read lock.
+     * @param <T> The type of the answer
+     * @param <E> The exception the lookup can throw
+     * @param read   The lookup
+     * @return The answer of the lookup
+     * @throws E If the lookup fails on data no writer was changing
+     */
+    private <T,E extends Exception> T optimisticRead(PortalRead<T,E> read) throws E{
+        long stamp=lock.tryOptimisticRead();
+        if(stamp!=0){//Zero when a writer already holds the lock
+            try{
+                T answer=read.apply(portal);
+                if(lock.validate(stamp)){
+                    return answer;
+                }
+            }
+            catch(Exception e){
+                if(lock.validate(stamp)){
+                    throw e;//Nothing was being changed so the failure is genuine
+                }
+            }
+        }
+        stamp=lock.readLock();
+        try{
+            return read.apply(portal);
+        }
+        finally{
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Carries out a lookup on one race without taking any lock. It is carried out again holding the read locks
+     * if a writer took the portal's lock or the race's lock while it ran.
+     * @param <T> The type of the answer
+     * @param <E> The exception the lookup can throw
+     * @param lookup   Finds the race the lookup is about
+     * @param read   The lookup
+     * @return The answer of the lookup
+     * @throws E If the lookup fails on data no writer was changing
+     */
+    private <T,E extends Exception> T optimisticReadRace(RaceLookup lookup, PortalRead<T,E> read) throws E{
+        long stamp=lock.tryOptimisticRead();
+        if(stamp!=0){
+            Race race=null;
+            long raceStamp=0;
+            try{
+                race=lookup.find(portal);
+                if(race!=null){
+                    raceStamp=race.getLock().tryOptimisticRead();
+                }
+                if(race==null || raceStamp!=0){
+                    T answer=read.apply(portal);
+                    if(validate(stamp,race,raceStamp)){
+                        return answer;
+                    }
+                }
+            }
+            catch(Exception e){
+                if(validate(stamp,race,raceStamp)){
+                    throw e;//Nothing was being changed so the failure is genuine
+                }
+            }
+        }
+        return readRace(lookup,read);
+    }
+
+    /**
+     * Checks no writer has taken the portal's lock or a race's lock since an optimistic read started
+     * @param stamp   The stamp of the portal's lock
+     * @param race   The race that was read, or a null value if there wasn't one
+     * @param raceStamp   The stamp of the race's lock
+     * @return True if the read saw data no writer was changing
+     */
+    private boolean validate(long stamp, Race race, long raceStamp){
+        if(!lock.validate(stamp)){
+            return false;
+        }
+        return race==null || (raceStamp!=0 && race.getLock().validate(raceStamp));
+    }
+
+    /**
+     * Carries out a call on one race holding the portal's read lock and the race's read lock
+     * @param <T> The type of the answer
+     * @param <E> The exception the call can throw
+     * @param lookup   Finds the race the call is about
+     * @param read   The call
+     * @return The answer of the call
+     * @throws E If the call fails
+     */
+    private <T,E extends Exception> T readRace(RaceLookup lookup, PortalRead<T,E> read) throws E{
+        long stamp=lock.readLock();
+        try{
+            Race race=lookup.find(portal);
+            if(race==null){
+                return read.apply(portal);//Lets the portal report the unrecognised ID
+            }
+            long raceStamp=race.getLock().readLock();
+            try{
+                return read.apply(portal);
+            }
+            finally{
+                race.getLock().unlockRead(raceStamp);
+            }
+        }
+        finally{
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Takes a race's write lock. The portal's read lock must already be held so the race can't be removed meanwhile,
+     * while other races can still be changed at the same time.
+     * @param race   The race, or a null value if the ID of the call wasn't recognised
+     * @return The stamp of the race's lock, or 0 if there is no race
+     */
+    private long writeLockRace(Race race){
+        if(race==null){
+            return 0;//The portal reports the unrecognised ID
+        }
+        return race.getLock().writeLock();
+    }
+
+    /**
+     * Releases a race's write lock taken by {@link #writeLockRace(Race)}
+     * @param race   The race, or a null value if there was no race
+     * @param raceStamp   The stamp of the race's lock
+     */
+    private void unlockWriteRace(Race race, long raceStamp){
+        if(race!=null){
+            race.getLock().unlockWrite(raceStamp);
+        }
+    }
+
+    /**
+     * Carries out a call that reads every race holding the portal's read lock and every race's read lock.
+     * Races are locked in list order and a change only ever holds one race's lock, so this can't deadlock.
+     * @param <T> The type of the answer
+     * @param <E> The exception the call can throw
+     * @param read   The call
+     * @return The answer of the call
+     * @throws E If the call fails
+     */
+    private <T,E extends Exception> T readAllRaces(PortalRead<T,E> read) throws E{
+        long stamp=lock.readLock();
+        ArrayList<Race> races=new ArrayList<Race>();
+        long[] raceStamps=null;
+        try{
+            for(int raceId : portal.getRaceIds()){
+                races.add(portal.findRace(raceId));
+            }
+            raceStamps=new long[races.size()];
+            for(int i=0;i<races.size();i++){
+                raceStamps[i]=races.get(i).getLock().readLock();
+            }
+            return read.apply(portal);
+        }
+        finally{
+            for(int i=0;raceStamps!=null && i<raceStamps.length;i++){
+                if(raceStamps[i]!=0){
+                    races.get(i).getLock().unlockRead(raceStamps[i]);
+                }
+            }
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Gets the IDs of all the races
+     * @return The race IDs
+     */
+    public int[] getRaceIds(){
+        return optimisticRead(p -> p.getRaceIds());
+    }
+
+    /**
+     * Creates a race holding the write lock
+     * @param name   The name of the race
+     * @param description   A description of the race
+     * @return The ID of the new race
+     * @throws IllegalNameException If the name is already used
+     * @throws InvalidNameException If the name is empty, too long or contains whitespace
+     */
+    public int createRace(String name, String description) throws IllegalNameException, InvalidNameException{
+        long stamp=lock.writeLock();
+        try{
+            return portal.createRace(name,description);
+        }
+        finally{
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Gets the details of a race
+     * @param raceId   The ID of the race
+     * @return The race's details
+     * @throws IDNotRecognisedException If the ID doesn't match a race
+     */
+    public String viewRaceDetails(int raceId) throws IDNotRecognisedException{
+        return optimisticReadRace(p -> p.findRace(raceId), p -> p.viewRaceDetails(raceId));
+    }
+
+    /**
+     * Removes a race holding the write lock
+     * @param raceId   The ID of the race
+     * @throws IDNotRecognisedException If the ID doesn't match a race
+     */
+    public void removeRaceById(int raceId) throws IDNotRecognisedException{
+        long stamp=lock.writeLock();
+        try{
+            portal.removeRaceById(raceId);
+            publishAll();
+        }
+        finally{
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Gets the number of stages in a race
+     * @param raceId   The ID of the race
+     * @return The number of stages
+     * @throws IDNotRecognisedException If the ID doesn't match a race
+     */
+    public int getNumberOfStages(int raceId) throws IDNotRecognisedException{
+        return optimisticReadRace(p -> p.findRace(raceId), p -> p.getNumberOfStages(raceId));
+    }
+
+    /**
+     * Adds a stage to a race holding its race's write lock
+     * @param raceId   The ID of the race
+     * @param stageName   The name of the stage
+     * @param description   A description of the stage
+     * @param length   The length of the stage in km
+     * @param startTime   When the stage starts
+     * @param type   The type of the stage
+     * @return The ID of the new stage
+     * @throws IDNotRecognisedException If the ID doesn't match a race
+     * @throws IllegalNameException If the name is already used
+     * @throws InvalidNameException If the name is empty, too long or contains whitespace
+     * @throws InvalidLengthException If the length is less than 5km
+     */
+    public int addStageToRace(int raceId, String stageName, String description, double length, LocalDateTime startTime, StageType type)
+    throws IDNotRecognisedException, IllegalNameException, InvalidNameException, InvalidLengthException{
+        long stamp=lock.readLock();
+        try{
+            Race race=portal.findRace(raceId);
+            long raceStamp=writeLockRace(race);
+            try{
+                return portal.addStageToRace(raceId,stageName,description,length,startTime,type);
+            }
+            finally{
+                unlockWriteRace(race,raceStamp);
+            }
+        }
+        finally{
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Gets the stages of a race
+     * @param raceId   The ID of the race
+     * @return The stage IDs ordered by start time
+     * @throws IDNotRecognisedException If the ID doesn't match a race
+     */
+    public int[] getRaceStages(int raceId) throws IDNotRecognisedException{
+        return optimisticReadRace(p -> p.findRace(raceId), p -> p.getRaceStages(raceId));
+    }
+
+    /**
+     * Gets the length of a stage
+     * @param stageId   The ID of the stage
+     * @return The length in km
+     * @throws IDNotRecognisedException If the ID doesn't match a stage
+     */
+    public double getStageLength(int stageId) throws IDNotRecognisedException{
+        return optimisticReadRace(p -> p.findRaceOfStage(stageId), p -> p.getStageLength(stageId));
+    }
+
+    /**
+     * Removes a stage holding its race's write lock
+     * @param stageId   The ID of the stage
+     * @throws IDNotRecognisedException If the ID doesn't match a stage
+     */
+    public void removeStageById(int stageId) throws IDNotRecognisedException{
+        long stamp=lock.readLock();
+        try{
+            Race race=portal.findRaceOfStage(stageId);
+            long raceStamp=writeLockRace(race);
+            try{
+                portal.removeStageById(stageId);
+                LeaderboardPublisher publisher=stagePublishers.remove(stageId);
+                if(publisher!=null){
+                    publisher.close();
+                }
+                publishRace(race);
+            }
+            finally{
+                unlockWriteRace(race,raceStamp);
+            }
+        }
+        finally{
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Adds a climb to a stage holding its race's write lock
+     * @param stageId   The ID of the stage
+     * @param location   Where the climb finishes in km
+     * @param type   The category of the climb
+     * @param averageGradient   The average gradient of the climb
+     * @param length   The length of the climb in km
+     * @return The ID of the new segment
+     * @throws IDNotRecognisedException If the ID doesn't match a stage
+     * @throws InvalidLocationException If the location is outside the stage
+     * @throws InvalidStageStateException If the stage is waiting for results
+     * @throws InvalidStageTypeException If the stage is a time trial
+     */
+    public int addCategorizedClimbToStage(int stageId, Double location, SegmentType type, Double averageGradient, Double length)
+    throws IDNotRecognisedException, InvalidLocationException, InvalidStageStateException, InvalidStageTypeException{
+        long stamp=lock.readLock();
+        try{
+            Race race=portal.findRaceOfStage(stageId);
+            long raceStamp=writeLockRace(race);
+            try{
+                return portal.addCategorizedClimbToStage(stageId,location,type,averageGradient,length);
+            }
+            finally{
+                unlockWriteRace(race,raceStamp);
+            }
+        }
+        finally{
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Adds an intermediate sprint to a stage holding its race's write lock
+     * @param stageId   The ID of the stage
+     * @param location   Where the sprint is in km
+     * @return The ID of the new segment
+     * @throws IDNotRecognisedException If the ID doesn't match a stage
+     * @throws InvalidLocationException If the location is outside the stage
+     * @throws InvalidStageStateException If the stage is waiting for results
+     * @throws InvalidStageTypeException If the stage is a time trial
+     */
+    public int addIntermediateSprintToStage(int stageId, double location)
+    throws IDNotRecognisedException, InvalidLocationException, InvalidStageStateException, InvalidStageTypeException{
+        long stamp=lock.readLock();
+        try{
+            Race race=portal.findRaceOfStage(stageId);
+            long raceStamp=writeLockRace(race);
+            try{
+                return portal.addIntermediateSprintToStage(stageId,location);
+            }
+            finally{
+                unlockWriteRace(race,raceStamp);
+            }
+        }
+        finally{
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Removes a segment holding its race's write lock
+     * @param segmentId   The ID of the segment
+     * @throws IDNotRecognisedException If the ID doesn't match a segment
+     * @throws InvalidStageStateException If the stage is waiting for results
+     */
+    public void removeSegment(int segmentId) throws IDNotRecognisedException, InvalidStageStateException{
+        long stamp=lock.readLock();
+        try{
+            Race race=portal.findRaceOfSegment(segmentId);
+            long raceStamp=writeLockRace(race);
+            try{
+                portal.removeSegment(segmentId);
+            }
+            finally{
+                unlockWriteRace(race,raceStamp);
+            }
+        }
+        finally{
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Moves a stage on to waiting for results holding its race's write lock
+     * @param stageId   The ID of the stage
+     * @throws IDNotRecognisedException If the ID doesn't match a stage
+     * @throws InvalidStageStateException If the stage is already waiting for results
+     */
+    public void concludeStagePreparation(int stageId) throws IDNotRecognisedException, InvalidStageStateException{
+        long stamp=lock.readLock();
+        try{
+            Race race=portal.findRaceOfStage(stageId);
+            long raceStamp=writeLockRace(race);
+            try{
+                portal.concludeStagePreparation(stageId);
+            }
+            finally{
+                unlockWriteRace(race,raceStamp);
+            }
+        }
+        finally{
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Gets the segments of a stage
+     * @param stageId   The ID of the stage
+     * @return The segment IDs ordered by location
+     * @throws IDNotRecognisedException If the ID doesn't match a stage
+     */
+    public int[] getStageSegments(int stageId) throws IDNotRecognisedException{
+        return optimisticReadRace(p -> p.findRaceOfStage(stageId), p -> p.getStageSegments(stageId));
+    }
+
+    /**
+     * Finds a team's ID from its name
+     * @param name   The name of the team
+     * @return The ID of the team
+     * @throws NameNotRecognisedException If no team has the name
+     */
+    public int getTeamIdByName(String name) throws NameNotRecognisedException{
+        return optimisticRead(p -> p.getTeamIdByName(name));
+    }
+
+    /**
+     * Finds a race's ID from its name
+     * @param name   The name of the race
+     * @return The ID of the race
+     * @throws NameNotRecognisedException If no race has the name
+     */
+    public int getRaceIdByName(String name) throws NameNotRecognisedException{
+        return optimisticRead(p -> p.getRaceIdByName(name));
+    }
+
+    /**
+     * Finds a stage's ID from its name
+     * @param name   The name of the stage
+     * @return The ID of the stage
+     * @throws NameNotRecognisedException If no stage has the name
+     */
+    public int getStageIdByName(String name) throws NameNotRecognisedException{
+        return optimisticRead(p -> p.getStageIdByName(name));
+    }
+
+    /**
+     * Creates a team holding the write lock
+     * @param name   The name of the team
+     * @param description   A description of the team
+     * @return The ID of the new team
+     * @throws IllegalNameException If the name is already used
+     * @throws InvalidNameException If the name is empty, too long or contains whitespace
+     */
+    public int createTeam(String name, String description) throws IllegalNameException, InvalidNameException{
+        long stamp=lock.writeLock();
+        try{
+            return portal.createTeam(name,description);
+        }
+        finally{
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes a team and its riders holding the write lock
+     * @param teamId   The ID of the team
+     * @throws IDNotRecognisedException If the ID doesn't match a team
+     */
+    public void removeTeam(int teamId) throws IDNotRecognisedException{
+        long stamp=lock.writeLock();
+        try{
+            portal.removeTeam(teamId);
+            publishAll();
+        }
+        finally{
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes a team, its riders and all their results holding the write lock
+     * @param teamId   The ID of the team
+     * @return The number of results removed
+     * @throws IDNotRecognisedException If the ID doesn't match a team
+     */
+    public int purgeTeam(int teamId) throws IDNotRecognisedException{
+        long stamp=lock.writeLock();
+        try{
+            int removed=portal.purgeTeam(teamId);
+            publishAll();
+            return removed;
+        }
+        finally{
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes every result of a group of riders holding the write lock, as their results can be in any race
+     * @param riderIds   The IDs of the riders
+     * @return The number of results removed
+     * @throws IDNotRecognisedException If an ID doesn't match a rider
+     */
+    public int purgeRiderResults(int[] riderIds) throws IDNotRecognisedException{
+        long stamp=lock.writeLock();
+        try{
+            int removed=portal.purgeRiderResults(riderIds);
+            publishAll();
+            return removed;
+        }
+        finally{
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Gets the IDs of all the teams
+     * @return The team IDs
+     */
+    public int[] getTeams(){
+        return optimisticRead(p -> p.getTeams());
+    }
+
+    /**
+     * Gets the riders of a team
+     * @param teamId   The ID of the team
+     * @return The rider IDs
+     * @throws IDNotRecognisedException If the ID doesn't match a team
+     */
+    public int[] getTeamRiders(int teamId) throws IDNotRecognisedException{
+        return optimisticRead(p -> p.getTeamRiders(teamId));
+    }
+
+    /**
+     * Creates a rider holding the write lock
+     * @param teamID   The ID of the rider's team
+     * @param name   The name of the rider
+     * @param yearOfBirth   The year the rider was born
+     * @return The ID of the new rider
+     * @throws IDNotRecognisedException If the ID doesn't match a team
+     * @throws IllegalArgumentException If the name is null or the year is before 1900
+     */
+    public int createRider(int teamID, String name, int yearOfBirth) throws IDNotRecognisedException, IllegalArgumentException{
+        long stamp=lock.writeLock();
+        try{
+            return portal.createRider(teamID,name,yearOfBirth);
+        }
+        finally{
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes a rider and their results holding the write lock
+     * @param riderId   The ID of the rider
+     * @throws IDNotRecognisedException If the ID doesn't match a rider
+     */
+    public void removeRider(int riderId) throws IDNotRecognisedException{
+        long stamp=lock.writeLock();
+        try{
+            portal.removeRider(riderId);
+            publishAll();
+        }
+        finally{
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Registers a rider's times in a stage holding its race's write lock
+     * @param stageId   The ID of the stage
+     * @param riderId   The ID of the rider
+     * @param checkpoints   The start time, a time for each segment and the finish time
+     * @throws IDNotRecognisedException If an ID doesn't match a stage or rider
+     * @throws DuplicatedResultException If the rider already has a result in the stage
+     * @throws InvalidCheckpointsException If the wrong number of times is given
+     * @throws InvalidStageStateException If the stage isn't waiting for results
+     */
+    public void registerRiderResultsInStage(int stageId, int riderId, LocalTime... checkpoints)
+    throws IDNotRecognisedException, DuplicatedResultException, InvalidCheckpointsException, InvalidStageStateException{
+        long stamp=lock.readLock();
+        try{
+            Race race=portal.findRaceOfStage(stageId);
+            long raceStamp=writeLockRace(race);
+            try{
+                portal.registerRiderResultsInStage(stageId,riderId,checkpoints);
+                publishStage(stageId,race);
+            }
+            finally{
+                unlockWriteRace(race,raceStamp);
+            }
+        }
+        finally{
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Registers the times of many riders in a stage in one go holding its race's write lock
+     * @param stageId   The ID of the stage
+     * @param riderIds   The IDs of the riders
+     * @param checkpoints   The times of each rider, in the same order as the IDs
+     * @throws IDNotRecognisedException If an ID doesn't match a stage or rider
+     * @throws DuplicatedResultException If a rider already has a result or appears more than once
+     * @throws InvalidCheckpointsException If the wrong number of rows or times is given
+     * @throws InvalidStageStateException If the stage isn't waiting for results
+     */
+    public void registerStageResults(int stageId, int[] riderIds, LocalTime[][] checkpoints)
+    throws IDNotRecognisedException, DuplicatedResultException, InvalidCheckpointsException, InvalidStageStateException{
+        long stamp=lock.readLock();
+        try{
+            Race race=portal.findRaceOfStage(stageId);
+            long raceStamp=writeLockRace(race);
+            try{
+                portal.registerStageResults(stageId,riderIds,checkpoints);
+                publishStage(stageId,race);
+            }
+            finally{
+                unlockWriteRace(race,raceStamp);
+            }
+        }
+        finally{
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Gets a rider's times in a stage
+     * @param stageId   The ID of the stage
+     * @param riderId   The ID of the rider
+     * @return The rider's times, with their adjusted elapsed time last
+     * @throws IDNotRecognisedException If an ID doesn't match a stage or rider
+     */
+    public LocalTime[] getRiderResultsInStage(int stageId, int riderId) throws IDNotRecognisedException{
+        return optimisticReadRace(p -> p.findRaceOfStage(stageId), p -> p.getRiderResultsInStage(stageId,riderId));
+    }
+
+    /**
+     * Gets a rider's adjusted elapsed time in a stage holding its race's read lock
+     * @param stageId   The ID of the stage
+     * @param riderId   The ID of the rider
+     * @return The adjusted elapsed time, or a null value if the rider has no result
+     * @throws IDNotRecognisedException If an ID doesn't match a stage or rider
+     */
+    public LocalTime getRiderAdjustedElapsedTimeInStage(int stageId, int riderId) throws IDNotRecognisedException{
+        return readRace(p -> p.findRaceOfStage(stageId), p -> p.getRiderAdjustedElapsedTimeInStage(stageId,riderId));
+    }
+
+    /**
+     * Removes a rider's times from a stage holding its race's write lock
+     * @param stageId   The ID of the stage
+     * @param riderId   The ID of the rider
+     * @throws IDNotRecognisedException If an ID doesn't match a stage or rider
+     */
+    public void deleteRiderResultsInStage(int stageId, int riderId) throws IDNotRecognisedException{
+        long stamp=lock.readLock();
+        try{
+            Race race=portal.findRaceOfStage(stageId);
+            long raceStamp=writeLockRace(race);
+            try{
+                portal.deleteRiderResultsInStage(stageId,riderId);
+                publishStage(stageId,race);
+            }
+            finally{
+                unlockWriteRace(race,raceStamp);
+            }
+        }
+        finally{
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Gets the riders of a stage in ranking order holding its race's read lock
+     * @param stageId   The ID of the stage
+     * @return The rider IDs
+     * @throws IDNotRecognisedException If the ID doesn't match a stage
+     */
+    public int[] getRidersRankInStage(int stageId) throws IDNotRecognisedException{
+        return readRace(p -> p.findRaceOfStage(stageId), p -> p.getRidersRankInStage(stageId));
+    }
+
+    /**
+     * Gets the adjusted elapsed times of a stage in ranking order holding its race's read lock
+     * @param stageId   The ID of the stage
+     * @return The adjusted elapsed times
+     * @throws IDNotRecognisedException If the ID doesn't match a stage
+     */
+    public LocalTime[] getRankedAdjustedElapsedTimesInStage(int stageId) throws IDNotRecognisedException{
+        return readRace(p -> p.findRaceOfStage(stageId), p -> p.getRankedAdjustedElapsedTimesInStage(stageId));
+    }
+
+    /**
+     * Gets the riders at a run of positions in a stage holding its race's read lock
+     * @param stageId   The ID of the stage
+     * @param offset   The first position. 0 is the winner.
+     * @param limit   The most riders to get
+     * @return The rider IDs
+     * @throws IDNotRecognisedException If the ID doesn't match a stage
+     * @throws IllegalArgumentException If the offset or limit is negative
+     */
+    public int[] getRidersRankInStage(int stageId, int offset, int limit) throws IDNotRecognisedException, IllegalArgumentException{
+        return readRace(p -> p.findRaceOfStage(stageId), p -> p.getRidersRankInStage(stageId,offset,limit));
+    }
+
+    /**
+     * Gets the adjusted elapsed times at a run of positions in a stage holding its race's read lock
+     * @param stageId   The ID of the stage
+     * @param offset   The first position. 0 is the winner.
+     * @param limit   The most times to get
+     * @return The adjusted elapsed times
+     * @throws IDNotRecognisedException If the ID doesn't match a stage
+     * @throws IllegalArgumentException If the offset or limit is negative
+     */
+    public LocalTime[] getRankedAdjustedElapsedTimesInStage(int stageId, int offset, int limit) throws IDNotRecognisedException, IllegalArgumentException{
+        return readRace(p -> p.findRaceOfStage(stageId), p -> p.getRankedAdjustedElapsedTimesInStage(stageId,offset,limit));
+    }
+
+    /**
+     * Gets a rider's position in a stage's ranking holding its race's read lock
+     * @param stageId   The ID of the stage
+     * @param riderId   The ID of the rider
+     * @return The position of the rider, or -1 if they have no result
+     * @throws IDNotRecognisedException If an ID doesn't match a stage or rider
+     */
+    public int getRiderPositionInStage(int stageId, int riderId) throws IDNotRecognisedException{
+        return readRace(p -> p.findRaceOfStage(stageId), p -> p.getRiderPositionInStage(stageId,riderId));
+    }
+
+    /**
+     * Gets the riders around a rider in a stage's ranking holding its race's read lock
+     * @param stageId   The ID of the stage
+     * @param riderId   The ID of the rider
+     * @param before   How many places ahead of the rider to include
+     * @param after   How many places behind the rider to include
+     * @return The rider IDs in ranking order, the rider included
+     * @throws IDNotRecognisedException If an ID doesn't match a stage or rider
+     * @throws IllegalArgumentException If before or after is negative
+     */
+    public int[] getRidersAroundRiderInStage(int stageId, int riderId, int before, int after) throws IDNotRecognisedException, IllegalArgumentException{
+        return readRace(p -> p.findRaceOfStage(stageId), p -> p.getRidersAroundRiderInStage(stageId,riderId,before,after));
+    }
+
+    /**
+     * Gets the points of a stage in ranking order holding its race's read lock
+     * @param stageId   The ID of the stage
+     * @return The points of each rider
+     * @throws IDNotRecognisedException If the ID doesn't match a stage
+     */
+    public int[] getRidersPointsInStage(int stageId) throws IDNotRecognisedException{
+        return readRace(p -> p.findRaceOfStage(stageId), p -> p.getRidersPointsInStage(stageId));
+    }
+
+    /**
+     * Gets the mountain points of a stage in ranking order holding its race's read lock
+     * @param stageId   The ID of the stage
+     * @return The mountain points of each rider
+     * @throws IDNotRecognisedException If the ID doesn't match a stage
+     */
+    public int[] getRidersMountainPointsInStage(int stageId) throws IDNotRecognisedException{
+        return readRace(p -> p.findRaceOfStage(stageId), p -> p.getRidersMountainPointsInStage(stageId));
+    }
+
+    /**
+     * Gets the total adjusted elapsed times of a race in general classification order holding its race's read lock
+     * @param raceId   The ID of the race
+     * @return The total times
+     * @throws IDNotRecognisedException If the ID doesn't match a race
+     */
+    public Duration[] getGeneralClassificationTimesInRace(int raceId) throws IDNotRecognisedException{
+        return readRace(p -> p.findRace(raceId), p -> p.getGeneralClassificationTimesInRace(raceId));
+    }
+
+    /**
+     * Gets the riders of a race in general classification order holding its race's read lock
+     * @param raceId   The ID of the race
+     * @return The rider IDs
+     * @throws IDNotRecognisedException If the ID doesn't match a race
+     */
+    public int[] getRidersGeneralClassificationRank(int raceId) throws IDNotRecognisedException{
+        return readRace(p -> p.findRace(raceId), p -> p.getRidersGeneralClassificationRank(raceId));
+    }
+
+    /**
+     * Gets the total points of a race in general classification order holding its race's read lock
+     * @param raceId   The ID of the race
+     * @return The points of each rider
+     * @throws IDNotRecognisedException If the ID doesn't match a race
+     */
+    public int[] getRidersPointsInRace(int raceId) throws IDNotRecognisedException{
+        return readRace(p -> p.findRace(raceId), p -> p.getRidersPointsInRace(raceId));
+    }
+
+    /**
+     * Gets the total mountain points of a race in general classification order holding its race's read lock
+     * @param raceId   The ID of the race
+     * @return The mountain points of each rider
+     * @throws IDNotRecognisedException If the ID doesn't match a race
+     */
+    public int[] getRidersMountainPointsInRace(int raceId) throws IDNotRecognisedException{
+        return readRace(p -> p.findRace(raceId), p -> p.getRidersMountainPointsInRace(raceId));
+    }
+
+    /**
+     * Gets the riders of a race in points classification order holding its race's read lock
+     * @param raceId   The ID of the race
+     * @return The rider IDs
+     * @throws IDNotRecognisedException If the ID doesn't match a race
+     */
+    public int[] getRidersPointClassificationRank(int raceId) throws IDNotRecognisedException{
+        return readRace(p -> p.findRace(raceId), p -> p.getRidersPointClassificationRank(raceId));
+    }
+
+    /**
+     * Gets the riders of a race in mountain classification order holding its race's read lock
+     * @param raceId   The ID of the race
+     * @return The rider IDs
+     * @throws IDNotRecognisedException If the ID doesn't match a race
+     */
+    public int[] getRidersMountainPointClassificationRank(int raceId) throws IDNotRecognisedException{
+        return readRace(p -> p.findRace(raceId), p -> p.getRidersMountainPointClassificationRank(raceId));
+    }
+
+    /**
+     * Gets how many classification requests for a stage were answered from its cache
+     * @param stageId   The ID of the stage
+     * @return The number of cache hits
+     * @throws IDNotRecognisedException If the ID doesn't match a stage
+     */
+    public long getStageCacheHits(int stageId) throws IDNotRecognisedException{
+        return readRace(p -> p.findRaceOfStage(stageId), p -> p.getStageCacheHits(stageId));
+    }
+
+    /**
+     * Gets how many classification requests for a stage had to be worked out from its results
+     * @param stageId   The ID of the stage
+     * @return The number of cache misses
+     * @throws IDNotRecognisedException If the ID doesn't match a stage
+     */
+    public long getStageCacheMisses(int stageId) throws IDNotRecognisedException{
+        return readRace(p -> p.findRaceOfStage(stageId), p -> p.getStageCacheMisses(stageId));
+    }
+
+    /**
+     * Gets the publisher of a stage's ranking, creating it the first time it is asked for
+     * @param stageId   The ID of the stage
+     * @return The publisher of changes to the riders' ranking in the stage
+     * @throws IDNotRecognisedException If the ID doesn't match a stage
+     */
+    public LeaderboardPublisher getStagePublisher(int stageId) throws IDNotRecognisedException{
+        return readRace(p -> p.findRaceOfStage(stageId), p -> {
+            LeaderboardPublisher publisher=stagePublishers.get(stageId);
+            if(publisher==null){//The race's read lock stops the ranking changing before the publisher is in the map
+                publisher=new LeaderboardPublisher(stageRanking(p,stageId),Flow.defaultBufferSize());
+                LeaderboardPublisher existing=stagePublishers.putIfAbsent(stageId,publisher);
+                if(existing!=null){
+                    publisher=existing;
+                }
+            }
+            return publisher;
+        });
+    }
+
+    /**
+     * Gets the publisher of a race's general classification, creating it the first time it is asked for
+     * @param raceId   The ID of the race
+     * @return The publisher of changes to the riders' general classification rank in the race
+     * @throws IDNotRecognisedException If the ID doesn't match a race
+     */
+    public LeaderboardPublisher getRacePublisher(int raceId) throws IDNotRecognisedException{
+        return readRace(p -> p.findRace(raceId), p -> {
+            LeaderboardPublisher publisher=racePublishers.get(raceId);
+            if(publisher==null){
+                publisher=new LeaderboardPublisher(p.getRidersGeneralClassificationRank(raceId),Flow.defaultBufferSize());
+                LeaderboardPublisher existing=racePublishers.putIfAbsent(raceId,publisher);
+                if(existing!=null){
+                    publisher=existing;
+                }
+            }
+            return publisher;
+        });
+    }
+
+    /**
+     * Gets a stage's ranking for its publisher without counting it as a request in the stage's cache statistics
+     * @param p   The portal holding the stage
+     * @param stageId   The ID of the stage
+     * @return The rider IDs in ranking order, shared with the stage's cache so it must not be modified
+     * @throws IDNotRecognisedException If the ID doesn't match a stage
+     */
+    private static int[] stageRanking(CyclingPortal p, int stageId) throws IDNotRecognisedException{
+        Stage stage=p.findStageInRace(stageId);
+        if(stage==null){
+            throw new IDNotRecognisedException("ID not recognised");
+        }
+        return stage.ranking();//Publishers only read it, so it isn't copied
+    }
+
+    /**
+     * Publishes a stage's new ranking and its race's new general classification, if anything has asked for them.
+     * Must be called holding the race's write lock.
+     * @param stageId   The ID of the stage
+     * @param race   The race of the stage
+     */
+    private void publishStage(int stageId, Race race){
+        LeaderboardPublisher publisher=stagePublishers.get(stageId);
+        if(publisher!=null){
+            try{
+                publisher.publish(stageRanking(portal,stageId));
+            }
+            catch(IDNotRecognisedException e){
+                //Can't happen while the race's lock is held
+            }
+        }
+        publishRace(race);
+    }
+
+    /**
+     * Publishes a race's new general classification, if anything has asked for it.
+     * Must be called holding the race's write lock.
+     * @param race   The race
+     */
+    private void publishRace(Race race){
+        LeaderboardPublisher publisher=racePublishers.get(race.getId());
+        if(publisher!=null){
+            try{
+                publisher.publish(portal.getRidersGeneralClassificationRank(race.getId()));
+            }
+            catch(IDNotRecognisedException e){
+                //Can't happen while the race's lock is held
+            }
+        }
+    }
+
+    /**
+     * Publishes every ranking that has been asked for after a change that can reach any race, and closes the
+     * publishers of stages and races that no longer exist. Must be called holding the write lock.
+     */
+    private void publishAll(){
+        for(int stageId : stagePublishers.keySet()){
+            try{
+                stagePublishers.get(stageId).publish(stageRanking(portal,stageId));
+            }
+            catch(IDNotRecognisedException e){
+                stagePublishers.remove(stageId).close();
+            }
+        }
+        for(int raceId : racePublishers.keySet()){
+            try{
+                racePublishers.get(raceId).publish(portal.getRidersGeneralClassificationRank(raceId));
+            }
+            catch(IDNotRecognisedException e){
+                racePublishers.remove(raceId).close();
+            }
+        }
+    }
+
+    /**
+     * Sets how many threads race classifications are worked out on, holding the write lock
+     * @param parallelism   The number of threads. 1 works them out on the calling thread.
+     * @throws IllegalArgumentException If the parallelism is less than 1
+     */
+    public void setClassificationParallelism(int parallelism) throws IllegalArgumentException{
+        long stamp=lock.writeLock();
+        try{
+            portal.setClassificationParallelism(parallelism);
+        }
+        finally{
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes everything from the portal holding the write lock
+     */
+    public void eraseCyclingPortal(){
+        long stamp=lock.writeLock();
+        try{
+            portal.eraseCyclingPortal();
+            publishAll();
+        }
+        finally{
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Saves the portal to a file holding every race's read lock, so results can't change part way through
+     * @param filename   The name of the file
+     * @throws IOException If the file can't be written
+     */
+    public void saveCyclingPortal(String filename) throws IOException{
+        readAllRaces(p -> {
+            p.saveCyclingPortal(filename);
+            return null;
+        });
+    }
+
+    /**
+     * Replaces the portal's contents with a saved portal holding the write lock
+     * @param filename   The name of the file
+     * @throws IOException If the file can't be read
+     * @throws ClassNotFoundException If a class in the file can't be found
+     */
+    public void loadCyclingPortal(String filename) throws IOException, ClassNotFoundException{
+        long stamp=lock.writeLock();
+        try{
+            portal.loadCyclingPortal(filename);
+            publishAll();
+        }
+        finally{
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Loads a saved portal and replays the journal records written after it, holding the write lock
+     * @param filename   The name of the saved portal
+     * @param journalFilename   The name of the journal
+     * @throws IOException If either file can't be read or a record can't be replayed
+     * @throws ClassNotFoundException If a class in the file can't be found
+     */
+    public void loadCyclingPortal(String filename, String journalFilename) throws IOException, ClassNotFoundException{
+        long stamp=lock.writeLock();
+        try{
+            portal.loadCyclingPortal(filename,journalFilename);
+            publishAll();
+        }
+        finally{
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Starts journalling every change holding the write lock
+     * @param filename   The name of the journal
+     * @param policy   When records are forced to disk
+     * @param groupSize   How many records are forced together with EVERY_GROUP
+     * @throws IOException If the journal can't be opened
+     */
+    public void openJournal(String filename, FsyncPolicy policy, int groupSize) throws IOException{
+        long stamp=lock.writeLock();
+        try{
+            portal.openJournal(filename,policy,groupSize);
+        }
+        finally{
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Forces journal records written so far to disk holding the read lock, so the journal can't be closed or
+     * replaced meanwhile. Results can still be registered as the journal does its own locking for records.
+     * @throws IOException If the journal can't be forced
+     */
+    public void syncJournal() throws IOException{
+        long stamp=lock.readLock();
+        try{
+            portal.syncJournal();
+        }
+        finally{
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Stops journalling holding the write lock
+     * @throws IOException If the journal can't be closed
+     */
+    public void closeJournal() throws IOException{
+        long stamp=lock.writeLock();
+        try{
+            portal.closeJournal();
+        }
+        finally{
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Starts taking background snapshots holding the write lock
+     * @param directory   The directory snapshots are written to
+     * @param prefix   The start of each snapshot's file name
+     * @param keep   How many snapshots are kept
+     * @throws IOException If the directory can't be read
+     */
+    public void startBackgroundSnapshots(String directory, String prefix, int keep) throws IOException{
+        long stamp=lock.writeLock();
+        try{
+            portal.startBackgroundSnapshots(directory,prefix,keep);
+        }
+        finally{
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Takes a background snapshot. Every race's read lock is only held while the session is copied, which shares
+     * every stage's results rather than copying them, so registration carries on while the copy is encoded.
+     * @return A future completed with the snapshot's report once it is on disk, or completed exceptionally if
+     *         it can't be encoded or written
+     * @throws IllegalStateException If background snapshots haven't been started
+     */
+    public CompletableFuture<SnapshotReport> snapshotInBackground(){
+        return readAllRaces(p -> p.snapshotInBackground());
+    }
+
+    /**
+     * Gets the report of the last background snapshot written, holding the read lock so the writer isn't swapped
+     * @return The report, or a null value if no snapshot has been written
+     */
+    public SnapshotReport getLastSnapshotReport(){
+        long stamp=lock.readLock();
+        try{
+            return portal.getLastSnapshotReport();
+        }
+        finally{
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Stops taking background snapshots holding the write lock
+     */
+    public void stopBackgroundSnapshots(){
+        long stamp=lock.writeLock();
+        try{
+            portal.stopBackgroundSnapshots();
+        }
+        finally{
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Takes a snapshot of the portal holding every race's read lock, so it sees every race at one moment.
+     * The snapshot can then be read from any thread without taking these locks.
+     * @return A read only portal pinned to the current contents of this one
+     */
+    public ReadOnlyCyclingPortal snapshot(){
+        return readAllRaces(p -> p.snapshot());
+    }
+
+    /**
+     * Creates a new, empty portal that can be shared between threads
+     */
+    public ConcurrentCyclingPortal(){
+        portal=new CyclingPortal();
+        lock=new StampedLock();
+        stagePublishers=new ConcurrentHashMap<Integer,LeaderboardPublisher>();
+        racePublishers=new ConcurrentHashMap<Integer,LeaderboardPublisher>();
+    }
+}
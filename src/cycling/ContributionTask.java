@@ -0,0 +1,50 @@
+package cycling;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * ContributionTask --- Works out the contributions of a range of stages on a fork join pool.
+ * The range is split in half until one stage is left, so each stage is scored on its own thread.
+ * Each contribution is written to the same position as its stage, so the results are in stage order
+ * whatever order the work finishes in.
+ * Contains attributes:
+ * stages(Stage[]) - The stages to be scored
+ * contributions(StageContribution[]) - Where the contribution of each stage is written
+ * from, to(int) - The range of positions this task scores, from inclusive and to exclusive
+ *
+ * @author Matt Trenchard
+ * @version 1.0
+ */
+public class ContributionTask extends RecursiveAction{
+    private Stage[] stages;
+    private StageContribution[] contributions;
+    private int from;
+    private int to;
+
+    /**
+     * Scores the stages in the task's range, splitting the range if there is more than one
+     */
+    protected void compute(){
+        if(to-from==1){
+            contributions[from]=new StageContribution(stages[from]);
+        }
+        else{
+            int middle=(from+to)>>>1;
+            invokeAll(new ContributionTask(stages,contributions,from,middle),new ContributionTask(stages,contributions,middle,to));
+        }
+    }
+
+    /**
+     * Creates a task to score a range of stages
+     * @param stages   The stages to be scored
+     * @param contributions   The array the contributions are written to, the same length as stages
+     * @param from   The first position to be scored
+     * @param to   The position after the last one to be scored
+     */
+    public ContributionTask(Stage[] stages, StageContribution[] contributions, int from, int to){
+        this.stages=stages;
+        this.contributions=contributions;
+        this.from=from;
+        this.to=to;
+    }
+}
@@ -1,10 +1,19 @@
 package cycling;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
 import java.time.temporal.ChronoUnit;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 /**
  * CyclingPortal --- A class implementing MiniCyclingPortalInterface.
@@ -17,6 +26,9 @@ import java.io.*;
 
 public class CyclingPortal implements MiniCyclingPortalInterface{
     private Session session;
+    private ForkJoinPool classificationPool;//Null when race classifications are worked out on the calling thread
+    private Journal journal;//Null when changes aren't being journalled
+    private SnapshotWriter snapshotWriter;//Null when background snapshots haven't been started
 
     /**
      * Used to find a team from the list of created teams.
@@ -25,15 +37,9 @@ public class CyclingPortal implements MiniCyclingPortalInterface{
      *         Otherwise a null value is returned
      */
     public Team findTeam(int id){
-        ArrayList<Team> teams=session.getAllTeams();//List of all created teams
-        for(int i=0; i<teams.size();i++){
-            if (teams.get(i).getId()==id){//Comparing search id and id of team being iterated
-                Team team=teams.get(i);
-                assert(team.getId()==id);
-                return team;
-            }
-        }
-        return null;
+        Team team=session.getTeam(id);
+        assert(team==null || team.getId()==id);
+        return team;
     }
 
     /**
@@ -43,20 +49,7 @@ public class CyclingPortal implements MiniCyclingPortalInterface{
      * @return A boolean value. True if the rider exists. False if not.
      */
     public boolean doesRiderExist(int riderId){
-        boolean foundRider=false;
-        for (int i=0;i<session.getAllTeams().size();i++){//Iterates through all the teams in system
-            if (foundRider){
-                break;
-            }
-            Team teamToSearch=session.getAllTeams().get(i);
-            for (int j=0;j<teamToSearch.getRiders().size();j++){//Iterates through the riders riding for the team being searched
-                if (teamToSearch.getRiders().get(j).getId()==riderId){
-                    foundRider=true;
-                    break;
-                }
-            }
-        }
-        return foundRider;
+        return session.getRider(riderId)!=null;
     }
 
     /**
@@ -66,15 +59,9 @@ public class CyclingPortal implements MiniCyclingPortalInterface{
      *         Otherwise a null value is returned.
      */
     public Race findRace(int id){
-        ArrayList<Race> races=session.getAllRaces();//List of all created races
-        for(int i=0; i<races.size();i++){
-            if (races.get(i).getId()==id){//Comparing search id and id of race being iterated
-                Race race=races.get(i);
-                assert(race.getId()==id);
-                return race;
-            }
-        }
-        return null;
+        Race race=session.getRace(id);
+        assert(race==null || race.getId()==id);
+        return race;
     }
 
     /**
@@ -84,13 +71,7 @@ public class CyclingPortal implements MiniCyclingPortalInterface{
      *         If not, a null value is returned
      */
     public Stage findStageInRace(int stageId){
-        ArrayList<Race> races=session.getAllRaces();
-        for (int i=0;i<races.size();i++){//Iterates through every created race
-            if (races.get(i).findStage(stageId)!=null){//Utilises race's findStage method to see if the stage is in the race being searched
-                return races.get(i).findStage(stageId);
-            }
-        }
-        return null;
+        return session.getStage(stageId);
     }
 
     /**
@@ -100,17 +81,73 @@ public class CyclingPortal implements MiniCyclingPortalInterface{
      *         If not, a null value is returned
      */
     public Segment findSegmentInStage(int segmentId){
-        ArrayList<Race> races=session.getAllRaces();
-        for (int i=0;i<races.size();i++){//Iterates through all the races in the system
-            ArrayList<Stage> stages=races.get(i).getAllStages();
-            for (int j=0;j<stages.size();j++){//Iterates through all the stages within race i
-                Segment segment=stages.get(j).findSegment(segmentId);//Utilises stage's method findSegment to see if the segment is in stage j
-                if(segment!=null){
-                    return segment;
-                }
-            }
+        return session.getSegment(segmentId);
+    }
+
+    /**
+     * Used to find the race a stage belongs to
+     * @param stageId   The ID of the stage
+     * @return If the stage exists, the race containing it is returned.
+     *         If not, a null value is returned
+     */
+    public Race findRaceOfStage(int stageId){
+        return session.getRaceOfStage(stageId);
+    }
+
+    /**
+     * Used to find the race a segment belongs to
+     * @param segmentId   The ID of the segment
+     * @return If the segment exists, the race containing its stage is returned.
+     *         If not, a null value is returned
+     */
+    public Race findRaceOfSegment(int segmentId){
+        Stage stage=session.getStageOfSegment(segmentId);
+        if(stage==null){
+            return null;
+        }
+        return session.getRaceOfStage(stage.getId());
+    }
+
+    /**
+     * Used to find a team's ID from its name
+     * @param name   The name of the team
+     * @return The ID of the team
+     * @throws NameNotRecognisedException If no team has the name
+     */
+    public int getTeamIdByName(String name) throws NameNotRecognisedException{
+        Team team=session.getTeamByName(name);
+        if(team==null){
+            throw new NameNotRecognisedException("Team name not recognised");
+        }
+        return team.getId();
+    }
+
+    /**
+     * Used to find a race's ID from its name
+     * @param name   The name of the race
+     * @return The ID of the race
+     * @throws NameNotRecognisedException If no race has the name
+     */
+    public int getRaceIdByName(String name) throws NameNotRecognisedException{
+        Race race=session.getRaceByName(name);
+        if(race==null){
+            throw new NameNotRecognisedException("Race name not recognised");
         }
-        return null;
+        return race.getId();
+    }
+
+    /**
+     * Used to find a stage's ID from its name. Stage names are unique across every race.
+     * @param name   The name of the stage
+     * @return The ID of the stage
+     * @throws NameNotRecognisedException If no stage has the name
+     */
+    public int getStageIdByName(String name) throws NameNotRecognisedException{
+        Stage stage=session.getStageByName(name);
+        if(stage==null){
+            throw new NameNotRecognisedException("Stage name not recognised");
+        }
+        return stage.getId();
     }
 
     /**
@@ -124,33 +161,81 @@ public class CyclingPortal implements MiniCyclingPortalInterface{
 	 *                              30 characters.
      */
     public int createTeam(String name, String description) throws IllegalNameException,InvalidNameException{
-        for(int i=0;i<session.getAllTeams().size();i++){
-            if(session.getAllTeams().get(i).getName().equals(name)){//Searching all created teams to check for name conflicts
-                throw new IllegalNameException("Name already used");
-            }
+        if(session.getTeamByName(name)!=null){//Looks the name up in the index of team names to check for name conflicts
+            throw new IllegalNameException("Name already used");
         }
         if(name==null || name.equals("") || name.length()>30 || name.contains(" ")){
             throw new InvalidNameException("Invalid name");
         }
-        int nextId=session.getNextTeamId();//Fetches the next unused team ID
-        session.incrementTeamId();//Increments ID counter to ensure uniqueness
+        int nextId=session.allocateTeamId();//Fetches the next unused team ID and moves the counter on
         session.appendTeam(new Team(name,description,nextId));//Adds new team to list of created teams
+        if(journal!=null){
+            log(new JournalRecord(JournalRecord.CREATE_TEAM).putInt(nextId).putString(name).putString(description));
+        }
         return nextId;
         }
 
     /**
-     * Removes a team from the list of created teams.
+     * Removes a team from the list of created teams. The team's riders and all their results are removed with it.
      * @param teamID   The ID of the team to be removed
 	 * @throws IDNotRecognisedException If the ID does not match to any team in the
 	 *                                  system.
      */
     public void removeTeam(int teamId) throws IDNotRecognisedException{
+        purgeTeam(teamId);
+    }
+
+    /**
+     * Removes a team, its riders and every result they have. Each stage the riders took part in removes all of
+     * their results in one pass.
+     * @param teamId   The ID of the team to be removed
+     * @return The number of results removed
+	 * @throws IDNotRecognisedException If the ID does not match to any team in the
+	 *                                  system.
+     */
+    public int purgeTeam(int teamId) throws IDNotRecognisedException{
         Team team=findTeam(teamId);
         if (team==null){
             throw new IDNotRecognisedException("ID not recognised");
         }
+        HashSet<Integer> riderIds=new HashSet<Integer>();
+        for(int i=0;i<team.getRiders().size();i++){
+            riderIds.add(team.getRiders().get(i).getId());
+        }
+        int removed=session.removeResultsOfRiders(riderIds);
         session.deleteTeam(team);
+        if(journal!=null){
+            log(new JournalRecord(JournalRecord.REMOVE_TEAM).putInt(teamId));
+        }
         assert(findTeam(teamId)==null);
+        return removed;
+    }
+
+    /**
+     * Removes every result of a group of riders from every stage, keeping the riders themselves.
+     * Each stage the riders took part in removes all of their results in one pass.
+     * @param riderIds   The IDs of the riders
+     * @return The number of results removed
+	 * @throws IDNotRecognisedException If any of the IDs does not match to any rider in the
+	 *                                  system. No results are removed.
+     */
+    public int purgeRiderResults(int[] riderIds) throws IDNotRecognisedException{
+        HashSet<Integer> riders=new HashSet<Integer>();
+        for(int i=0;i<riderIds.length;i++){//Checks every rider before anything is removed
+            if(doesRiderExist(riderIds[i])==false){
+                throw new IDNotRecognisedException("Rider ID not recognised");
+            }
+            riders.add(riderIds[i]);
+        }
+        int removed=session.removeResultsOfRiders(riders);
+        if(journal!=null){
+            JournalRecord record=new JournalRecord(JournalRecord.PURGE_RESULTS).putInt(riderIds.length);
+            for(int i=0;i<riderIds.length;i++){
+                record.putInt(riderIds[i]);
+            }
+            log(record);
+        }
+        return removed;
     }
 
     /**
@@ -185,9 +270,11 @@ public class CyclingPortal implements MiniCyclingPortalInterface{
         else if (name==null || yearOfBirth<1900){
             throw new IllegalArgumentException("Invalid attributes");
         }
-        int nextId=session.getNextRiderId();
-        session.incrementRiderId();
-        team.appendRider(new Rider(name, yearOfBirth, nextId));//Adds new rider to system
+        int nextId=session.allocateRiderId();
+        session.appendRider(team,new Rider(name, yearOfBirth, nextId));//Adds new rider to system
+        if(journal!=null){
+            log(new JournalRecord(JournalRecord.CREATE_RIDER).putInt(nextId).putInt(teamId).putString(name).putInt(yearOfBirth));
+        }
         return nextId;
     }
 
@@ -198,29 +285,15 @@ public class CyclingPortal implements MiniCyclingPortalInterface{
 	 *                                  system.
 	 */
     public void removeRider(int riderId) throws IDNotRecognisedException{
-        ArrayList<Team> teams=session.getAllTeams();//Every created team
-        boolean found=false;
-        for (int i=0;i<teams.size();i++){
-            if(found){
-                break;
-            }
-            ArrayList<Rider> riders=teams.get(i).getRiders();//Every rider in team i
-            for (int j=0;j<riders.size();j++){
-                if (riders.get(j).getId()==riderId){//Comparing search id against iterated id
-                    for(int k=0;k<session.getAllRaces().size();k++){//Will loop through every race
-                        for(int l=0;l<session.getAllRaces().get(k).getAllStages().size();l++){//Loops through every stage in a race to delete all the rider's results
-                            deleteRiderResultsInStage(session.getAllRaces().get(k).getAllStages().get(l).getId(), riderId);
-                        }
-                    }
-                    teams.get(i).deleteRider(riders.get(j));//Deleted if there is a match
-                    found=true;
-                    break;
-                }
-            }
-        }
-        if(found==false){
+        Rider rider=session.getRider(riderId);
+        if(rider==null){
             throw new IDNotRecognisedException("ID not recognised");
         }
+        session.removeResultsOfRider(riderId);//Only visits the stages the rider took part in. The journal only records the rider's removal
+        session.deleteRider(rider);
+        if(journal!=null){
+            log(new JournalRecord(JournalRecord.REMOVE_RIDER).putInt(riderId));
+        }
         assert(doesRiderExist(riderId)==false);
     }
 
@@ -249,12 +322,7 @@ public class CyclingPortal implements MiniCyclingPortalInterface{
 	 * @return An array of race IDs in the system or an empty array if none exists.
      */
     public int[] getRaceIds(){
-        ArrayList<Race> races=session.getAllRaces();
-        int[] raceIds = new int[races.size()];//Creates array to hold all race IDs
-        for (int i=0;i<races.size();i++){
-            raceIds[i]=races.get(i).getId();
-        }
-        return raceIds;
+        return session.getRaceIds();//Races still in an archive aren't read just to list their IDs
     }
 
 	/**
@@ -270,18 +338,18 @@ public class CyclingPortal implements MiniCyclingPortalInterface{
 	 * 
 	 */
     public int createRace(String name, String description) throws IllegalNameException, InvalidNameException{
-        for(int i=0;i<session.getAllRaces().size();i++){//Searching current races for any name conflict
-            if(session.getAllRaces().get(i).getName().equals(name)){
-                throw new IllegalNameException("Name already used");
-            }
+        if(session.getRaceByName(name)!=null){//Looks the name up in the index of race names for any name conflict
+            throw new IllegalNameException("Name already used");
         }
         if(name==null || name.equals("") || name.length()>30 || name.contains(" ")){
             throw new InvalidNameException("Invalid name");
         }
 
-        int nextId=session.getNextRaceId();//Gets next unique race ID
-        session.incrementRaceId();
+        int nextId=session.allocateRaceId();//Gets next unique race ID
         session.appendRace(new Race(nextId,name,description));
+        if(journal!=null){
+            log(new JournalRecord(JournalRecord.CREATE_RACE).putInt(nextId).putString(name).putString(description));
+        }
         return nextId;
     }
 
@@ -321,6 +389,9 @@ public class CyclingPortal implements MiniCyclingPortalInterface{
             throw new IDNotRecognisedException("ID not recognised");
         }
         session.removeRace(race);
+        if(journal!=null){
+            log(new JournalRecord(JournalRecord.REMOVE_RACE).putInt(raceId));
+        }
         assert(findRace(raceId)==null);
     }
 
@@ -364,13 +435,8 @@ public class CyclingPortal implements MiniCyclingPortalInterface{
         if (race==null){
             throw new IDNotRecognisedException("ID not recognised");
         }
-        for (int i=0;i<session.getAllRaces().size();i++){
-            Race raceToSearch=session.getAllRaces().get(i);
-            for (int j=0;j<raceToSearch.getAllStages().size();j++){
-                if (raceToSearch.getAllStages().get(j).getName().equals(stageName)){
-                    throw new IllegalNameException("Name already used");
-                }
-            }
+        if (session.getStageByName(stageName)!=null){//Stage names are unique across every race
+            throw new IllegalNameException("Name already used");
         }
         if(stageName==null || stageName.equals("") || stageName.length()>30 || stageName.contains(" ")){
             throw new InvalidNameException("Invalid name");
@@ -378,9 +444,14 @@ public class CyclingPortal implements MiniCyclingPortalInterface{
         else if(length<5){
             throw new InvalidLengthException("Length must be more than 5km");
         }
-        int nextId=session.getNextStageId();//Gets the next unique stage ID
-        session.incrementStageId();
-        race.insertStage(new Stage(nextId,stageName,description,length,startTime,type));
+        int nextId=session.allocateStageId();//Gets the next unique stage ID
+        if (!session.appendStage(race,new Stage(nextId,stageName,description,length,startTime,type))){
+            throw new IllegalNameException("Name already used");//Another thread added a stage with the name since the check above
+        }
+        if(journal!=null){
+            log(new JournalRecord(JournalRecord.ADD_STAGE).putInt(nextId).putInt(raceId).putString(stageName).putString(description)
+                .putDouble(length).putDateTime(startTime).putInt(type.ordinal()));
+        }
         return nextId;
     }
 
@@ -430,18 +501,14 @@ public class CyclingPortal implements MiniCyclingPortalInterface{
 	 *                                  system.
 	 */
     public void removeStageById(int stageId) throws IDNotRecognisedException{
-        ArrayList<Race> races=session.getAllRaces();
-        boolean removed=false;
-        for (int i=0;i<races.size();i++){
-            if (races.get(i).findStage(stageId)!=null){
-                races.get(i).removeStage(races.get(i).findStage(stageId));
-                removed=true;
-                break;
-            }
-        }
-        if (removed==false){//If nothing has been removed it means the ID has not been found
+        Stage stage=findStageInRace(stageId);
+        if (stage==null){
             throw new IDNotRecognisedException("ID not recognised");
         }
+        session.removeStage(stage);
+        if(journal!=null){
+            log(new JournalRecord(JournalRecord.REMOVE_STAGE).putInt(stageId));
+        }
         assert(findStageInRace(stageId)==null);
     }
 
@@ -481,9 +548,12 @@ public class CyclingPortal implements MiniCyclingPortalInterface{
         else if (stage.getType()==StageType.TT){
             throw new InvalidStageTypeException("Time trials cannot contain climbs");
         }
-        int id = session.getNextSegmentId();
-        session.incrementSegmentId();
-        stage.insertSegment(new Segment(id, location, averageGradient, type));
+        int id = session.allocateSegmentId();
+        session.appendSegment(stage,new Segment(id, location, averageGradient, type));
+        if(journal!=null){
+            log(new JournalRecord(JournalRecord.ADD_CLIMB).putInt(id).putInt(stageId).putDouble(location).putInt(type.ordinal())
+                .putDouble(averageGradient).putDouble(length));
+        }
 
         return id;
     }
@@ -520,9 +590,11 @@ public class CyclingPortal implements MiniCyclingPortalInterface{
             throw new InvalidStageTypeException("Time trials cannot contain sprints");
         }
 
-        int id = session.getNextSegmentId();
-        session.incrementSegmentId();
-        stage.insertSegment(new Segment(id, location, SegmentType.SPRINT));
+        int id = session.allocateSegmentId();
+        session.appendSegment(stage,new Segment(id, location, SegmentType.SPRINT));
+        if(journal!=null){
+            log(new JournalRecord(JournalRecord.ADD_SPRINT).putInt(id).putInt(stageId).putDouble(location));
+        }
 
         return id;
     }
@@ -559,28 +631,17 @@ public class CyclingPortal implements MiniCyclingPortalInterface{
 	 * @throws InvalidStageStateException If the stage is "waiting for results".
 	 */
     public void removeSegment(int segmentId)throws IDNotRecognisedException, InvalidStageStateException{
-        boolean found=false;
-        ArrayList<Race> races=session.getAllRaces();
-        for (int i=0;i<races.size();i++){
-            if (found==true){//If segment has been found in the previously searched race the search is ended
-                break;
-            }
-            ArrayList<Stage> stages=races.get(i).getAllStages();
-            for (int j=0;j<stages.size();j++){
-                Segment segment=stages.get(j).findSegment(segmentId);
-                if (segment!=null){
-                    if (stages.get(j).getState()=="wait"){
-                        throw new InvalidStageStateException("Stage is waiting for results");
-                    }
-                    stages.get(j).removeSegment(segment);
-                    found=true;
-                    break;
-                }
-            }
-        }
-        if (found==false){
+        Segment segment=findSegmentInStage(segmentId);
+        if (segment==null){
             throw new IDNotRecognisedException("ID not recognised");
         }
+        if (session.getStageOfSegment(segmentId).getState().equals("wait")){
+            throw new InvalidStageStateException("Stage is waiting for results");
+        }
+        session.removeSegment(segment);
+        if(journal!=null){
+            log(new JournalRecord(JournalRecord.REMOVE_SEGMENT).putInt(segmentId));
+        }
         assert(findSegmentInStage(segmentId)==null);
     }
 
@@ -623,25 +684,71 @@ public class CyclingPortal implements MiniCyclingPortalInterface{
             throw new IDNotRecognisedException("Rider ID not recognised");
         }
 
-        boolean foundResult=false;
-        for (int i=0;i<stage.getFinishResults().size();i++){//Search for any existing result for rider in stage
-            if (stage.getFinishResults().get(i).getRiderId()==riderId){
-                foundResult=true;
-            }
-        }
-        if (foundResult){
+        if (stage.findRiderResult(riderId)!=null){//Checks for any existing result for rider in stage
             throw new DuplicatedResultException("Rider already has result registered");
         }
 
-        ArrayList<Segment> segments=stage.getSegments();
-        stage.insertStartTime(new RiderResult(riderId, checkpoints[0]));//Adds riders start time to stage
-        for (int i=0;i<segments.size();i++){//Goes through each segment in stage and adds the time at which the rider finish each segment
-            segments.get(i).insertCheckpoint(new RiderResult(riderId, checkpoints[i+1]));
+        session.insertResult(stage, riderId, checkpoints);//Adds the riders start, segment and finish times to stage
+        if(journal!=null){
+            log(new JournalRecord(JournalRecord.REGISTER_RESULT).putInt(stageId).putInt(riderId).putTimes(checkpoints));
         }
-        stage.insertFinish(new RiderResult(riderId, checkpoints[checkpoints.length-1]));//Adds riders finish time to stage
     }
 
 
+    /**
+	 * Records the times of many riders in a stage at once, for example a whole stage sheet from a timing
+	 * provider. Everything is validated before any result is added so either every result is registered or none are.
+	 * Riders with equal times are ordered as if they were registered one at a time in the order given.
+	 * 
+	 * @param stageId     The ID of the stage the results refer to.
+	 * @param riderIds    The IDs of the riders.
+	 * @param checkpoints The times of each rider. Row i holds the times of the rider
+	 *                    in riderIds[i] in the same format as
+	 *                    {@link #registerRiderResultsInStage(int, int, LocalTime...)}.
+	 * @throws IDNotRecognisedException    If the ID does not match to any stage or
+	 *                                     any of the riders in the system.
+	 * @throws DuplicatedResultException   If a rider already has a result for the
+	 *                                     stage or appears more than once.
+	 * @throws InvalidCheckpointsException If the number of rows does not match the
+	 *                                     number of riders or a row does not have
+	 *                                     n+2 times, where n is the number of
+	 *                                     segments in the stage.
+	 * @throws InvalidStageStateException  If the stage is not "waiting for results".
+	 */
+    public void registerStageResults(int stageId, int[] riderIds, LocalTime[][] checkpoints)throws IDNotRecognisedException,
+    DuplicatedResultException, InvalidCheckpointsException, InvalidStageStateException{
+        Stage stage=findStageInRace(stageId);
+        if (stage==null){
+            throw new IDNotRecognisedException("Stage ID not recognised");
+        }
+        else if (stage.getState().equals("prep")){
+            throw new InvalidStageStateException("Stage in preperation phase");
+        }
+        else if (riderIds.length != checkpoints.length){
+            throw new InvalidCheckpointsException("Number of results does not match number of riders");
+        }
+        HashSet<Integer> batch=new HashSet<Integer>();
+        for (int i=0;i<riderIds.length;i++){//Validates every row before anything is added
+            if (checkpoints[i].length != stage.getSegments().size()+2){
+                throw new InvalidCheckpointsException("Incorrect number of checkpoints submitted");
+            }
+            if (doesRiderExist(riderIds[i])==false){
+                throw new IDNotRecognisedException("Rider ID not recognised");
+            }
+            if (stage.findRiderResult(riderIds[i])!=null || batch.add(riderIds[i])==false){
+                throw new DuplicatedResultException("Rider already has result registered");
+            }
+        }
+        session.insertResults(stage, riderIds, checkpoints);
+        if(journal!=null){
+            JournalRecord record=new JournalRecord(JournalRecord.REGISTER_RESULTS).putInt(stageId).putInt(riderIds.length);
+            for (int i=0;i<riderIds.length;i++){
+                record.putInt(riderIds[i]).putTimes(checkpoints[i]);
+            }
+            log(record);
+        }
+    }
+
     /**
 	 * Get the riders finished position in a a stage.
 	 * 
@@ -656,46 +763,7 @@ public class CyclingPortal implements MiniCyclingPortalInterface{
         if (stage==null){
             throw new IDNotRecognisedException("ID not recognised");
         }
-        if (stage.getType()!=StageType.TT){//If the stage is not a time trial then the finish reuslts of the stage are fetched which are already sorted
-            int[] rank= new int[stage.getFinishResults().size()];
-            for (int i=0;i<stage.getFinishResults().size();i++){
-                rank[i]=stage.getFinishResults().get(i).getRiderId();
-            }
-            return rank;
-        }
-        else{//If the stage is a time trial the time of completion must be calculated and sorted for each rider
-            ArrayList<Long> times= new ArrayList<Long>();
-            ArrayList<Integer> riderIds= new ArrayList<Integer>();
-            //Two lists are created which contain times and riders ids. The rider id at index n will always be the rider who has the time at index n in list times
-            for (int i=0;i<stage.getFinishResults().size();i++){//Iterates through the stages finish results
-                LocalTime finishTime = stage.getFinishResults().get(i).getTime();
-                int riderId=stage.getFinishResults().get(i).getRiderId();
-                LocalTime startTime = stage.findRiderStart(riderId).getTime();
-                long seconds = ChronoUnit.SECONDS.between(startTime, finishTime);//Calculates the time the rider completed TT in
-                if(times.size()==0){//If the lists are empty just add time and rider
-                    times.add(seconds);
-                    riderIds.add(riderId);
-                }
-                else if(seconds>=times.get(times.size()-1)){//If the time is longer than the final element it is added onto the end of the list
-                    times.add(seconds);
-                    riderIds.add(riderId);
-                }
-                else{
-                    for (int j=0;j<times.size();j++){//Inserts with insertion sort logic
-                        if (seconds<=times.get(j)){
-                            times.add(j,seconds);
-                            riderIds.add(j,riderId);
-                            break;
-                        }
-                    }
-                }
-            }
-            int[] rank= new int[riderIds.size()];//Converts riderId list into array to be returned
-            for(int i=0;i<rank.length;i++){
-                rank[i]=riderIds.get(i);
-            }
-            return rank;
-        }
+        return stage.getRanking();//Time trials are ranked by time taken, other stages by finish order
     }
 
 
@@ -717,6 +785,9 @@ public class CyclingPortal implements MiniCyclingPortalInterface{
             throw new InvalidStageStateException("Stage is already waiting for results");
         }
         stage.concludePrep();
+        if(journal!=null){
+            log(new JournalRecord(JournalRecord.CONCLUDE_STAGE).putInt(stageId));
+        }
     }
 
     /**
@@ -785,35 +856,7 @@ public class CyclingPortal implements MiniCyclingPortalInterface{
         if (doesRiderExist(riderId)==false){
             throw new IDNotRecognisedException("Rider ID not recognised");
         }
-        RiderResult startResult = stage.findRiderStart(riderId);
-        RiderResult finishResult = stage.findRiderResult(riderId);
-
-        if(startResult==null){//If no result exists for the rider a null value is returned
-            return null;
-        }
-        
-        LocalTime riderStart = startResult.getTime();
-        LocalTime finishTime = finishResult.getTime();
-
-        if (stage.getType()!=StageType.TT){//If the stage is a time trial no adjustments to finishing time are made
-            boolean loop=true;
-            int count=stage.getFinishResults().indexOf(stage.findRiderResult(riderId));//Gets the index of the riders result
-            while(loop==true && count>0){//Will loop until the gap to the rider ahead is more than one second or the number 1 rider has been reached
-                if(ChronoUnit.SECONDS.between(stage.getFinishResults().get(count-1).getTime(),stage.getFinishResults().get(count).getTime())<1){
-                //Calculates gap between current iterated rider's time and the rider 1 position ahead.
-                //If the gap is less than 1 second the next rider is looked at
-                    count-=1;
-                }
-                else{
-                    loop=false;
-                }
-                finishTime=stage.getFinishResults().get(count).getTime();
-                //The new finish time of the rider is adjusted every time a rider that finished ahead is found to be in their riding group
-            }
-        }
-
-        long seconds=ChronoUnit.SECONDS.between(riderStart,finishTime);
-        return LocalTime.ofSecondOfDay(seconds);
+        return stage.getAdjustedElapsedTime(riderId);//A null value is returned if no result exists for the rider
     }
 
     /**
@@ -832,13 +875,9 @@ public class CyclingPortal implements MiniCyclingPortalInterface{
         if (doesRiderExist(riderId)==false){
             throw new IDNotRecognisedException("Rider ID not recognised");
         }
-        if (stage.findRiderResult(riderId)!=null){//If a result exists for rider it will delete it
-            stage.removeFinishResult(stage.findRiderResult(riderId));
-            stage.removeRiderStartTime(stage.findRiderStart(riderId));
-            for (int i=0;i<stage.getSegments().size();i++){
-                Segment segment=stage.getSegments().get(i);
-                segment.removeCheckpointResult(segment.findRiderResult(riderId));
-            }
+        session.removeResult(stage, riderId);//If a result exists for rider it will delete it
+        if(journal!=null){
+            log(new JournalRecord(JournalRecord.DELETE_RESULT).putInt(stageId).putInt(riderId));
         }
     }
 
@@ -858,14 +897,90 @@ public class CyclingPortal implements MiniCyclingPortalInterface{
         if (stage==null){
             throw new IDNotRecognisedException("ID not recognised");
         }
-        int[] ranking = getRidersRankInStage(stageId);
-        LocalTime[] adjustedElapsedTimes= new LocalTime[stage.getFinishResults().size()];
-        for(int i=0;i<stage.getFinishResults().size();i++){
-            adjustedElapsedTimes[i]=getRiderAdjustedElapsedTimeInStage(stageId, ranking[i]);
-            //Uses ranking array to know which rider Id is at each position
-            //Then calculates the corresponding adjusted time for that rider
+        return stage.getRankedAdjustedElapsedTimes();//Read from the adjusted times worked out in one pass over the stage
+    }
+
+    /**
+     * Gets the riders at a run of positions in a stage, such as the top ten, without copying the whole ranking
+     * @param stageId   The ID of the stage
+     * @param offset   The first position. 0 is the winner.
+     * @param limit   The most riders to get
+     * @return The rider IDs in the order of {@link #getRidersRankInStage(int)}. Shorter than the limit if the ranking runs out.
+     * @throws IDNotRecognisedException If the ID doesn't match a stage
+     * @throws IllegalArgumentException If the offset or limit is negative
+     */
+    public int[] getRidersRankInStage(int stageId, int offset, int limit) throws IDNotRecognisedException, IllegalArgumentException{
+        Stage stage=findStageInRace(stageId);
+        if(stage==null){
+            throw new IDNotRecognisedException("ID not recognised");
+        }
+        if(offset<0 || limit<0){
+            throw new IllegalArgumentException("Offset and limit can't be negative");
+        }
+        return stage.getRanking(offset,limit);
+    }
+
+    /**
+     * Gets the adjusted elapsed times at a run of positions in a stage without working out the whole field
+     * @param stageId   The ID of the stage
+     * @param offset   The first position. 0 is the winner.
+     * @param limit   The most times to get
+     * @return The adjusted elapsed times matching {@link #getRidersRankInStage(int, int, int)}
+     * @throws IDNotRecognisedException If the ID doesn't match a stage
+     * @throws IllegalArgumentException If the offset or limit is negative
+     */
+    public LocalTime[] getRankedAdjustedElapsedTimesInStage(int stageId, int offset, int limit) throws IDNotRecognisedException, IllegalArgumentException{
+        Stage stage=findStageInRace(stageId);
+        if(stage==null){
+            throw new IDNotRecognisedException("ID not recognised");
+        }
+        if(offset<0 || limit<0){
+            throw new IllegalArgumentException("Offset and limit can't be negative");
         }
-        return adjustedElapsedTimes;
+        return stage.getRankedAdjustedElapsedTimes(offset,limit);
+    }
+
+    /**
+     * Gets a rider's position in a stage's ranking
+     * @param stageId   The ID of the stage
+     * @param riderId   The ID of the rider
+     * @return The position in {@link #getRidersRankInStage(int)}, 0 being the winner, or -1 if the rider has no result
+     * @throws IDNotRecognisedException If an ID doesn't match a stage or rider
+     */
+    public int getRiderPositionInStage(int stageId, int riderId) throws IDNotRecognisedException{
+        Stage stage=findStageInRace(stageId);
+        if(stage==null){
+            throw new IDNotRecognisedException("Stage ID not recognised");
+        }
+        if(!doesRiderExist(riderId)){
+            throw new IDNotRecognisedException("Rider ID not recognised");
+        }
+        return stage.getRankOf(riderId);
+    }
+
+    /**
+     * Gets the riders around a rider in a stage's ranking, such as the ten riders either side of them
+     * @param stageId   The ID of the stage
+     * @param riderId   The ID of the rider
+     * @param before   How many places ahead of the rider to include
+     * @param after   How many places behind the rider to include
+     * @return The rider IDs in ranking order, the rider included. Cut short at either end of the ranking and empty
+     *         if the rider has no result. Pass the first rider's position to
+     *         {@link #getRankedAdjustedElapsedTimesInStage(int, int, int)} to get their times.
+     * @throws IDNotRecognisedException If an ID doesn't match a stage or rider
+     * @throws IllegalArgumentException If before or after is negative
+     */
+    public int[] getRidersAroundRiderInStage(int stageId, int riderId, int before, int after) throws IDNotRecognisedException, IllegalArgumentException{
+        if(before<0 || after<0){
+            throw new IllegalArgumentException("Places either side can't be negative");
+        }
+        int position=getRiderPositionInStage(stageId,riderId);
+        if(position==-1){
+            return new int[0];
+        }
+        int from=Math.max(0,position-before);
+        int limit=(int) Math.min((long) position-from+after+1,Integer.MAX_VALUE);
+        return findStageInRace(stageId).getRanking(from,limit);
     }
 
     /**
@@ -884,54 +999,7 @@ public class CyclingPortal implements MiniCyclingPortalInterface{
         if (stage==null){
             throw new IDNotRecognisedException("ID not recognised");
         }
-        int[] rank = getRidersRankInStage(stageId);
-        int[] ridersPoints = new int[rank.length];//An array to store riders points. Index i in this array will contain the points of the rider at position i in the rank array
-        int[] interSprintPoints = {20,17,15,13,11,10,9,8,7,6,5,4,3,2,1};
-        int[] stagePoints;
-        if (stage.getType()==StageType.FLAT){
-            stagePoints=new int[] {50,30,20,18,16,14,12,10,8,7,6,5,4,3,2};
-        }
-        else if(stage.getType()==StageType.MEDIUM_MOUNTAIN){
-            stagePoints=new int[] {30,25,22,19,17,15,13,11,9,7,6,5,4,3,2};
-        }
-        else{
-            stagePoints=new int[] {20,17,15,13,11,10,9,8,7,6,5,4,3,2,1};
-        }
-        if (stage.getType()==StageType.TT){//If its a TT there are no sprints so points are simply assigned by finishing position
-            for (int i=0;i<ridersPoints.length;i++){
-                ridersPoints[i]=stagePoints[i];
-            }
-        }
-        else{
-            for(int i=0;i<stage.getFinishResults().size();i++){//Iterates through every finish result registered
-                if (i==15){//Points are only assigned for first 15 finishers
-                    break;
-                }
-                int scoringId=stage.getFinishResults().get(i).getRiderId();//Gets the ith finishing riders id
-                for(int j=0;j<rank.length;j++){//Goes through the rank array to find the scoring rider and awards them their points
-                    if(rank[j]==scoringId){
-                        ridersPoints[j]+=stagePoints[i];
-                    }
-                }
-            }
-            for(int i=0;i<stage.getSegments().size();i++){//Iterates through every segment for a stage
-                Segment segment=stage.getSegments().get(i);
-                if (segment.getType()==SegmentType.SPRINT){//If the segment is a sprint then sprint points need to be awarded
-                    for (int j=0; j<segment.getCheckpointResults().size();j++){//Iterates through all registered results for a segment
-                        if(j==15){//Points only awarded for first 15 finishers
-                            break;
-                        }
-                        int scoringId=segment.getCheckpointResults().get(j).getRiderId();//The id of the rider due points
-                        for(int k=0;k<rank.length;k++){//Iterates to find the correct rider and then assigns points
-                            if(rank[k]==scoringId){
-                                ridersPoints[k]+=interSprintPoints[j];
-                            }
-                        }
-                    }
-                }   
-            }
-        }
-        return ridersPoints;
+        return stage.getPoints();//Finish and sprint points are awarded by the stage
     }
 
     /**
@@ -950,51 +1018,165 @@ public class CyclingPortal implements MiniCyclingPortalInterface{
         if (stage==null){
             throw new IDNotRecognisedException("ID not recognised");
         }
-        int[] rank = getRidersRankInStage(stageId);
-        int[] ridersPoints = new int[rank.length];//New array to store points of riders. Index n will store the points of the rider at index n in rank array
-        int[] climbPoints;//Array which will store the points availible for each climb
-        for(int i=0;i<stage.getSegments().size();i++){
-            Segment segment=stage.getSegments().get(i);
-            boolean mountain =false;
-            //If the segemnt is a climb then the points availible are assigned and the variable mountain is set to true
-            if (segment.getType()==SegmentType.C1){
-                climbPoints= new int[] {10,8,6,4,2,1};
-                mountain=true;
-            }
-            else if (segment.getType()==SegmentType.C2){
-                climbPoints= new int[] {5,3,2,1};
-                mountain=true;
-            }
-            else if (segment.getType()==SegmentType.C3){
-                climbPoints= new int[] {2,1};
-                mountain=true;
-            }
-            else if (segment.getType()==SegmentType.C4){
-                climbPoints= new int[] {1};
-                mountain=true;
-            }
-            else if (segment.getType()==SegmentType.HC){
-                climbPoints= new int[] {20,15,12,10,8,6,4,2};
-                mountain=true;
-            }
-            else{
-                climbPoints= new int[0];
-            }
-            if (mountain){
-                for (int j=0; j<segment.getCheckpointResults().size();j++){//Gets the checkpoint times for the segment
-                    if(j==climbPoints.length){//If j is at the length of the array of availible points it means all the points have been awarded
-                        break;
-                    }
-                    int scoringId=segment.getCheckpointResults().get(j).getRiderId();//The rider that reached peak in position j that is due points
-                    for(int k=0;k<rank.length;k++){//Searching for the rider to assign their points
-                        if(rank[k]==scoringId){
-                            ridersPoints[k]+=climbPoints[j];
-                        }
-                    }
-                }
-            }
+        return stage.getMountainPoints();//Climb points are awarded by the stage
+    }
+
+    /**
+     * Gets how many classification requests for a stage were answered from its cache.
+     * The cache holds the ranking, adjusted times and points of a stage until its results change.
+     * 
+     * @param stageId The ID of the stage being queried.
+     * @return The number of cache hits for the stage.
+     * @throws IDNotRecognisedException If the ID does not match any stage in the
+     *                                  system.
+     */
+    public long getStageCacheHits(int stageId) throws IDNotRecognisedException{
+        Stage stage=findStageInRace(stageId);
+        if (stage==null){
+            throw new IDNotRecognisedException("ID not recognised");
+        }
+        return stage.getCacheHits();
+    }
+
+    /**
+     * Gets how many classification requests for a stage had to be worked out from its results.
+     * 
+     * @param stageId The ID of the stage being queried.
+     * @return The number of cache misses for the stage.
+     * @throws IDNotRecognisedException If the ID does not match any stage in the
+     *                                  system.
+     */
+    public long getStageCacheMisses(int stageId) throws IDNotRecognisedException{
+        Stage stage=findStageInRace(stageId);
+        if (stage==null){
+            throw new IDNotRecognisedException("ID not recognised");
+        }
+        return stage.getCacheMisses();
+    }
+
+    /**
+     * Gets the total adjusted elapsed time of each rider in the general classification of a race.
+     * Totals can be longer than a day so they are given as durations.
+     * 
+     * @param raceId The ID of the race being queried.
+     * @return The total times of the riders sorted by their general classification
+     *         rank. These times will match the riders and order returned by
+     *         {@link #getRidersGeneralClassificationRank(int)}.
+     * @throws IDNotRecognisedException If the ID does not match any race in the
+     *                                  system.
+     */
+    public Duration[] getGeneralClassificationTimesInRace(int raceId) throws IDNotRecognisedException{
+        return classifyRace(raceId).getGeneralClassificationTimes();
+    }
+
+    /**
+     * Gets the riders in the general classification of a race. Riders are ordered by the sum of
+     * their adjusted elapsed times and only riders with a result in every stage with results are classified.
+     * 
+     * @param raceId The ID of the race being queried.
+     * @return The IDs of the riders sorted by their total time. An empty list if
+     *         there are no results in the race.
+     * @throws IDNotRecognisedException If the ID does not match any race in the
+     *                                  system.
+     */
+    public int[] getRidersGeneralClassificationRank(int raceId) throws IDNotRecognisedException{
+        return classifyRace(raceId).getGeneralClassificationRank();
+    }
+
+    /**
+     * Gets the total points of each rider in a race.
+     * 
+     * @param raceId The ID of the race being queried.
+     * @return The points of the riders. These points will match the riders and
+     *         order returned by {@link #getRidersGeneralClassificationRank(int)}.
+     * @throws IDNotRecognisedException If the ID does not match any race in the
+     *                                  system.
+     */
+    public int[] getRidersPointsInRace(int raceId) throws IDNotRecognisedException{
+        return classifyRace(raceId).getPoints();
+    }
+
+    /**
+     * Gets the total mountain points of each rider in a race.
+     * 
+     * @param raceId The ID of the race being queried.
+     * @return The mountain points of the riders. These points will match the riders
+     *         and order returned by {@link #getRidersGeneralClassificationRank(int)}.
+     * @throws IDNotRecognisedException If the ID does not match any race in the
+     *                                  system.
+     */
+    public int[] getRidersMountainPointsInRace(int raceId) throws IDNotRecognisedException{
+        return classifyRace(raceId).getMountainPoints();
+    }
+
+    /**
+     * Gets the riders in the points classification of a race.
+     * 
+     * @param raceId The ID of the race being queried.
+     * @return The IDs of the riders sorted by their total points, most first.
+     *         Riders with the same points keep their general classification order.
+     * @throws IDNotRecognisedException If the ID does not match any race in the
+     *                                  system.
+     */
+    public int[] getRidersPointClassificationRank(int raceId) throws IDNotRecognisedException{
+        return classifyRace(raceId).getPointsClassificationRank();
+    }
+
+    /**
+     * Gets the riders in the mountain classification of a race.
+     * 
+     * @param raceId The ID of the race being queried.
+     * @return The IDs of the riders sorted by their total mountain points, most first.
+     *         Riders with the same points keep their general classification order.
+     * @throws IDNotRecognisedException If the ID does not match any race in the
+     *                                  system.
+     */
+    public int[] getRidersMountainPointClassificationRank(int raceId) throws IDNotRecognisedException{
+        return classifyRace(raceId).getMountainClassificationRank();
+    }
+
+    /**
+     * Used to get the classifications of a race. Only stages whose results have changed since the last query are added up again.
+     * @param raceId   The ID of the race
+     * @return The up to date classifications of the race
+     * @throws IDNotRecognisedException If the ID does not match any race in the system.
+     */
+    private RaceClassification classifyRace(int raceId) throws IDNotRecognisedException{
+        Race race=findRace(raceId);
+        if (race==null){
+            throw new IDNotRecognisedException("ID not recognised");
+        }
+        return race.getClassification(classificationPool);
+    }
+
+    /**
+     * Sets how many threads are used to score the stages of a race when its classifications are worked out.
+     * Stages are scored in parallel and then added up in stage order, so the classifications are the same
+     * whatever the parallelism.
+     * 
+     * @param parallelism The number of threads to use. 1 scores stages on the calling
+     *                    thread.
+     * @throws IllegalArgumentException If the parallelism is less than 1.
+     */
+    public void setClassificationParallelism(int parallelism) throws IllegalArgumentException{
+        if(parallelism<1){
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
+        if(classificationPool!=null){
+            classificationPool.shutdown();
+        }
+        classificationPool= parallelism==1 ? null : new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Gets how many threads are used to score the stages of a race
+     * @return The parallelism of race classifications. 1 if stages are scored on the calling thread.
+     */
+    public int getClassificationParallelism(){
+        if(classificationPool==null){
+            return 1;
         }
-        return ridersPoints;
+        return classificationPool.getParallelism();
     }
 
     /**
@@ -1002,17 +1184,33 @@ public class CyclingPortal implements MiniCyclingPortalInterface{
      */
     public void eraseCyclingPortal(){
         session= new Session();
+        if(journal!=null){
+            log(new JournalRecord(JournalRecord.ERASE));
+        }
     }
 
     /**
 	 * Method saves this MiniCyclingPortalInterface contents into a serialised file,
 	 * with the filename given in the argument.
+	 * A filename ending in {@link SnapshotFormat#EXTENSION} is saved in the compact
+	 * binary snapshot format instead of by serialisation.
 	 *
 	 * @param filename Location of the file to be saved.
 	 * @throws IOException If there is a problem experienced when trying to save the
 	 *                     store contents to the file.
 	 */
     public void saveCyclingPortal(String filename) throws IOException{
+        session.getAllRaces();//Reads any archived races first as the archive may be the file being written
+        if(filename.endsWith(SnapshotFormat.EXTENSION)){//Compact binary snapshot
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)));
+            try{
+                SnapshotFormat.write(session,out);
+            }
+            finally{
+                out.close();
+            }
+            return;
+        }
         ObjectOutputStream out = new ObjectOutputStream (new FileOutputStream(filename));
         out.writeObject(session);
         out.close();
@@ -1021,6 +1219,7 @@ public class CyclingPortal implements MiniCyclingPortalInterface{
     /**
 	 * Method should load and replace this MiniCyclingPortalInterface contents with the
 	 * serialised contents stored in the file given in the argument.
+	 * A filename ending in {@link SnapshotFormat#EXTENSION} is read as a binary snapshot.
 	 *
 	 * @param filename Location of the file to be loaded.
 	 * @throws IOException            If there is a problem experienced when trying
@@ -1029,18 +1228,309 @@ public class CyclingPortal implements MiniCyclingPortalInterface{
 	 *                                loading.
 	 */
     public void loadCyclingPortal(String filename) throws IOException, ClassNotFoundException{
+        if(filename.endsWith(SnapshotFormat.EXTENSION)){//Compact binary snapshot, indexes are built as it is read
+            session=SnapshotFormat.read(ByteBuffer.wrap(Files.readAllBytes(Paths.get(filename))));
+            return;
+        }
         ObjectInputStream in = new ObjectInputStream(new FileInputStream(filename));
         Object obj = in.readObject();
         if (obj instanceof Session){
             session= (Session) obj;
+            session.rebuildIndexes();//Indexes aren't saved so are rebuilt from the loaded teams and races
         }
         in.close();
     }
 
+    /**
+     * Opens a snapshot saved with {@link SnapshotFormat#EXTENSION} as an archive, replacing this portal's contents.
+     * The file is memory mapped and only the teams and the race directory are read. A race and its stages are
+     * read the first time the race, or one of its stages or segments, is looked up, so opening a large archive
+     * and querying one race only reads that race. Removing a rider's results only reads the races the rider has
+     * results in.
+     * The file must not be changed by anything else while the portal is using it. Saving over it is safe as
+     * every race is read first.
+     *
+     * @param filename Location of the snapshot to be opened.
+     * @throws IOException If the file can't be mapped or isn't a snapshot that can
+     *                     be read.
+     */
+    public void openCyclingPortalArchive(String filename) throws IOException{
+        FileChannel channel=FileChannel.open(Paths.get(filename),StandardOpenOption.READ);
+        try{
+            session=SnapshotFormat.readArchive(channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size()));//The mapping stays valid once the channel is closed
+        }
+        finally{
+            channel.close();
+        }
+    }
+
+    /**
+     * Starts recording every change made to the portal in a journal, so changes since the last snapshot survive a crash.
+     * Records carry on from the sequence numbers already in the journal. A journal that is already open is closed first.
+     *
+     * @param filename Location of the journal. It is created if it doesn't exist.
+     * @param policy When records are forced onto the disk.
+     * @param groupSize How many records are written together. With
+     *                  {@link FsyncPolicy#EVERY_RECORD} each record is written
+     *                  straight away.
+     * @throws IOException If the journal can't be opened.
+     */
+    public void openJournal(String filename, FsyncPolicy policy, int groupSize) throws IOException{
+        closeJournal();
+        journal=new Journal(filename,policy,groupSize);
+    }
+
+    /**
+     * Writes and forces any journal records still waiting in their group.
+     * @throws IOException If the records can't be written.
+     */
+    public void syncJournal() throws IOException{
+        if(journal!=null){
+            journal.commit();
+        }
+    }
+
+    /**
+     * Writes any waiting journal records and stops journalling.
+     * @throws IOException If the records can't be written.
+     */
+    public void closeJournal() throws IOException{
+        if(journal!=null){
+            Journal open=journal;
+            journal=null;
+            open.close();
+        }
+    }
+
+    /**
+     * Loads a snapshot and replays the journal records made after it was saved,
+     * bringing the portal back to the last change that reached the journal.
+     *
+     * @param filename Location of the snapshot.
+     * @param journalFilename Location of the journal.
+     * @throws IOException            If the snapshot or journal can't be read, or a
+     *                                record can't be replayed.
+     * @throws ClassNotFoundException If required class files cannot be found when
+     *                                loading.
+     */
+    public void loadCyclingPortal(String filename, String journalFilename) throws IOException, ClassNotFoundException{
+        loadCyclingPortal(filename);
+        replayJournal(journalFilename);
+    }
+
+    /**
+     * Replays the journal records with a sequence number after the one the current session was saved at.
+     * IDs are given out exactly as they were when the records were made.
+     *
+     * @param filename Location of the journal.
+     * @return The number of records replayed.
+     * @throws IOException If the journal can't be read or a record can't be replayed.
+     */
+    public int replayJournal(String filename) throws IOException{
+        ArrayList<JournalRecord> records=Journal.read(filename,session.getJournalSequence());
+        Journal open=journal;
+        journal=null;//Replayed changes are already in the journal
+        try{
+            for(int i=0;i<records.size();i++){
+                try{
+                    replay(records.get(i));
+                }
+                catch(Exception e){
+                    throw new IOException("Journal record "+records.get(i).getSequence()+" could not be replayed",e);
+                }
+                session.setJournalSequence(records.get(i).getSequence());
+            }
+        }
+        finally{
+            journal=open;
+        }
+        return records.size();
+    }
+
+    /**
+     * Applies one journal record to the portal. The ID counter is set to the recorded ID first so the same ID is given out,
+     * then moved past it without ever going back. Races take IDs and write their records under their own locks, so the
+     * journal can hold a higher ID before a lower one.
+     * @param record   The record
+     * @throws Exception If the change fails, which means the journal doesn't match the snapshot it is replayed on
+     */
+    private void replay(JournalRecord record) throws Exception{
+        switch(record.getType()){
+            case JournalRecord.CREATE_TEAM:
+                int nextTeamId=session.getNextTeamId();
+                session.setNextTeamId(record.getInt());
+                int teamId=createTeam(record.getString(),record.getString());
+                session.setNextTeamId(Math.max(nextTeamId,teamId+1));
+                break;
+            case JournalRecord.REMOVE_TEAM:
+                removeTeam(record.getInt());
+                break;
+            case JournalRecord.CREATE_RIDER:
+                int nextRiderId=session.getNextRiderId();
+                session.setNextRiderId(record.getInt());
+                int riderId=createRider(record.getInt(),record.getString(),record.getInt());
+                session.setNextRiderId(Math.max(nextRiderId,riderId+1));
+                break;
+            case JournalRecord.REMOVE_RIDER:
+                removeRider(record.getInt());
+                break;
+            case JournalRecord.CREATE_RACE:
+                int nextRaceId=session.getNextRaceId();
+                session.setNextRaceId(record.getInt());
+                int raceId=createRace(record.getString(),record.getString());
+                session.setNextRaceId(Math.max(nextRaceId,raceId+1));
+                break;
+            case JournalRecord.REMOVE_RACE:
+                removeRaceById(record.getInt());
+                break;
+            case JournalRecord.ADD_STAGE:
+                int nextStageId=session.getNextStageId();
+                session.setNextStageId(record.getInt());
+                int addedStageId=addStageToRace(record.getInt(),record.getString(),record.getString(),record.getDouble(),record.getDateTime(),StageType.values()[record.getInt()]);
+                session.setNextStageId(Math.max(nextStageId,addedStageId+1));
+                break;
+            case JournalRecord.REMOVE_STAGE:
+                removeStageById(record.getInt());
+                break;
+            case JournalRecord.ADD_CLIMB:
+                int nextClimbId=session.getNextSegmentId();
+                session.setNextSegmentId(record.getInt());
+                int climbId=addCategorizedClimbToStage(record.getInt(),record.getDouble(),SegmentType.values()[record.getInt()],record.getDouble(),record.getDouble());
+                session.setNextSegmentId(Math.max(nextClimbId,climbId+1));
+                break;
+            case JournalRecord.ADD_SPRINT:
+                int nextSprintId=session.getNextSegmentId();
+                session.setNextSegmentId(record.getInt());
+                int sprintId=addIntermediateSprintToStage(record.getInt(),record.getDouble());
+                session.setNextSegmentId(Math.max(nextSprintId,sprintId+1));
+                break;
+            case JournalRecord.REMOVE_SEGMENT:
+                removeSegment(record.getInt());
+                break;
+            case JournalRecord.CONCLUDE_STAGE:
+                concludeStagePreparation(record.getInt());
+                break;
+            case JournalRecord.REGISTER_RESULT:
+                registerRiderResultsInStage(record.getInt(),record.getInt(),record.getTimes());
+                break;
+            case JournalRecord.REGISTER_RESULTS:
+                int stageId=record.getInt();
+                int[] riderIds=new int[record.getInt()];
+                LocalTime[][] checkpoints=new LocalTime[riderIds.length][];
+                for(int i=0;i<riderIds.length;i++){
+                    riderIds[i]=record.getInt();
+                    checkpoints[i]=record.getTimes();
+                }
+                registerStageResults(stageId,riderIds,checkpoints);
+                break;
+            case JournalRecord.DELETE_RESULT:
+                deleteRiderResultsInStage(record.getInt(),record.getInt());
+                break;
+            case JournalRecord.ERASE:
+                eraseCyclingPortal();
+                break;
+            case JournalRecord.PURGE_RESULTS:
+                int[] purged=new int[record.getInt()];
+                for(int i=0;i<purged.length;i++){
+                    purged[i]=record.getInt();
+                }
+                purgeRiderResults(purged);
+                break;
+            default:
+                throw new IOException("Unknown journal record type "+record.getType());
+        }
+    }
+
+    /**
+     * Adds a change to the journal. Journal writes happen inside methods that can't throw IOException so a failure is unchecked.
+     * Synchronized so changes to different races made at the same time still get their own sequence numbers.
+     * @param record   The change
+     */
+    private synchronized void log(JournalRecord record){
+        long sequence=Math.max(session.getJournalSequence(),journal.getLastSequence())+1;
+        try{
+            journal.append(sequence,record);
+        }
+        catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+        session.setJournalSequence(sequence);
+    }
+
+    /**
+     * Starts taking background snapshots. Snapshots are written to the directory as prefix-number.cyc
+     * and only the newest are kept.
+     *
+     * @param directory The directory snapshots are written to.
+     * @param prefix The start of every snapshot's filename.
+     * @param keep How many snapshots are kept.
+     * @throws IOException If the directory can't be read.
+     */
+    public void startBackgroundSnapshots(String directory, String prefix, int keep) throws IOException{
+        stopBackgroundSnapshots();
+        snapshotWriter=new SnapshotWriter(directory,prefix,keep);
+    }
+
+    /**
+     * Takes a snapshot without waiting for it to be written. The portal is only held while the session is copied,
+     * which captures it exactly as it is now without copying any stage's results. The copy is encoded and written
+     * on a background thread so results can carry on being registered. With a journal open the snapshot records the last journal record it includes,
+     * so it can be loaded with {@link #loadCyclingPortal(String, String)}.
+     *
+     * @return A future completed with the snapshot's report once it is on disk, or completed exceptionally
+     *         if it can't be encoded or written.
+     * @throws IllegalStateException If background snapshots haven't been started.
+     */
+    public CompletableFuture<SnapshotReport> snapshotInBackground(){
+        if(snapshotWriter==null){
+            throw new IllegalStateException("Background snapshots have not been started");
+        }
+        return snapshotWriter.submit(session);
+    }
+
+    /**
+     * Gets the report of the last background snapshot written.
+     * @return The report, or a null value if no snapshot has been written.
+     */
+    public SnapshotReport getLastSnapshotReport(){
+        if(snapshotWriter==null){
+            return null;
+        }
+        return snapshotWriter.getLastReport();
+    }
+
+    /**
+     * Waits for any background snapshots still being written and stops taking them.
+     */
+    public void stopBackgroundSnapshots(){
+        if(snapshotWriter!=null){
+            snapshotWriter.close();
+            snapshotWriter=null;
+        }
+    }
+
+    /**
+     * Takes a snapshot of the portal. The snapshot answers every query as the portal is now, however the portal
+     * changes afterwards, so the arrays from several calls on it always line up. It shares riders and results with
+     * the portal rather than copying them, so taking one is cheap.
+     * @return A read only portal pinned to the current contents of this one
+     */
+    public ReadOnlyCyclingPortal snapshot(){
+        return new ReadOnlyCyclingPortal(session.snapshot());
+    }
+
     /**
      * Creates a new portal. Also creates a fresh session.
      */
     public CyclingPortal(){
         this.session = new Session();
     }
+
+    /**
+     * Creates a portal over an existing session. Used for snapshots.
+     * @param session   The session the portal uses
+     */
+    CyclingPortal(Session session){
+        this.session = session;
+    }
 }
\ No newline at end of file
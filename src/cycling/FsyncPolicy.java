@@ -0,0 +1,16 @@
+package cycling;
+
+/**
+ * FsyncPolicy --- When a journal forces its records onto the disk.
+ * EVERY_RECORD - Each record is written and forced before the call that made it returns
+ * EVERY_GROUP - Records are written and forced together once a group of them has built up
+ * NEVER - Records are written in groups and left for the operating system to write out
+ *
+ * @author Matt Trenchard
+ * @version 1.0
+ */
+public enum FsyncPolicy{
+    EVERY_RECORD,
+    EVERY_GROUP,
+    NEVER;
+}
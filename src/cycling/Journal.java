@@ -0,0 +1,241 @@
+package cycling;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Journal --- An append only file recording every change made to the portal, so changes made since the last
+ * snapshot can be replayed after a crash.
+ * The file starts with a magic number and version. Each record is written as its length, a CRC32 checksum and
+ * then the sequence number and payload of the record. A record cut short by a crash fails its checksum, so
+ * reading stops there and opening the journal again cuts it off.
+ * Records are collected in memory and written together (group commit). The fsync policy decides whether each
+ * group is forced onto the disk before the call that filled it returns.
+ * Contains attributes:
+ * channel(FileChannel) - The open journal file
+ * policy(FsyncPolicy) - When records are forced onto the disk
+ * groupSize(int) - How many records are collected before they are written
+ * pending(byte[]) - Records waiting to be written
+ * pendingLength, pendingRecords(int) - The number of bytes and records waiting to be written
+ * lastSequence(long) - The sequence number of the last record in the journal
+ *
+ * @author Matt Trenchard
+ * @version 1.0
+ */
+public class Journal{
+    public static final int MAGIC=0x4359434A;
+    public static final int VERSION=1;
+    private static final int HEADER_LENGTH=8;
+    private static final int RECORD_HEADER_LENGTH=8;
+
+    private FileChannel channel;
+    private FsyncPolicy policy;
+    private int groupSize;
+    private byte[] pending;
+    private int pendingLength;
+    private int pendingRecords;
+    private long lastSequence;
+    /**
+     * Gets the sequence number of the last record added to the journal
+     * @return The last sequence number, 0 if the journal is empty
+     */
+    public synchronized long getLastSequence(){
+        return lastSequence;
+    }
+
+    /**
+     * Adds a record to the journal. It is written once its group is full, or straight away with {@link FsyncPolicy#EVERY_RECORD}.
+     * @param sequence   The sequence number of the record, higher than any before it
+     * @param record   The record
+     * @throws IOException If the group can't be written
+     */
+    public synchronized void append(long sequence, JournalRecord record) throws IOException{
+        byte[] payload=record.getPayload();
+        byte[] body=new byte[10+payload.length];
+        int bodyLength=0;
+        long value=sequence;
+        while((value & ~0x7FL)!=0){//Sequence number as a variable length integer
+            body[bodyLength++]=(byte) ((value & 0x7F) | 0x80);
+            value>>>=7;
+        }
+        body[bodyLength++]=(byte) value;
+        System.arraycopy(payload,0,body,bodyLength,payload.length);
+        bodyLength+=payload.length;
+        CRC32 crc=new CRC32();
+        crc.update(body,0,bodyLength);
+
+        ensurePending(RECORD_HEADER_LENGTH+bodyLength);
+        ByteBuffer header=ByteBuffer.wrap(pending,pendingLength,RECORD_HEADER_LENGTH);
+        header.putInt(bodyLength);
+        header.putInt((int) crc.getValue());
+        System.arraycopy(body,0,pending,pendingLength+RECORD_HEADER_LENGTH,bodyLength);
+        pendingLength+=RECORD_HEADER_LENGTH+bodyLength;
+        pendingRecords++;
+        lastSequence=sequence;
+        if(policy==FsyncPolicy.EVERY_RECORD || pendingRecords>=groupSize){
+            commit();
+        }
+    }
+
+    /**
+     * Writes every waiting record to the file, forcing them onto the disk unless the policy is {@link FsyncPolicy#NEVER}
+     * @throws IOException If the records can't be written
+     */
+    public synchronized void commit() throws IOException{
+        if(pendingRecords==0){
+            return;
+        }
+        ByteBuffer buffer=ByteBuffer.wrap(pending,0,pendingLength);
+        while(buffer.hasRemaining()){
+            channel.write(buffer);
+        }
+        pendingLength=0;
+        pendingRecords=0;
+        if(policy!=FsyncPolicy.NEVER){
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Writes any waiting records and closes the file
+     * @throws IOException If the records can't be written or the file can't be closed
+     */
+    public synchronized void close() throws IOException{
+        try{
+            commit();
+        }
+        finally{
+            channel.close();
+        }
+    }
+
+    /**
+     * Makes sure there is room for more waiting bytes
+     * @param extra   The number of bytes about to be added
+     */
+    private void ensurePending(int extra){
+        if(pendingLength+extra>pending.length){
+            pending=Arrays.copyOf(pending,Math.max(pending.length*2,pendingLength+extra));
+        }
+    }
+
+    /**
+     * Reads the records of a journal that come after a sequence number. Reading stops at the first record
+     * that is cut short or fails its checksum, as nothing after it was written completely.
+     * @param filename   The journal file
+     * @param after   The sequence number already applied, such as the one stored in a snapshot
+     * @return The records after the sequence number, in order
+     * @throws IOException If the file can't be read or isn't a journal
+     */
+    public static ArrayList<JournalRecord> read(String filename, long after) throws IOException{
+        ArrayList<JournalRecord> records=new ArrayList<JournalRecord>();
+        Path path=Paths.get(filename);
+        if(!Files.exists(path)){
+            return records;
+        }
+        ByteBuffer in=ByteBuffer.wrap(Files.readAllBytes(path));
+        scan(in,records,after);
+        return records;
+    }
+
+    /**
+     * Walks the records of a journal
+     * @param in   The whole journal file
+     * @param records   Where records after the sequence number are added, or a null value to only find the end
+     * @param after   The sequence number already applied
+     * @return The sequence number of the last complete record. The buffer is left positioned after it.
+     * @throws IOException If the buffer isn't a journal
+     */
+    private static long scan(ByteBuffer in, ArrayList<JournalRecord> records, long after) throws IOException{
+        if(in.remaining()==0){
+            return 0;
+        }
+        if(in.remaining()<HEADER_LENGTH || in.getInt()!=MAGIC){
+            throw new IOException("Not a cycling portal journal");
+        }
+        int version=in.getInt();
+        if(version!=VERSION){
+            throw new IOException("Unsupported journal version "+version);
+        }
+        long last=0;
+        while(in.remaining()>=RECORD_HEADER_LENGTH){
+            int start=in.position();
+            int bodyLength=in.getInt();
+            int checksum=in.getInt();
+            if(bodyLength<=0 || bodyLength>in.remaining()){//Cut short
+                in.position(start);
+                break;
+            }
+            byte[] body=new byte[bodyLength];
+            in.get(body);
+            CRC32 crc=new CRC32();
+            crc.update(body,0,bodyLength);
+            if((int) crc.getValue()!=checksum){
+                in.position(start);
+                break;
+            }
+            ByteBuffer bodyBuffer=ByteBuffer.wrap(body);
+            long sequence=0;
+            for(int shift=0;;shift+=7){
+                int b=bodyBuffer.get() & 0xFF;
+                sequence|=(long) (b & 0x7F)<<shift;
+                if((b & 0x80)==0){
+                    break;
+                }
+            }
+            last=sequence;
+            if(records!=null && sequence>after){
+                records.add(JournalRecord.parse(sequence,Arrays.copyOfRange(body,bodyBuffer.position(),bodyLength)));
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Opens a journal to add records to, creating it if it doesn't exist. A record left cut short by a crash is cut off the end.
+     * @param filename   The journal file
+     * @param policy   When records are forced onto the disk
+     * @param groupSize   How many records are collected before they are written. At least 1.
+     * @throws IOException If the file can't be opened or isn't a journal
+     */
+    public Journal(String filename, FsyncPolicy policy, int groupSize) throws IOException{
+        if(groupSize<1){
+            throw new IllegalArgumentException("Group size must be at least 1");
+        }
+        this.policy=policy;
+        this.groupSize=groupSize;
+        pending=new byte[4096];
+        Path path=Paths.get(filename);
+        channel=FileChannel.open(path,StandardOpenOption.CREATE,StandardOpenOption.READ,StandardOpenOption.WRITE);
+        try{
+            if(channel.size()==0){
+                ByteBuffer header=ByteBuffer.allocate(HEADER_LENGTH);
+                header.putInt(MAGIC);
+                header.putInt(VERSION);
+                header.flip();
+                while(header.hasRemaining()){
+                    channel.write(header);
+                }
+                channel.force(false);
+            }
+            else{
+                ByteBuffer in=ByteBuffer.wrap(Files.readAllBytes(path));
+                lastSequence=scan(in,null,0);
+                channel.truncate(in.position());//Anything after the last complete record is from an unfinished write
+            }
+            channel.position(channel.size());
+        }
+        catch(IOException e){
+            channel.close();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package cycling;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * JournalRecord --- One change made to the portal, as written to a journal.
+ * A record is built by giving its type and then putting its arguments in order, and read back by getting them
+ * in the same order. Numbers are written as zig zag variable length integers, times as nanoseconds of the day
+ * and strings as UTF-8 with a length, so most records are only a few bytes long.
+ * Contains attributes:
+ * type(int) - What kind of change the record is, one of the constants below
+ * sequence(long) - The position of the record in the journal, set when it is read back
+ * data(byte[]) - The encoded type and arguments
+ * length(int) - How many bytes of data are in use when writing
+ * in(ByteBuffer) - The arguments still to be read when reading
+ *
+ * @author Matt Trenchard
+ * @version 1.0
+ */
+public class JournalRecord{
+    public static final int CREATE_TEAM=1;
+    public static final int REMOVE_TEAM=2;
+    public static final int CREATE_RIDER=3;
+    public static final int REMOVE_RIDER=4;
+    public static final int CREATE_RACE=5;
+    public static final int REMOVE_RACE=6;
+    public static final int ADD_STAGE=7;
+    public static final int REMOVE_STAGE=8;
+    public static final int ADD_CLIMB=9;
+    public static final int ADD_SPRINT=10;
+    public static final int REMOVE_SEGMENT=11;
+    public static final int CONCLUDE_STAGE=12;
+    public static final int REGISTER_RESULT=13;
+    public static final int REGISTER_RESULTS=14;
+    public static final int DELETE_RESULT=15;
+    public static final int ERASE=16;
+    public static final int PURGE_RESULTS=17;
+
+    private int type;
+    /**
+     * Gets the kind of change the record is
+     * @return The record type
+     */
+    public int getType(){
+        return type;
+    }
+    private long sequence;
+    /**
+     * Gets the position of the record in the journal
+     * @return The sequence number of the record
+     */
+    public long getSequence(){
+        return sequence;
+    }
+    private byte[] data;
+    private int length;
+    private ByteBuffer in;
+
+    /**
+     * Gets the encoded record
+     * @return The type and arguments of the record
+     */
+    public byte[] getPayload(){
+        return Arrays.copyOf(data,length);
+    }
+
+    /**
+     * Adds an int to the record
+     * @param value   The value
+     * @return This record
+     */
+    public JournalRecord putInt(int value){
+        return putLong(value);
+    }
+
+    /**
+     * Adds a long to the record
+     * @param value   The value
+     * @return This record
+     */
+    public JournalRecord putLong(long value){
+        long zigZag=(value<<1)^(value>>63);
+        while((zigZag & ~0x7FL)!=0){
+            putByte((int) ((zigZag & 0x7F) | 0x80));
+            zigZag>>>=7;
+        }
+        putByte((int) zigZag);
+        return this;
+    }
+
+    /**
+     * Adds a double to the record
+     * @param value   The value
+     * @return This record
+     */
+    public JournalRecord putDouble(double value){
+        long bits=Double.doubleToLongBits(value);
+        for(int shift=56;shift>=0;shift-=8){
+            putByte((int) (bits>>>shift));
+        }
+        return this;
+    }
+
+    /**
+     * Adds a string to the record
+     * @param value   The string, which may be null
+     * @return This record
+     */
+    public JournalRecord putString(String value){
+        if(value==null){
+            return putInt(-1);
+        }
+        byte[] bytes=value.getBytes(StandardCharsets.UTF_8);
+        putInt(bytes.length);
+        for(int i=0;i<bytes.length;i++){
+            putByte(bytes[i]);
+        }
+        return this;
+    }
+
+    /**
+     * Adds a date and time to the record
+     * @param value   The date and time
+     * @return This record
+     */
+    public JournalRecord putDateTime(LocalDateTime value){
+        putLong(value.toEpochSecond(ZoneOffset.UTC));
+        return putInt(value.getNano());
+    }
+
+    /**
+     * Adds a list of times to the record
+     * @param values   The times
+     * @return This record
+     */
+    public JournalRecord putTimes(LocalTime[] values){
+        putInt(values.length);
+        for(int i=0;i<values.length;i++){
+            putLong(values[i].toNanoOfDay());
+        }
+        return this;
+    }
+
+    /**
+     * Adds a byte to the end of the record, making room if needed
+     * @param value   The byte
+     */
+    private void putByte(int value){
+        if(length==data.length){
+            data=Arrays.copyOf(data,data.length*2);
+        }
+        data[length++]=(byte) value;
+    }
+
+    /**
+     * Gets the next argument of the record as an int
+     * @return The value
+     */
+    public int getInt(){
+        return (int) getLong();
+    }
+
+    /**
+     * Gets the next argument of the record as a long
+     * @return The value
+     * @throws IllegalArgumentException If the value is malformed
+     */
+    public long getLong(){
+        long zigZag=0;
+        for(int shift=0;shift<64;shift+=7){
+            int b=in.get() & 0xFF;
+            zigZag|=(long) (b & 0x7F)<<shift;
+            if((b & 0x80)==0){
+                return (zigZag>>>1)^-(zigZag & 1);
+            }
+        }
+        throw new IllegalArgumentException("Malformed journal record");
+    }
+
+    /**
+     * Gets the next argument of the record as a double
+     * @return The value
+     */
+    public double getDouble(){
+        return in.getDouble();
+    }
+
+    /**
+     * Gets the next argument of the record as a string
+     * @return The string or a null value
+     */
+    public String getString(){
+        int size=getInt();
+        if(size==-1){
+            return null;
+        }
+        byte[] bytes=new byte[size];
+        in.get(bytes);
+        return new String(bytes,StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets the next argument of the record as a date and time
+     * @return The date and time
+     */
+    public LocalDateTime getDateTime(){
+        long epochSecond=getLong();
+        return LocalDateTime.ofEpochSecond(epochSecond,getInt(),ZoneOffset.UTC);
+    }
+
+    /**
+     * Gets the next argument of the record as a list of times
+     * @return The times
+     */
+    public LocalTime[] getTimes(){
+        LocalTime[] values=new LocalTime[getInt()];
+        for(int i=0;i<values.length;i++){
+            values[i]=LocalTime.ofNanoOfDay(getLong());
+        }
+        return values;
+    }
+
+    /**
+     * Reads a record back from a journal
+     * @param sequence   The sequence number the record was written with
+     * @param payload   The encoded type and arguments
+     * @return The record, ready for its arguments to be read
+     */
+    public static JournalRecord parse(long sequence, byte[] payload){
+        JournalRecord record=new JournalRecord(0);
+        record.sequence=sequence;
+        record.in=ByteBuffer.wrap(payload);
+        record.type=record.getInt();
+        return record;
+    }
+
+    /**
+     * Creates a record to be written
+     * @param type   What kind of change the record is
+     */
+    public JournalRecord(int type){
+        this.type=type;
+        data=new byte[32];
+        putInt(type);
+    }
+}
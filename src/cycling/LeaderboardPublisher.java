@@ -0,0 +1,110 @@
+package cycling;
+
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LeaderboardPublisher --- Pushes the changes to one ranking, a stage's or a race's general classification,
+ * to its subscribers instead of them asking for the whole ranking over and over.
+ * The portal publishes the new ranking while it still holds the lock of the write that changed it, so deltas are
+ * numbered in the order the writes happened. Each subscriber has its own bounded buffer. A delta that doesn't fit
+ * in a slow subscriber's buffer is dropped for that subscriber alone and the writer never waits. The subscriber
+ * sees a sequence number skipped and can start again from {@link #current()}.
+ * Contains attributes:
+ * publisher(SubmissionPublisher<RankingDelta>) - Delivers the deltas to each subscriber
+ * ranking(int[]) - The ranking as of the last delta
+ * sequence(long) - The number of the last delta
+ * dropped(AtomicLong) - How many deltas didn't fit in a subscriber's buffer
+ *
+ * @author Matt Trenchard
+ * @version 1.0
+ */
+public class LeaderboardPublisher implements Flow.Publisher<RankingDelta>{
+    private SubmissionPublisher<RankingDelta> publisher;
+    private int[] ranking;//Guarded by this
+    private long sequence;//Guarded by this
+    private AtomicLong dropped;
+    /**
+     * Gets how many deltas were dropped because a subscriber's buffer was full
+     * @return The number of dropped deltas, counted once for each subscriber that missed them
+     */
+    public long getDropped(){
+        return dropped.get();
+    }
+
+    /**
+     * Adds a subscriber. It receives every delta published from now on that fits in its buffer.
+     * @param subscriber   The subscriber
+     */
+    public void subscribe(Flow.Subscriber<? super RankingDelta> subscriber){
+        publisher.subscribe(subscriber);
+    }
+
+    /**
+     * Gets the whole ranking as a delta from an empty one, numbered with the last delta published.
+     * A subscriber applies the deltas numbered after it.
+     * @return Every position of the current ranking
+     */
+    public synchronized RankingDelta current(){
+        int[] positions=new int[ranking.length];
+        for(int i=0;i<positions.length;i++){
+            positions[i]=i;
+        }
+        return new RankingDelta(sequence,ranking.length,positions,ranking.clone());
+    }
+
+    /**
+     * Gets the number of subscribers
+     * @return The number of subscribers
+     */
+    public int getNumberOfSubscribers(){
+        return publisher.getNumberOfSubscribers();
+    }
+
+    /**
+     * Checks if the publisher has been closed because its stage or race was removed
+     * @return True if no more deltas will be published
+     */
+    public boolean isClosed(){
+        return publisher.isClosed();
+    }
+
+    /**
+     * Sends the change from the last ranking to a new one to every subscriber. Nothing is sent if it is the same.
+     * @param next   The rider IDs in ranking order now
+     */
+    synchronized void publish(int[] next){
+        RankingDelta delta=RankingDelta.between(sequence+1,ranking,next);
+        if(delta==null){
+            return;
+        }
+        sequence++;
+        ranking=next;
+        if(publisher.hasSubscribers()){
+            publisher.offer(delta,(subscriber, item) -> {
+                dropped.incrementAndGet();
+                return false;//Not retried, the subscriber sees the skipped sequence number
+            });
+        }
+    }
+
+    /**
+     * Stops publishing and completes every subscriber
+     */
+    void close(){
+        publisher.close();
+    }
+
+    /**
+     * Creates a publisher of a ranking
+     * @param ranking   The rider IDs in ranking order now
+     * @param bufferCapacity   How many deltas each subscriber can fall behind by before deltas are dropped
+     */
+    LeaderboardPublisher(int[] ranking, int bufferCapacity){
+        this.ranking=ranking;
+        publisher=new SubmissionPublisher<RankingDelta>(ForkJoinPool.commonPool(),bufferCapacity);
+        dropped=new AtomicLong();
+    }
+}
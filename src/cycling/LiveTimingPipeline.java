@@ -0,0 +1,400 @@
+package cycling;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LiveTimingPipeline --- Takes timing events one crossing at a time and registers them as whole results.
+ * Events go into a bounded queue, so a producer that gets ahead of the pipeline waits instead of using up memory.
+ * A single worker thread takes events off the queue in batches and fills in a row of times for each rider in
+ * each stage. Rows that are complete are registered together with one registerStageResults call per stage, so
+ * the portal's locks are taken once per batch rather than once per event. If a batch is refused each row is
+ * registered on its own and the rows that are still refused are counted as rejected.
+ * Before a new row is started the portal is asked if the rider already has a result in the stage. If they do, the
+ * event is rejected, so a second read at the finish mat doesn't start a row that would never be completed. Once a
+ * result is deleted from the portal the rider can be timed again.
+ * An unexpected error while registering, such as the journal failing to write, loses only the rows it hit.
+ * They are counted as rejected, the error is kept for {@link #getLastFailure()} and the worker carries on.
+ * Contains attributes:
+ * portal(ConcurrentCyclingPortal) - The portal results are registered in
+ * queue(ArrayBlockingQueue<TimingEvent>) - Events waiting to be processed
+ * batchSize(int) - The most events processed in one batch
+ * partialRows(HashMap<Long,LocalTime[]>) - The times so far of each rider still to finish, keyed by stage and rider
+ * checkpointCounts(HashMap<Integer,Integer>) - How many times make a complete row in each stage
+ * submitted, processed(long) - How many events have been queued and processed, used by {@link #flush()}
+ * eventsReceived, rowsCommitted, rejectedEvents, rejectedRows, batchesCommitted(AtomicLong) - Counts of what the pipeline has done
+ * closed(boolean) - True once no more events are accepted
+ * producers(AtomicInteger) - How many calls to submit or offer haven't returned yet, so close can wait for them
+ * lastFailure(RuntimeException) - The last unexpected error the worker caught
+ * worker(Thread) - The thread processing events
+ *
+ * @author Matt Trenchard
+ * @version 1.2
+ */
+public class LiveTimingPipeline{
+    private ConcurrentCyclingPortal portal;
+    private ArrayBlockingQueue<TimingEvent> queue;
+    private int batchSize;
+    private HashMap<Long,LocalTime[]> partialRows;//Only used by the worker thread
+    private HashMap<Integer,Integer> checkpointCounts;//Only used by the worker thread
+    private AtomicLong submitted;
+    private long processed;//Guarded by this
+    private AtomicLong eventsReceived;
+    /**
+     * Gets the number of events taken off the queue
+     * @return The number of events received
+     */
+    public long getEventsReceived(){
+        return eventsReceived.get();
+    }
+    private AtomicLong rowsCommitted;
+    /**
+     * Gets the number of complete rows registered in the portal
+     * @return The number of rows committed
+     */
+    public long getRowsCommitted(){
+        return rowsCommitted.get();
+    }
+    private AtomicLong rejectedEvents;
+    /**
+     * Gets the number of events thrown away because their stage or checkpoint wasn't recognised,
+     * their rider already had a time for that checkpoint or their rider already has a result in the stage
+     * @return The number of rejected events
+     */
+    public long getRejectedEvents(){
+        return rejectedEvents.get();
+    }
+    private AtomicLong rejectedRows;
+    /**
+     * Gets the number of complete rows the portal refused to register or that hit an unexpected error
+     * @return The number of rejected rows
+     */
+    public long getRejectedRows(){
+        return rejectedRows.get();
+    }
+    private AtomicLong batchesCommitted;
+    /**
+     * Gets the number of registerStageResults calls made
+     * @return The number of batches committed
+     */
+    public long getBatchesCommitted(){
+        return batchesCommitted.get();
+    }
+    private volatile int pendingRows;
+    /**
+     * Gets the number of riders with some but not all of their times, as of the last batch
+     * @return The number of incomplete rows
+     */
+    public int getPendingRows(){
+        return pendingRows;
+    }
+    private volatile RuntimeException lastFailure;
+    /**
+     * Gets the last unexpected error the worker caught while registering rows, such as a journal write failing
+     * @return The error, or a null value if there hasn't been one
+     */
+    public RuntimeException getLastFailure(){
+        return lastFailure;
+    }
+    private volatile boolean closed;
+    private AtomicInteger producers;
+    private Thread worker;
+
+    /**
+     * Adds an event to the queue, waiting for space if the queue is full
+     * @param stageId   The ID of the stage
+     * @param riderId   The ID of the rider
+     * @param checkpoint   Which time of the rider's row this is. 0 is the start and the last index is the finish.
+     * @param time   When the rider crossed
+     * @throws InterruptedException If interrupted while waiting for space
+     * @throws IllegalStateException If the pipeline has been closed
+     */
+    public void submit(int stageId, int riderId, int checkpoint, LocalTime time) throws InterruptedException{
+        producers.incrementAndGet();
+        try{
+            if(closed){
+                throw new IllegalStateException("The pipeline has been closed");
+            }
+            queue.put(new TimingEvent(stageId,riderId,checkpoint,time));
+            submitted.incrementAndGet();
+        }
+        finally{
+            producerDone();
+        }
+    }
+
+    /**
+     * Adds an event to the queue, waiting a limited time for space if the queue is full
+     * @param stageId   The ID of the stage
+     * @param riderId   The ID of the rider
+     * @param checkpoint   Which time of the rider's row this is. 0 is the start and the last index is the finish.
+     * @param time   When the rider crossed
+     * @param timeout   How long to wait for space
+     * @param unit   The unit of the timeout
+     * @return True if the event was queued, false if there was still no space after the timeout
+     * @throws InterruptedException If interrupted while waiting for space
+     * @throws IllegalStateException If the pipeline has been closed
+     */
+    public boolean offer(int stageId, int riderId, int checkpoint, LocalTime time, long timeout, TimeUnit unit) throws InterruptedException{
+        producers.incrementAndGet();
+        try{
+            if(closed){
+                throw new IllegalStateException("The pipeline has been closed");
+            }
+            if(!queue.offer(new TimingEvent(stageId,riderId,checkpoint,time),timeout,unit)){
+                return false;
+            }
+            submitted.incrementAndGet();
+            return true;
+        }
+        finally{
+            producerDone();
+        }
+    }
+
+    /**
+     * Marks a call to submit or offer as finished, waking close if it is waiting for the last one
+     */
+    private void producerDone(){
+        if(producers.decrementAndGet()==0 && closed){
+            synchronized(this){
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits until every event queued before the call has been processed and any rows it completed are registered
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public void flush() throws InterruptedException{
+        long target=submitted.get();
+        synchronized(this){
+            while(processed<target){
+                wait();
+            }
+        }
+    }
+
+    /**
+     * Stops accepting events, waits for producers already waiting for space in the queue, processes every queued
+     * event and stops the worker thread. Rows that are still incomplete are not registered.
+     * @throws InterruptedException If interrupted while waiting for the producers or the worker
+     */
+    public void close() throws InterruptedException{
+        closed=true;
+        synchronized(this){
+            while(producers.get()>0){//The worker keeps taking events so a producer blocked in put gets its space
+                wait();
+            }
+        }
+        flush();
+        worker.interrupt();
+        worker.join();
+    }
+
+    /**
+     * Takes events off the queue until the pipeline is closed and the queue is empty
+     */
+    private void run(){
+        ArrayList<TimingEvent> batch=new ArrayList<TimingEvent>(batchSize);
+        while(true){
+            try{
+                batch.add(queue.take());
+            }
+            catch(InterruptedException e){
+                if(closed && queue.isEmpty()){
+                    return;
+                }
+                continue;
+            }
+            queue.drainTo(batch,batchSize-1);//Whatever else is already waiting joins the batch
+            try{
+                process(batch);
+            }
+            catch(RuntimeException e){//Keeps the worker alive so flush and close don't wait forever
+                lastFailure=e;
+            }
+            finally{
+                synchronized(this){
+                    processed+=batch.size();
+                    notifyAll();
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Fills in rows from a batch of events and registers the rows that are complete, one call per stage
+     * @param batch   The events
+     */
+    private void process(ArrayList<TimingEvent> batch){
+        HashMap<Integer,ArrayList<Integer>> completeRiders=new HashMap<Integer,ArrayList<Integer>>();
+        HashMap<Integer,ArrayList<LocalTime[]>> completeRows=new HashMap<Integer,ArrayList<LocalTime[]>>();
+        HashSet<Long> completedKeys=new HashSet<Long>();//Rows completed in this batch, which the portal doesn't have yet
+        for(int i=0;i<batch.size();i++){
+            TimingEvent event=batch.get(i);
+            eventsReceived.incrementAndGet();
+            Integer count=checkpointCount(event.getStageId());
+            if(count==null || event.getCheckpoint()<0 || event.getCheckpoint()>=count || event.getTime()==null){
+                rejectedEvents.incrementAndGet();
+                continue;
+            }
+            long key=((long) event.getStageId()<<32)|(event.getRiderId()&0xffffffffL);
+            LocalTime[] row=partialRows.get(key);
+            if(row==null){
+                if(completedKeys.contains(key) || hasResult(event.getStageId(),event.getRiderId())){
+                    rejectedEvents.incrementAndGet();
+                    continue;
+                }
+                row=new LocalTime[count];
+                partialRows.put(key,row);
+            }
+            if(row[event.getCheckpoint()]!=null){//The first crossing is kept
+                rejectedEvents.incrementAndGet();
+                continue;
+            }
+            row[event.getCheckpoint()]=event.getTime();
+            if(isComplete(row)){
+                partialRows.remove(key);
+                completedKeys.add(key);
+                if(!completeRiders.containsKey(event.getStageId())){
+                    completeRiders.put(event.getStageId(),new ArrayList<Integer>());
+                    completeRows.put(event.getStageId(),new ArrayList<LocalTime[]>());
+                }
+                completeRiders.get(event.getStageId()).add(event.getRiderId());
+                completeRows.get(event.getStageId()).add(row);
+            }
+        }
+        for(int stageId : completeRiders.keySet()){
+            ArrayList<Integer> riders=completeRiders.get(stageId);
+            int[] riderIds=new int[riders.size()];
+            for(int i=0;i<riderIds.length;i++){
+                riderIds[i]=riders.get(i);
+            }
+            commit(stageId,riderIds,completeRows.get(stageId).toArray(new LocalTime[0][]));
+        }
+        pendingRows=partialRows.size();
+    }
+
+    /**
+     * Registers complete rows in a stage. If the portal refuses the batch, for example because one rider already
+     * has a result, each row is registered on its own so only the bad rows are lost.
+     * @param stageId   The ID of the stage
+     * @param riderIds   The IDs of the riders
+     * @param rows   The times of each rider
+     */
+    private void commit(int stageId, int[] riderIds, LocalTime[][] rows){
+        batchesCommitted.incrementAndGet();
+        try{
+            portal.registerStageResults(stageId,riderIds,rows);
+            rowsCommitted.addAndGet(riderIds.length);
+            return;
+        }
+        catch(IDNotRecognisedException | DuplicatedResultException | InvalidCheckpointsException | InvalidStageStateException e){
+            if(e instanceof InvalidCheckpointsException){
+                checkpointCounts.remove(stageId);//The stage's segments may have changed since its row length was found
+            }
+        }
+        catch(RuntimeException e){
+            lastFailure=e;
+        }
+        for(int i=0;i<riderIds.length;i++){
+            try{
+                portal.registerRiderResultsInStage(stageId,riderIds[i],rows[i]);
+                rowsCommitted.incrementAndGet();
+            }
+            catch(IDNotRecognisedException | DuplicatedResultException | InvalidCheckpointsException | InvalidStageStateException e){
+                rejectedRows.incrementAndGet();
+            }
+            catch(RuntimeException e){
+                lastFailure=e;
+                rejectedRows.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Checks if a rider already has a result in a stage
+     * @param stageId   The ID of the stage
+     * @param riderId   The ID of the rider
+     * @return True if the portal holds a result for the rider. An unknown rider has none, so their row is built
+     *         and refused when it is registered.
+     */
+    private boolean hasResult(int stageId, int riderId){
+        try{
+            return portal.getRiderResultsInStage(stageId,riderId).length>0;
+        }
+        catch(IDNotRecognisedException e){
+            return false;
+        }
+    }
+
+    /**
+     * Gets how many times make a complete row in a stage, asking the portal the first time the stage is seen
+     * @param stageId   The ID of the stage
+     * @return The start, one time per segment and the finish, or a null value if the stage isn't recognised
+     */
+    private Integer checkpointCount(int stageId){
+        Integer count=checkpointCounts.get(stageId);
+        if(count==null){
+            try{
+                count=portal.getStageSegments(stageId).length+2;
+            }
+            catch(IDNotRecognisedException e){
+                return null;//Not remembered, the stage may be created later
+            }
+            checkpointCounts.put(stageId,count);
+        }
+        return count;
+    }
+
+    /**
+     * Checks if every time of a row has been filled in
+     * @param row   The row
+     * @return True if the row is complete
+     */
+    private static boolean isComplete(LocalTime[] row){
+        for(int i=0;i<row.length;i++){
+            if(row[i]==null){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates a pipeline and starts its worker thread
+     * @param portal   The portal results are registered in
+     * @param capacity   The most events that can wait in the queue before producers have to wait
+     * @param batchSize   The most events processed in one batch
+     * @throws IllegalArgumentException If the capacity or batch size is less than 1
+     */
+    public LiveTimingPipeline(ConcurrentCyclingPortal portal, int capacity, int batchSize){
+        if(capacity<1 || batchSize<1){
+            throw new IllegalArgumentException("Capacity and batch size must be at least 1");
+        }
+        this.portal=portal;
+        this.batchSize=batchSize;
+        queue=new ArrayBlockingQueue<TimingEvent>(capacity);
+        partialRows=new HashMap<Long,LocalTime[]>();
+        checkpointCounts=new HashMap<Integer,Integer>();
+        submitted=new AtomicLong();
+        producers=new AtomicInteger();
+        eventsReceived=new AtomicLong();
+        rowsCommitted=new AtomicLong();
+        rejectedEvents=new AtomicLong();
+        rejectedRows=new AtomicLong();
+        batchesCommitted=new AtomicLong();
+        worker=new Thread(this::run,"live-timing");
+        worker.setDaemon(true);
+        worker.start();
+    }
+}
@@ -1,7 +1,11 @@
 package cycling;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.StampedLock;
 
 /**
  * Race --- A class to represent a cycling race which can contain multiple stages of different types.
@@ -10,9 +14,11 @@ import java.util.ArrayList;
  * id(int) - An id unique to each race
  * name(String) - The name of the race
  * desc(String) - The description of the race
+ * classification(RaceClassification) - The running totals of the race's classifications, made when first needed
+ * lock(StampedLock) - Guards the race and its stages when the portal is shared between threads, so races don't hold each other up
  * 
  * @author Matt Trenchard
- * @version 1.0
+ * @version 1.1
  */
 public class Race implements Serializable{
     private ArrayList<Stage> allStages;
@@ -47,7 +53,35 @@ public class Race implements Serializable{
     public String getDesc(){
         return desc;
     }
+    private transient StampedLock lock;
+    /**
+     * Gets the lock guarding the race and its stages
+     * @return The race's lock
+     */
+    public StampedLock getLock(){
+        return lock;
+    }
+    private transient RaceClassification classification;
+    /**
+     * Gets the classifications of the race, brought up to date with the results of its stages
+     * @return The race's classifications
+     */
+    public RaceClassification getClassification(){
+        return getClassification(null);
+    }
 
+    /**
+     * Gets the classifications of the race, scoring any changed stages in parallel on a pool
+     * @param pool   The pool to score stages on, or a null value to score them on this thread
+     * @return The race's classifications
+     */
+    public synchronized RaceClassification getClassification(ForkJoinPool pool){
+        if(classification==null){
+            classification=new RaceClassification();
+        }
+        classification.update(allStages,pool);
+        return classification;
+    }
 
     /**
      * Used to add a stage to a race. The stage is inserted based on it's date.
@@ -107,5 +141,29 @@ public class Race implements Serializable{
         this.name=name;
         this.desc=desc;
         allStages = new ArrayList<Stage>();
+        lock = new StampedLock();
+    }
+
+    /**
+     * Creates a copy of the race that won't see any later changes. Each stage is copied with {@link Stage#snapshot()}.
+     * @return The copy of the race
+     */
+    public Race snapshot(){
+        Race copy=new Race(id,name,desc);
+        for(int i=0;i<allStages.size();i++){
+            copy.allStages.add(allStages.get(i).snapshot());
+        }
+        return copy;
+    }
+
+    /**
+     * Gives the race a new lock after it has been read from a file
+     * @param in   The stream the race is read from
+     * @throws IOException If the race could not be read
+     * @throws ClassNotFoundException If a class in the stream could not be found
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+        in.defaultReadObject();
+        lock = new StampedLock();
     }
 }
@@ -0,0 +1,263 @@
+package cycling;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * RaceClassification --- The general, points and mountain classifications of a race.
+ * Each rider has running totals which are only changed for the stages whose results have changed since the
+ * last update, so a query doesn't have to add up every stage again.
+ * A rider is classified if they have a result in every stage of the race that has any results.
+ * The public methods are synchronized so readers on different threads can share one classification.
+ * Contains attributes:
+ * contributions(HashMap<Integer,StageContribution>) - What each stage has added to the totals, by stage ID
+ * totals(HashMap<Integer,long[]>) - The totals of each rider by rider ID: seconds, points, mountain points and number of stages
+ * scoredStages(int) - The number of stages with at least one result
+ * generalRank, pointsRank, mountainRank(int[]) - The classified riders in each order, or null until worked out
+ *
+ * @author Matt Trenchard
+ * @version 1.2
+ */
+public class RaceClassification{
+    private static final int SECONDS=0;
+    private static final int POINTS=1;
+    private static final int MOUNTAIN=2;
+    private static final int STAGES=3;
+
+    private HashMap<Integer,StageContribution> contributions;
+    private HashMap<Integer,long[]> totals;
+    private int scoredStages;
+    private int[] generalRank;
+    private int[] pointsRank;
+    private int[] mountainRank;
+
+    /**
+     * Brings the totals up to date with the stages of the race. Only stages that are new, changed or gone are looked at.
+     * @param stages   The stages of the race
+     */
+    public void update(ArrayList<Stage> stages){
+        update(stages,null);
+    }
+
+    /**
+     * Brings the totals up to date with the stages of the race. Only stages that are new, changed or gone are looked at.
+     * If a pool is given the changed stages are scored on it in parallel, then added to the totals in stage order
+     * so the result is the same as scoring them one after another.
+     * @param stages   The stages of the race
+     * @param pool   The pool to score stages on, or a null value to score them on this thread
+     */
+    public synchronized void update(ArrayList<Stage> stages, ForkJoinPool pool){
+        boolean changed=false;
+        ArrayList<Stage> stale=new ArrayList<Stage>();
+        for(int i=0;i<stages.size();i++){
+            Stage stage=stages.get(i);
+            StageContribution old=contributions.get(stage.getId());
+            if(old==null || old.getVersion()!=stage.getVersion()){
+                stale.add(stage);
+            }
+        }
+        if(stale.size()>0){
+            StageContribution[] fresh=new StageContribution[stale.size()];
+            if(pool==null || stale.size()==1){
+                for(int i=0;i<fresh.length;i++){
+                    fresh[i]=new StageContribution(stale.get(i));
+                }
+            }
+            else{
+                pool.invoke(new ContributionTask(stale.toArray(new Stage[0]),fresh,0,fresh.length));
+            }
+            for(int i=0;i<fresh.length;i++){//Merged in stage order
+                replace(contributions.get(fresh[i].getStageId()),fresh[i]);
+            }
+            changed=true;
+        }
+        if(contributions.size()>stages.size()){//A stage has been removed from the race
+            HashSet<Integer> stageIds=new HashSet<Integer>();
+            for(int i=0;i<stages.size();i++){
+                stageIds.add(stages.get(i).getId());
+            }
+            Iterator<StageContribution> it=contributions.values().iterator();
+            while(it.hasNext()){
+                StageContribution old=it.next();
+                if(!stageIds.contains(old.getStageId())){
+                    apply(old,-1);
+                    it.remove();
+                }
+            }
+            changed=true;
+        }
+        if(changed){
+            generalRank=null;
+            pointsRank=null;
+            mountainRank=null;
+        }
+    }
+
+    /**
+     * Swaps a stage's old contribution for its new one
+     * @param old   The contribution currently in the totals or a null value if there is none
+     * @param contribution   The new contribution of the stage
+     */
+    public synchronized void replace(StageContribution old, StageContribution contribution){
+        if(old!=null){
+            apply(old,-1);
+        }
+        apply(contribution,1);
+        contributions.put(contribution.getStageId(),contribution);
+    }
+
+    /**
+     * Adds or takes away a stage's contribution from the riders' totals
+     * @param contribution   The stage's contribution
+     * @param sign   1 to add the contribution, -1 to take it away
+     */
+    private void apply(StageContribution contribution, int sign){
+        int[] riderIds=contribution.getRiderIds();
+        if(riderIds.length==0){
+            return;
+        }
+        scoredStages+=sign;
+        for(int i=0;i<riderIds.length;i++){
+            long[] total=totals.get(riderIds[i]);
+            if(total==null){
+                total=new long[4];
+                totals.put(riderIds[i],total);
+            }
+            total[SECONDS]+=sign*contribution.getSeconds()[i];
+            total[POINTS]+=sign*contribution.getPoints()[i];
+            total[MOUNTAIN]+=sign*contribution.getMountainPoints()[i];
+            total[STAGES]+=sign;
+            if(total[STAGES]==0){//No results left for the rider
+                totals.remove(riderIds[i]);
+            }
+        }
+    }
+
+    /**
+     * Gets the classified riders ordered by their total adjusted elapsed time. Equal times are ordered by rider ID.
+     * @return The rider IDs in general classification order. Must not be modified.
+     */
+    private int[] generalRank(){
+        if(generalRank==null){
+            long[] keys=new long[totals.size()];
+            int count=0;
+            for(HashMap.Entry<Integer,long[]> entry : totals.entrySet()){
+                if(entry.getValue()[STAGES]==scoredStages){
+                    keys[count++]=(entry.getValue()[SECONDS]<<32)|entry.getKey();//Rider IDs are never negative
+                }
+            }
+            keys=Arrays.copyOf(keys,count);
+            Arrays.sort(keys);
+            generalRank=new int[count];
+            for(int i=0;i<count;i++){
+                generalRank[i]=(int) keys[i];
+            }
+        }
+        return generalRank;
+    }
+
+    /**
+     * Orders the classified riders by one of their point totals, most first. Equal totals keep general classification order.
+     * @param kind   POINTS or MOUNTAIN
+     * @return The rider IDs in order
+     */
+    private int[] rankByPoints(int kind){
+        int[] general=generalRank();
+        long[] keys=new long[general.length];
+        for(int i=0;i<general.length;i++){
+            keys[i]=((Integer.MAX_VALUE-totals.get(general[i])[kind])<<32)|i;
+        }
+        Arrays.sort(keys);
+        int[] rank=new int[general.length];
+        for(int i=0;i<rank.length;i++){
+            rank[i]=general[(int) keys[i]];
+        }
+        return rank;
+    }
+
+    /**
+     * Gets the riders in general classification order
+     * @return The rider IDs ordered by total adjusted elapsed time
+     */
+    public synchronized int[] getGeneralClassificationRank(){
+        return generalRank().clone();
+    }
+
+    /**
+     * Gets the total adjusted elapsed time of each rider in general classification order
+     * @return The total times in the same order as {@link #getGeneralClassificationRank()}
+     */
+    public synchronized Duration[] getGeneralClassificationTimes(){
+        int[] general=generalRank();
+        Duration[] times=new Duration[general.length];
+        for(int i=0;i<general.length;i++){
+            times[i]=Duration.ofSeconds(totals.get(general[i])[SECONDS]);
+        }
+        return times;
+    }
+
+    /**
+     * Gets the total points of each rider in general classification order
+     * @return The points in the same order as {@link #getGeneralClassificationRank()}
+     */
+    public synchronized int[] getPoints(){
+        return totalsOf(POINTS);
+    }
+
+    /**
+     * Gets the total mountain points of each rider in general classification order
+     * @return The mountain points in the same order as {@link #getGeneralClassificationRank()}
+     */
+    public synchronized int[] getMountainPoints(){
+        return totalsOf(MOUNTAIN);
+    }
+
+    /**
+     * Gets one of the point totals of each rider in general classification order
+     * @param kind   POINTS or MOUNTAIN
+     * @return The totals
+     */
+    private int[] totalsOf(int kind){
+        int[] general=generalRank();
+        int[] points=new int[general.length];
+        for(int i=0;i<general.length;i++){
+            points[i]=(int) totals.get(general[i])[kind];
+        }
+        return points;
+    }
+
+    /**
+     * Gets the riders in points classification order
+     * @return The rider IDs ordered by total points, most first
+     */
+    public synchronized int[] getPointsClassificationRank(){
+        if(pointsRank==null){
+            pointsRank=rankByPoints(POINTS);
+        }
+        return pointsRank.clone();
+    }
+
+    /**
+     * Gets the riders in mountain classification order
+     * @return The rider IDs ordered by total mountain points, most first
+     */
+    public synchronized int[] getMountainClassificationRank(){
+        if(mountainRank==null){
+            mountainRank=rankByPoints(MOUNTAIN);
+        }
+        return mountainRank.clone();
+    }
+
+    /**
+     * Creates an empty classification. It is filled in by {@link #update(ArrayList)}.
+     */
+    public RaceClassification(){
+        contributions=new HashMap<Integer,StageContribution>();
+        totals=new HashMap<Integer,long[]>();
+    }
+}
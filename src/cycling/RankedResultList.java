@@ -0,0 +1,91 @@
+package cycling;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+
+/**
+ * RankedResultList --- A read only view of one column of a stage's results, sorted by time.
+ * The times themselves are stored in the stage's StageResults so a RiderResult is only created
+ * when a result is fetched from the view.
+ * Contains attributes:
+ * results(StageResults) - The results of the stage
+ * column(int) - The column of the results this view shows
+ *
+ * @author Matt Trenchard
+ * @version 1.1
+ */
+public class RankedResultList extends AbstractList<RiderResult> implements Serializable{
+    private StageResults results;
+    private int column;
+
+    /**
+     * Gets the number of results in the list
+     * @return The number of results
+     */
+    public int size(){
+        return results.size();
+    }
+
+    /**
+     * Gets the result at a position in the list
+     * @param index   The position of the result. 0 is the earliest time.
+     * @return The result at that position
+     */
+    public RiderResult get(int index){
+        int row=results.rowAt(column,index);
+        return new RiderResult(results.getRiderId(row),results.getTime(column,row));
+    }
+
+    /**
+     * Used to find a rider's result in the list
+     * @param riderId   The ID of the rider
+     * @return The rider's result or a null value if they have no result in the list
+     */
+    public RiderResult find(int riderId){
+        int row=results.rowOf(riderId);
+        if(row==-1){
+            return null;
+        }
+        return new RiderResult(riderId,results.getTime(column,row));
+    }
+
+    /**
+     * Gets the position of a rider's result in the list
+     * @param riderId   The ID of the rider
+     * @return The position of the result or -1 if the rider has no result in the list
+     */
+    public int rankOf(int riderId){
+        int row=results.rowOf(riderId);
+        if(row==-1){
+            return -1;
+        }
+        return results.rankOfRow(column,row);
+    }
+
+    /**
+     * Gets the position of a result in the list
+     * @param o   The result to look for
+     * @return The position of the result or -1 if it isn't in the list
+     */
+    public int indexOf(Object o){
+        if(!(o instanceof RiderResult)){
+            return -1;
+        }
+        RiderResult result=(RiderResult) o;
+        RiderResult stored=find(result.getRiderId());
+        if(stored==null || !stored.getTime().equals(result.getTime())){
+            return -1;
+        }
+        return rankOf(result.getRiderId());
+    }
+
+    /**
+     * Creates a view of a column of a stage's results
+     * @param results   The results of the stage
+     * @param column   The column to be shown. 0 is the start times and the last column is the finish times.
+     */
+    public RankedResultList(StageResults results, int column){
+        this.results=results;
+        this.column=column;
+    }
+}
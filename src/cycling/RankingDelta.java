@@ -0,0 +1,103 @@
+package cycling;
+
+import java.util.Arrays;
+
+/**
+ * RankingDelta --- A change to a ranking, holding only the positions whose rider changed.
+ * Deltas from one publisher are numbered in order, so a subscriber that sees a number skipped knows it missed one
+ * and can start again from {@link LeaderboardPublisher#current()}.
+ * Contains attributes:
+ * sequence(long) - The number of the delta. Each delta from a publisher is one more than the one before.
+ * size(int) - How many riders are in the ranking after the change
+ * positions(int[]) - The positions that changed, in order. 0 is first place.
+ * riderIds(int[]) - The rider now at each changed position
+ *
+ * @author Matt Trenchard
+ * @version 1.0
+ */
+public class RankingDelta{
+    private long sequence;
+    /**
+     * Gets the number of the delta
+     * @return The sequence number
+     */
+    public long getSequence(){
+        return sequence;
+    }
+    private int size;
+    /**
+     * Gets how many riders are in the ranking after the change
+     * @return The size of the ranking
+     */
+    public int getSize(){
+        return size;
+    }
+    private int[] positions;
+    /**
+     * Gets the positions that changed
+     * @return The positions, in order. Must not be modified.
+     */
+    public int[] getPositions(){
+        return positions;
+    }
+    private int[] riderIds;
+    /**
+     * Gets the rider now at each changed position
+     * @return The rider IDs, in the same order as the positions. Must not be modified.
+     */
+    public int[] getRiderIds(){
+        return riderIds;
+    }
+
+    /**
+     * Applies the change to the ranking it was worked out from
+     * @param ranking   The rider IDs in ranking order before the change
+     * @return A new array of the rider IDs in ranking order after the change
+     */
+    public int[] applyTo(int[] ranking){
+        int[] changed=Arrays.copyOf(ranking,size);
+        for(int i=0;i<positions.length;i++){
+            changed[positions[i]]=riderIds[i];
+        }
+        return changed;
+    }
+
+    /**
+     * Works out the change between two rankings
+     * @param sequence   The number of the delta
+     * @param before   The rider IDs in ranking order before the change
+     * @param after   The rider IDs in ranking order after the change
+     * @return The change, or a null value if the rankings are the same
+     */
+    static RankingDelta between(long sequence, int[] before, int[] after){
+        int moved=0;
+        int[] positions=new int[after.length];
+        for(int i=0;i<after.length;i++){
+            if(i>=before.length || before[i]!=after[i]){
+                positions[moved++]=i;
+            }
+        }
+        if(moved==0 && before.length==after.length){
+            return null;
+        }
+        int[] riderIds=new int[moved];
+        for(int i=0;i<moved;i++){
+            riderIds[i]=after[positions[i]];
+        }
+        return new RankingDelta(sequence,after.length,Arrays.copyOf(positions,moved),riderIds);
+    }
+
+    /**
+     * Creates a delta
+     * @param sequence   The number of the delta
+     * @param size   How many riders are in the ranking after the change
+     * @param positions   The positions that changed, in order
+     * @param riderIds   The rider now at each changed position
+     */
+    public RankingDelta(long sequence, int size, int[] positions, int[] riderIds){
+        this.sequence=sequence;
+        this.size=size;
+        this.positions=positions;
+        this.riderIds=riderIds;
+    }
+}
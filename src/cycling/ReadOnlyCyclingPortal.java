@@ -0,0 +1,247 @@
+package cycling;
+
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+/**
+ * ReadOnlyCyclingPortal --- A CyclingPortal that can only be read, made by taking a snapshot of another portal.
+ * Every answer comes from the portal as it was when the snapshot was taken, so several calls in a row see the same
+ * results even if the original portal changes in between. Anything that would change the portal throws an
+ * UnsupportedOperationException. Saving it is allowed and saves the snapshot.
+ * Contains no attributes of its own; the snapshot is held as the portal's session.
+ *
+ * @author Matt Trenchard
+ * @version 1.0
+ */
+public class ReadOnlyCyclingPortal extends CyclingPortal{
+
+    /**
+     * Used to refuse a change to the snapshot
+     * @return The exception to throw
+     */
+    private static UnsupportedOperationException readOnly(){
+        return new UnsupportedOperationException("Snapshots of a portal can't be changed");
+    }
+
+    /**
+     * Not supported, a snapshot can't be changed
+     * @param name   Unused
+     * @param description   Unused
+     * @return Never returns
+     */
+    public int createTeam(String name, String description){
+        throw readOnly();
+    }
+
+    /**
+     * Not supported, a snapshot can't be changed
+     * @param teamId   Unused
+     */
+    public void removeTeam(int teamId){
+        throw readOnly();
+    }
+
+    /**
+     * Not supported, a snapshot can't be changed
+     * @param teamId   Unused
+     * @return Never returns
+     */
+    public int purgeTeam(int teamId){
+        throw readOnly();
+    }
+
+    /**
+     * Not supported, a snapshot can't be changed
+     * @param riderIds   Unused
+     * @return Never returns
+     */
+    public int purgeRiderResults(int[] riderIds){
+        throw readOnly();
+    }
+
+    /**
+     * Not supported, a snapshot can't be changed
+     * @param teamId   Unused
+     * @param name   Unused
+     * @param yearOfBirth   Unused
+     * @return Never returns
+     */
+    public int createRider(int teamId, String name, int yearOfBirth){
+        throw readOnly();
+    }
+
+    /**
+     * Not supported, a snapshot can't be changed
+     * @param riderId   Unused
+     */
+    public void removeRider(int riderId){
+        throw readOnly();
+    }
+
+    /**
+     * Not supported, a snapshot can't be changed
+     * @param name   Unused
+     * @param description   Unused
+     * @return Never returns
+     */
+    public int createRace(String name, String description){
+        throw readOnly();
+    }
+
+    /**
+     * Not supported, a snapshot can't be changed
+     * @param raceId   Unused
+     */
+    public void removeRaceById(int raceId){
+        throw readOnly();
+    }
+
+    /**
+     * Not supported, a snapshot can't be changed
+     * @param raceId   Unused
+     * @param stageName   Unused
+     * @param description   Unused
+     * @param length   Unused
+     * @param startTime   Unused
+     * @param type   Unused
+     * @return Never returns
+     */
+    public int addStageToRace(int raceId, String stageName, String description, double length, LocalDateTime startTime, StageType type){
+        throw readOnly();
+    }
+
+    /**
+     * Not supported, a snapshot can't be changed
+     * @param stageId   Unused
+     */
+    public void removeStageById(int stageId){
+        throw readOnly();
+    }
+
+    /**
+     * Not supported, a snapshot can't be changed
+     * @param stageId   Unused
+     * @param location   Unused
+     * @param type   Unused
+     * @param averageGradient   Unused
+     * @param length   Unused
+     * @return Never returns
+     */
+    public int addCategorizedClimbToStage(int stageId, Double location, SegmentType type, Double averageGradient, Double length){
+        throw readOnly();
+    }
+
+    /**
+     * Not supported, a snapshot can't be changed
+     * @param stageId   Unused
+     * @param location   Unused
+     * @return Never returns
+     */
+    public int addIntermediateSprintToStage(int stageId, double location){
+        throw readOnly();
+    }
+
+    /**
+     * Not supported, a snapshot can't be changed
+     * @param segmentId   Unused
+     */
+    public void removeSegment(int segmentId){
+        throw readOnly();
+    }
+
+    /**
+     * Not supported, a snapshot can't be changed
+     * @param stageId   Unused
+     */
+    public void concludeStagePreparation(int stageId){
+        throw readOnly();
+    }
+
+    /**
+     * Not supported, a snapshot can't be changed
+     * @param stageId   Unused
+     * @param riderId   Unused
+     * @param checkpoints   Unused
+     */
+    public void registerRiderResultsInStage(int stageId, int riderId, LocalTime... checkpoints){
+        throw readOnly();
+    }
+
+    /**
+     * Not supported, a snapshot can't be changed
+     * @param stageId   Unused
+     * @param riderIds   Unused
+     * @param checkpoints   Unused
+     */
+    public void registerStageResults(int stageId, int[] riderIds, LocalTime[][] checkpoints){
+        throw readOnly();
+    }
+
+    /**
+     * Not supported, a snapshot can't be changed
+     * @param stageId   Unused
+     * @param riderId   Unused
+     */
+    public void deleteRiderResultsInStage(int stageId, int riderId){
+        throw readOnly();
+    }
+
+    /**
+     * Not supported, a snapshot can't be changed
+     */
+    public void eraseCyclingPortal(){
+        throw readOnly();
+    }
+
+    /**
+     * Not supported, a snapshot can't be changed
+     * @param filename   Unused
+     */
+    public void loadCyclingPortal(String filename){
+        throw readOnly();
+    }
+
+    /**
+     * Not supported, a snapshot can't be changed
+     * @param filename   Unused
+     * @param journalFilename   Unused
+     */
+    public void loadCyclingPortal(String filename, String journalFilename){
+        throw readOnly();
+    }
+
+    /**
+     * Not supported, a snapshot can't be changed
+     * @param filename   Unused
+     */
+    public void openCyclingPortalArchive(String filename){
+        throw readOnly();
+    }
+
+    /**
+     * Not supported, a snapshot doesn't change so there is nothing to journal
+     * @param filename   Unused
+     * @param policy   Unused
+     * @param groupSize   Unused
+     */
+    public void openJournal(String filename, FsyncPolicy policy, int groupSize){
+        throw readOnly();
+    }
+
+    /**
+     * Not supported, a snapshot can't be changed
+     * @param filename   Unused
+     * @return Never returns
+     */
+    public int replayJournal(String filename){
+        throw readOnly();
+    }
+
+    /**
+     * Creates a read only portal over a snapshot of a session
+     * @param snapshot   The snapshot, which nothing else may change
+     */
+    ReadOnlyCyclingPortal(Session snapshot){
+        super(snapshot);
+    }
+}
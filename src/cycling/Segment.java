@@ -2,7 +2,6 @@ package cycling;
 
 import java.io.Serializable;
 import java.time.LocalTime;
-import java.util.ArrayList;
 import cycling.SegmentType;
 
 /**
@@ -12,7 +11,8 @@ import cycling.SegmentType;
  * location(double) - The location in km of the climb peak or sprint checkpoint
  * type(SegmentType) - An enum which can be SPRINT,C4,C3,C2,C1,HC
  * avgGrad(double) - The average gradient of the segment. If it's a sprint this value will be 0
- * checkpointResults(ArrayList<RiderResult>) - A list of each riders time they reached the segment checkpoint at
+ * checkpointResults(RankedResultList) - A view of each riders time they reached the segment checkpoint at, sorted by time.
+ *                                      The times are stored in the stage's results.
  */
 public class Segment implements Serializable{
     private int id;
@@ -48,49 +48,22 @@ public class Segment implements Serializable{
         return avgGrad;
     }
 
-    private ArrayList<RiderResult> checkpointResults;
+    private RankedResultList checkpointResults;
     /**
      * Gets all the results of riders at the segment checkpoint
-     * @return ArrayList of rider's checkpoint times
+     * @return List of rider's checkpoint times sorted by time
      */
-    public ArrayList<RiderResult> getCheckpointResults(){
+    public RankedResultList getCheckpointResults(){
         return checkpointResults;
     }
 
     /**
-     * Adds a rider's time they reached the segment checkpoint at. Inserts based on time
-     * @param result
+     * Sets the view of the stage's results that holds this segment's checkpoint times.
+     * Called by the stage whenever its results are recreated.
+     * @param checkpointResults   The view of the segment's column of results
      */
-    public void insertCheckpoint(RiderResult result){
-        if(checkpointResults.size()==0){
-            checkpointResults.add(result);
-        }
-        else if (checkpointResults.get(checkpointResults.size()-1).getTime().isBefore(result.getTime())){//If the time to be added is the slowest it is appended
-            checkpointResults.add(result);
-        }
-        else if (checkpointResults.get(checkpointResults.size()-1).getTime().equals(result.getTime())){//If the time is equal to the slowest it is appened
-            checkpointResults.add(result);
-        }
-        else{
-            for(int i=0;i<checkpointResults.size();i++){//Iterates through all current times until a time that is equal or after the time to be added is found
-                if(result.getTime().isBefore(checkpointResults.get(i).getTime())){
-                    checkpointResults.add(i,result);
-                    break;
-                }
-                else if(result.getTime().equals(checkpointResults.get(i).getTime())){
-                    checkpointResults.add(i,result);
-                    break;
-                }
-            }
-        }
-    }
-
-    /**
-     * Removes a rider's time from the list of recorded times
-     * @param result   The result to be removed
-     */
-    public void removeCheckpointResult(RiderResult result){
-        checkpointResults.remove(result);
+    public void setCheckpointResults(RankedResultList checkpointResults){
+        this.checkpointResults=checkpointResults;
     }
 
     /**
@@ -100,12 +73,7 @@ public class Segment implements Serializable{
      *         If the result is found the result is returned
      */
     public RiderResult findRiderResult(int riderId){
-        for(int i=0;i<checkpointResults.size();i++){
-            if(checkpointResults.get(i).getRiderId()==riderId){
-                return checkpointResults.get(i);
-            }
-        }
-        return null;
+        return checkpointResults.find(riderId);
     }
 
 
@@ -122,7 +90,6 @@ public class Segment implements Serializable{
         this.location=location;
         this.avgGrad=avgGrad;
         this.type=type;
-        checkpointResults= new ArrayList<RiderResult>();
     }
 
     /**
@@ -137,6 +104,5 @@ public class Segment implements Serializable{
         this.location=location;
         this.type=type;
         avgGrad=0;
-        checkpointResults= new ArrayList<RiderResult>();
     }
 }
@@ -1,7 +1,15 @@
 package cycling;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.time.LocalTime;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Session --- A class to store all the created teams and races as well as ID counters
@@ -11,14 +19,24 @@ import java.util.ArrayList;
  * Contains the following attributes:
  * allTeams (ArrayList<Team>) - An ArrayList of every team created
  * allRaces (ArrayList<Race>) - An ArrayList of every created race
- * nextTeamId (int) - The next ID to be assigned to a team
- * nextRiderId(int) - The next ID to be assigned to a rider
- * nextRaceId (int) - The next ID to be assigned to a race
- * nextStageId (int) - The next ID to be assigned to a stage
- * nextSegmentId (int) - The next ID to be assigned to a segment
+ * nextTeamId (AtomicInteger) - The next ID to be assigned to a team
+ * nextRiderId(AtomicInteger) - The next ID to be assigned to a rider
+ * nextRaceId (AtomicInteger) - The next ID to be assigned to a race
+ * nextStageId (AtomicInteger) - The next ID to be assigned to a stage
+ * nextSegmentId (AtomicInteger) - The next ID to be assigned to a segment
+ * journalSequence (long) - The sequence number of the last journal record applied to the session
+ * teamIndex, raceIndex, stageIndex, segmentIndex (ConcurrentHashMap) - ID lookups for every team, race, stage and segment
+ * stageParents, segmentParents (ConcurrentHashMap) - The race a stage belongs to and the stage a segment belongs to
+ * riderIndex, riderTeams (ConcurrentHashMap) - Every rider by ID and the team each rider rides for
+ * The indexes are concurrent maps so stages and segments of different races can be added from different threads
+ * riderStages (ConcurrentHashMap) - The IDs of the stages each rider has a result in, or null until it is first needed
+ * teamNames, raceNames, stageNames (ConcurrentHashMap) - Every team, race and stage by name, as names are unique
+ * The indexes are not serialised, they are rebuilt from the teams and races when a session is loaded.
+ * archive (SnapshotArchive) - Races of an opened archive that haven't been read yet. A race is read and added
+ * to allRaces, in its saved position, the first time it or one of its stages or segments is looked up.
  * 
  * @author Matt Trenchard
- * @version 1.1
+ * @version 1.4
  */
 
 public class Session implements Serializable{
@@ -30,22 +48,40 @@ public class Session implements Serializable{
     public ArrayList<Team> getAllTeams(){
         return allTeams;
     }
-    private int nextTeamId;
+    private AtomicInteger nextTeamId;
     /**
      * Gets the next team ID to be used.
      * @return Next team ID to be used.
      */
     public int getNextTeamId(){
-        return nextTeamId;
+        return nextTeamId.get();
     }
 
-    private int nextRiderId;
+    private AtomicInteger nextRiderId;
     /**
      * Gets the next rider ID to be used.
      * @return Next rider ID to be used.
      */
     public int getNextRiderId(){
-        return nextRiderId;
+        return nextRiderId.get();
+    }
+
+    private long journalSequence;
+    /**
+     * Gets the sequence number of the last journal record applied to the session.
+     * Saved with the session so only later records are replayed on top of it.
+     * @return The last applied journal sequence number
+     */
+    public long getJournalSequence(){
+        return journalSequence;
+    }
+
+    /**
+     * Sets the sequence number of the last journal record applied to the session.
+     * @param journalSequence   The last applied journal sequence number
+     */
+    public void setJournalSequence(long journalSequence){
+        this.journalSequence=journalSequence;
     }
 
     private ArrayList<Race> allRaces;
@@ -54,33 +90,255 @@ public class Session implements Serializable{
      * @return ArrayList of every race in the system
      */
     public ArrayList<Race> getAllRaces(){
+        if(archive!=null){//Every race is needed so the rest of the archive is read
+            for(int i=0;archive!=null && i<archive.getRaceCount();i++){
+                materialise(i);
+            }
+        }
         return allRaces;
     }
-    private int nextRaceId;
+
+    /**
+     * Gets the ID of every race in the order they are listed, without reading any races still in an archive.
+     * @return The IDs of every race
+     */
+    public int[] getRaceIds(){
+        if(archive==null){
+            int[] raceIds=new int[allRaces.size()];
+            for(int i=0;i<allRaces.size();i++){
+                raceIds[i]=allRaces.get(i).getId();
+            }
+            return raceIds;
+        }
+        ArrayList<Integer> raceIds=new ArrayList<Integer>();
+        int next=0;//Archived races that have been read are at the front of allRaces in directory order
+        for(int i=0;i<archive.getRaceCount();i++){
+            if(!archive.isLoaded(i)){
+                raceIds.add(archive.getRaceId(i));
+            }
+            else if(next<allRaces.size() && allRaces.get(next).getId()==archive.getRaceId(i)){
+                raceIds.add(allRaces.get(next++).getId());
+            }//Otherwise the race was read and then removed
+        }
+        for(;next<allRaces.size();next++){
+            raceIds.add(allRaces.get(next).getId());
+        }
+        int[] ids=new int[raceIds.size()];
+        for(int i=0;i<ids.length;i++){
+            ids[i]=raceIds.get(i);
+        }
+        return ids;
+    }
+    private AtomicInteger nextRaceId;
     /**
      * Gets the next unused race ID
      * @return Next unused race ID
      */
     public int getNextRaceId(){
-        return nextRaceId;
+        return nextRaceId.get();
     }
 
-    private int nextStageId;
+    private AtomicInteger nextStageId;
     /**
      * Gets the next unused stage ID
      * @return Next unused stage ID
      */
     public int getNextStageId(){
-        return nextStageId;
+        return nextStageId.get();
     }
 
-    private int nextSegmentId;
+    private AtomicInteger nextSegmentId;
     /**
      * Gets the next unused segment ID
      * @return Next unused segment ID
      */
     public int getNextSegmentId(){
-        return nextSegmentId;
+        return nextSegmentId.get();
+    }
+
+    private transient ConcurrentHashMap<Integer,Team> teamIndex;
+    private transient ConcurrentHashMap<Integer,Race> raceIndex;
+    private transient ConcurrentHashMap<Integer,Stage> stageIndex;
+    private transient ConcurrentHashMap<Integer,Segment> segmentIndex;
+    private transient ConcurrentHashMap<Integer,Race> stageParents;
+    private transient ConcurrentHashMap<Integer,Rider> riderIndex;
+    private transient ConcurrentHashMap<Integer,Team> riderTeams;
+    private transient ConcurrentHashMap<Integer,Stage> segmentParents;
+    private transient ConcurrentHashMap<Integer,HashSet<Integer>> riderStages;
+    private transient ConcurrentHashMap<String,Team> teamNames;
+    private transient ConcurrentHashMap<String,Race> raceNames;
+    private transient ConcurrentHashMap<String,Stage> stageNames;
+    private transient SnapshotArchive archive;
+
+    /**
+     * Sets the archive holding races that haven't been read yet. Used when a snapshot is opened as an archive.
+     * @param archive   The archive of unread races
+     */
+    public void setArchive(SnapshotArchive archive){
+        this.archive=archive;
+        if(archive.isFullyLoaded()){
+            this.archive=null;
+        }
+    }
+
+    /**
+     * Reads a race from the archive if it hasn't been already and adds it to the session.
+     * The race is placed after the archived races before it that are still in the session, so races stay in their saved order.
+     * @param entry   The position of the race in the archive's directory, or -1 to do nothing
+     */
+    private void materialise(int entry){
+        if(archive==null || entry==-1 || archive.isLoaded(entry)){
+            return;
+        }
+        Race race;
+        try{
+            race=archive.load(entry);
+        }
+        catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+        int position=0;
+        for(int i=0;i<entry;i++){
+            if(archive.isLoaded(i) && raceIndex.containsKey(archive.getRaceId(i))){
+                position++;
+            }
+        }
+        allRaces.add(position,race);
+        indexRace(race);
+        if(archive.isFullyLoaded()){//The buffer is no longer needed
+            archive=null;
+        }
+    }
+
+    /**
+     * Gets a team from its ID.
+     * @param id   The ID of the team.
+     * @return The team with the ID or a null value if there is no such team.
+     */
+    public Team getTeam(int id){
+        return teamIndex.get(id);
+    }
+
+    /**
+     * Gets a rider from their ID.
+     * @param id   The ID of the rider.
+     * @return The rider with the ID or a null value if there is no such rider.
+     */
+    public Rider getRider(int id){
+        return riderIndex.get(id);
+    }
+
+    /**
+     * Gets the team a rider rides for.
+     * @param riderId   The ID of the rider.
+     * @return The rider's team or a null value if there is no such rider.
+     */
+    public Team getTeamOfRider(int riderId){
+        return riderTeams.get(riderId);
+    }
+
+    /**
+     * Gets a race from its ID.
+     * @param id   The ID of the race.
+     * @return The race with the ID or a null value if there is no such race.
+     */
+    public Race getRace(int id){
+        if(archive!=null && !raceIndex.containsKey(id)){
+            materialise(archive.entryOfRace(id));
+        }
+        return raceIndex.get(id);
+    }
+
+    /**
+     * Gets a stage from its ID.
+     * @param id   The ID of the stage.
+     * @return The stage with the ID or a null value if there is no such stage.
+     */
+    public Stage getStage(int id){
+        if(archive!=null && !stageIndex.containsKey(id)){
+            materialise(archive.entryOfStage(id));
+        }
+        return stageIndex.get(id);
+    }
+
+    /**
+     * Gets a segment from its ID.
+     * @param id   The ID of the segment.
+     * @return The segment with the ID or a null value if there is no such segment.
+     */
+    public Segment getSegment(int id){
+        if(archive!=null && !segmentIndex.containsKey(id)){
+            materialise(archive.entryOfSegment(id));
+        }
+        return segmentIndex.get(id);
+    }
+
+    /**
+     * Gets a team from its name.
+     * @param name   The name of the team.
+     * @return The team with the name or a null value if there is no such team.
+     */
+    public Team getTeamByName(String name){
+        if(name==null){
+            return null;
+        }
+        return teamNames.get(name);
+    }
+
+    /**
+     * Gets a race from its name. If the race is still in an archive it is read first, and no race is read if
+     * the archive's directory has no race with the name.
+     * @param name   The name of the race.
+     * @return The race with the name or a null value if there is no such race.
+     */
+    public Race getRaceByName(String name){
+        if(name==null){
+            return null;
+        }
+        if(archive!=null && !raceNames.containsKey(name)){
+            materialise(archive.entryOfRaceName(name));
+        }
+        return raceNames.get(name);
+    }
+
+    /**
+     * Gets a stage from its name. If the stage's race is still in an archive it is read first, and no race is read
+     * if the archive's directory has no stage with the name.
+     * @param name   The name of the stage.
+     * @return The stage with the name or a null value if there is no such stage.
+     */
+    public Stage getStageByName(String name){
+        if(name==null){
+            return null;
+        }
+        if(archive!=null && !stageNames.containsKey(name)){
+            materialise(archive.entryOfStageName(name));
+        }
+        return stageNames.get(name);
+    }
+
+    /**
+     * Gets the race a stage belongs to.
+     * @param stageId   The ID of the stage.
+     * @return The race containing the stage or a null value if there is no such stage.
+     */
+    public Race getRaceOfStage(int stageId){
+        if(archive!=null && !stageParents.containsKey(stageId)){
+            materialise(archive.entryOfStage(stageId));
+        }
+        return stageParents.get(stageId);
+    }
+
+    /**
+     * Gets the stage a segment belongs to.
+     * @param segmentId   The ID of the segment.
+     * @return The stage containing the segment or a null value if there is no such segment.
+     */
+    public Stage getStageOfSegment(int segmentId){
+        if(archive!=null && !segmentParents.containsKey(segmentId)){
+            materialise(archive.entryOfSegment(segmentId));
+        }
+        return segmentParents.get(segmentId);
     }
 
     /**
@@ -89,6 +347,8 @@ public class Session implements Serializable{
      */
     public void appendTeam(Team team){
         allTeams.add(team);
+        teamIndex.put(team.getId(),team);
+        teamNames.put(team.getName(),team);
     }
 
     /**
@@ -97,6 +357,184 @@ public class Session implements Serializable{
      */
     public void deleteTeam(Team team){
         allTeams.remove(team);
+        teamIndex.remove(team.getId());
+        teamNames.remove(team.getName(),team);
+        for(int i=0;i<team.getRiders().size();i++){//The team's riders leave the system with it
+            riderIndex.remove(team.getRiders().get(i).getId());
+            riderTeams.remove(team.getRiders().get(i).getId());
+        }
+    }
+
+    /**
+     * Adds a rider to a team and indexes them.
+     * @param team   The team the rider rides for
+     * @param rider   The rider to be added
+     */
+    public void appendRider(Team team, Rider rider){
+        team.appendRider(rider);
+        riderIndex.put(rider.getId(),rider);
+        riderTeams.put(rider.getId(),team);
+    }
+
+    /**
+     * Removes a rider from their team and from the indexes.
+     * @param rider   The rider to be removed
+     */
+    public void deleteRider(Rider rider){
+        Team team=riderTeams.remove(rider.getId());
+        if(team!=null){
+            team.deleteRider(rider);
+        }
+        riderIndex.remove(rider.getId());
+    }
+
+    /**
+     * Adds a rider's result to a stage and records that the rider took part in it
+     * @param stage   The stage
+     * @param riderId   The ID of the rider
+     * @param checkpoints   The rider's start, checkpoint and finish times
+     */
+    public void insertResult(Stage stage, int riderId, LocalTime[] checkpoints){
+        stage.insertResult(riderId,checkpoints);
+        participate(riderId,stage.getId());
+    }
+
+    /**
+     * Adds the results of many riders to a stage and records that each rider took part in it
+     * @param stage   The stage
+     * @param riderIds   The IDs of the riders
+     * @param checkpoints   The times of each rider, in the same order as the IDs
+     */
+    public void insertResults(Stage stage, int[] riderIds, LocalTime[][] checkpoints){
+        stage.insertResults(riderIds,checkpoints);
+        for(int i=0;i<riderIds.length;i++){
+            participate(riderIds[i],stage.getId());
+        }
+    }
+
+    /**
+     * Removes a rider's result from a stage
+     * @param stage   The stage
+     * @param riderId   The ID of the rider
+     * @return True if the rider had a result in the stage
+     */
+    public boolean removeResult(Stage stage, int riderId){
+        boolean removed=stage.removeResult(riderId);
+        if(removed){
+            leave(riderId,stage.getId());
+        }
+        return removed;
+    }
+
+    /**
+     * Removes every result a rider has, only visiting the stages the rider took part in
+     * @param riderId   The ID of the rider
+     * @return The number of results removed
+     */
+    public int removeResultsOfRider(int riderId){
+        HashSet<Integer> riderIds=new HashSet<Integer>();
+        riderIds.add(riderId);
+        return removeResultsOfRiders(riderIds);
+    }
+
+    /**
+     * Removes every result of a group of riders, such as a team. Only the stages one of the riders took part in
+     * are visited, and each of them removes all the riders' results in a single pass.
+     * @param riderIds   The IDs of the riders
+     * @return The number of results removed
+     */
+    public int removeResultsOfRiders(Set<Integer> riderIds){
+        HashSet<Integer> stageIds=new HashSet<Integer>();
+        for(int riderId : riderIds){
+            int[] stagesOfRider=getStagesOfRider(riderId);
+            for(int i=0;i<stagesOfRider.length;i++){
+                stageIds.add(stagesOfRider[i]);
+            }
+        }
+        int removed=0;
+        for(int stageId : stageIds){
+            removed+=stageIndex.get(stageId).removeResults(riderIds);
+        }
+        for(int riderId : riderIds){
+            riderStages.remove(riderId);
+        }
+        return removed;
+    }
+
+    /**
+     * Gets the stages a rider has a result in. Only the races still in an archive whose directory lists the rider
+     * are read. The first call goes through the results of every race in the session to build the participation
+     * index; after that it is kept up to date as results change and races are read.
+     * @param riderId   The ID of the rider
+     * @return The IDs of the stages
+     */
+    public int[] getStagesOfRider(int riderId){
+        if(archive!=null){
+            for(int entry : archive.entriesOfRider(riderId)){
+                materialise(entry);
+            }
+        }
+        if(riderStages==null){
+            riderStages=new ConcurrentHashMap<Integer,HashSet<Integer>>();
+            for(int i=0;i<allRaces.size();i++){
+                for(int j=0;j<allRaces.get(i).getAllStages().size();j++){
+                    participateAll(allRaces.get(i).getAllStages().get(j));
+                }
+            }
+        }
+        HashSet<Integer> stages=riderStages.get(riderId);
+        if(stages==null){
+            return new int[0];
+        }
+        int[] stageIds=new int[stages.size()];
+        int i=0;
+        for(int stageId : stages){
+            stageIds[i++]=stageId;
+        }
+        return stageIds;
+    }
+
+    /**
+     * Records that a rider has a result in a stage, if the participation index has been built.
+     * Each rider's set is only changed inside compute so stages of different races can record riders at the same time.
+     * @param riderId   The ID of the rider
+     * @param stageId   The ID of the stage
+     */
+    private void participate(int riderId, int stageId){
+        if(riderStages!=null){
+            riderStages.compute(riderId,(id,stages)->{
+                if(stages==null){
+                    stages=new HashSet<Integer>();
+                }
+                stages.add(stageId);
+                return stages;
+            });
+        }
+    }
+
+    /**
+     * Records that a rider no longer has a result in a stage, if the participation index has been built
+     * @param riderId   The ID of the rider
+     * @param stageId   The ID of the stage
+     */
+    private void leave(int riderId, int stageId){
+        if(riderStages!=null){
+            riderStages.computeIfPresent(riderId,(id,stages)->{
+                stages.remove(stageId);
+                return stages.isEmpty() ? null : stages;
+            });
+        }
+    }
+
+    /**
+     * Records every rider with a result in a stage as taking part in it
+     * @param stage   The stage
+     */
+    private void participateAll(Stage stage){
+        int[] riderIds=stage.getRiderIds();
+        for(int i=0;i<riderIds.length;i++){
+            participate(riderIds[i],stage.getId());
+        }
     }
 
     /**
@@ -105,60 +543,279 @@ public class Session implements Serializable{
      */
     public void appendRace(Race race){
         allRaces.add(race);
+        indexRace(race);
     }
 
     /**
-     * Removes a race from the list of created races
+     * Removes a race from the list of created races. Its stages and segments are removed from the indexes.
      * @param race   The race to be removed
      */
     public void removeRace(Race race){
         allRaces.remove(race);
+        raceIndex.remove(race.getId());
+        raceNames.remove(race.getName(),race);
+        for(int i=0;i<race.getAllStages().size();i++){
+            unindexStage(race.getAllStages().get(i));
+        }
+    }
+
+    /**
+     * Adds a stage to a race and indexes it. The stage's name is reserved first, so if stages with the same name
+     * are added to different races at the same time only one of them is added.
+     * @param race   The race the stage is being added to
+     * @param stage   The stage to be added
+     * @return True if the stage was added, false if its name is already used
+     */
+    public boolean appendStage(Race race, Stage stage){
+        if(stageNames.putIfAbsent(stage.getName(),stage)!=null){
+            return false;
+        }
+        race.insertStage(stage);
+        indexStage(race,stage);
+        return true;
+    }
+
+    /**
+     * Removes a stage from its race along with its segments from the indexes.
+     * @param stage   The stage to be removed
+     */
+    public void removeStage(Stage stage){
+        Race race=stageParents.get(stage.getId());
+        if(race!=null){
+            race.removeStage(stage);
+        }
+        unindexStage(stage);
+    }
+
+    /**
+     * Adds a segment to a stage and indexes it.
+     * @param stage   The stage the segment is being added to
+     * @param segment   The segment to be added
+     */
+    public void appendSegment(Stage stage, Segment segment){
+        stage.insertSegment(segment);
+        segmentIndex.put(segment.getId(),segment);
+        segmentParents.put(segment.getId(),stage);
+    }
+
+    /**
+     * Removes a segment from its stage and from the indexes.
+     * @param segment   The segment to be removed
+     */
+    public void removeSegment(Segment segment){
+        Stage stage=segmentParents.remove(segment.getId());
+        if(stage!=null){
+            stage.removeSegment(segment);
+        }
+        segmentIndex.remove(segment.getId());
+    }
+
+    /**
+     * Rebuilds every index from the lists of teams and races.
+     * Used after a session has been loaded as the indexes are not saved.
+     */
+    public void rebuildIndexes(){
+        teamIndex= new ConcurrentHashMap<Integer,Team>();
+        raceIndex= new ConcurrentHashMap<Integer,Race>();
+        stageIndex= new ConcurrentHashMap<Integer,Stage>();
+        segmentIndex= new ConcurrentHashMap<Integer,Segment>();
+        stageParents= new ConcurrentHashMap<Integer,Race>();
+        segmentParents= new ConcurrentHashMap<Integer,Stage>();
+        riderIndex= new ConcurrentHashMap<Integer,Rider>();
+        riderTeams= new ConcurrentHashMap<Integer,Team>();
+        riderStages=null;//Built again when first needed
+        teamNames= new ConcurrentHashMap<String,Team>();
+        raceNames= new ConcurrentHashMap<String,Race>();
+        stageNames= new ConcurrentHashMap<String,Stage>();
+        for(int i=0;i<allTeams.size();i++){
+            Team team=allTeams.get(i);
+            teamIndex.put(team.getId(),team);
+            teamNames.put(team.getName(),team);
+            for(int j=0;j<team.getRiders().size();j++){
+                riderIndex.put(team.getRiders().get(j).getId(),team.getRiders().get(j));
+                riderTeams.put(team.getRiders().get(j).getId(),team);
+            }
+        }
+        for(int i=0;i<allRaces.size();i++){
+            indexRace(allRaces.get(i));
+        }
+    }
+
+    /**
+     * Indexes a race along with all of its stages and segments.
+     * @param race   The race to be indexed
+     */
+    private void indexRace(Race race){
+        raceIndex.put(race.getId(),race);
+        raceNames.put(race.getName(),race);
+        for(int i=0;i<race.getAllStages().size();i++){
+            indexStage(race,race.getAllStages().get(i));
+        }
+    }
+
+    /**
+     * Indexes a stage and its segments.
+     * @param race   The race the stage belongs to
+     * @param stage   The stage to be indexed
+     */
+    private void indexStage(Race race, Stage stage){
+        stageIndex.put(stage.getId(),stage);
+        stageParents.put(stage.getId(),race);
+        stageNames.put(stage.getName(),stage);
+        participateAll(stage);
+        for(int i=0;i<stage.getSegments().size();i++){
+            Segment segment=stage.getSegments().get(i);
+            segmentIndex.put(segment.getId(),segment);
+            segmentParents.put(segment.getId(),stage);
+        }
+    }
+
+    /**
+     * Removes a stage and its segments from the indexes.
+     * @param stage   The stage to be removed from the indexes
+     */
+    private void unindexStage(Stage stage){
+        stageIndex.remove(stage.getId());
+        stageParents.remove(stage.getId());
+        stageNames.remove(stage.getName(),stage);
+        if(riderStages!=null){
+            int[] riderIds=stage.getRiderIds();
+            for(int i=0;i<riderIds.length;i++){
+                leave(riderIds[i],stage.getId());
+            }
+        }
+        for(int i=0;i<stage.getSegments().size();i++){
+            segmentIndex.remove(stage.getSegments().get(i).getId());
+            segmentParents.remove(stage.getSegments().get(i).getId());
+        }
+    }
+
+    /**
+     * Gives out the next team ID and moves the counter on in one atomic step, so two callers never get the same ID
+     * @return The team ID to be used
+     */
+    public int allocateTeamId(){
+        return nextTeamId.getAndIncrement();
+    }
+
+    /**
+     * Sets the team ID counter. Used when a session is read from a snapshot.
+     * @param nextTeamId   The next team ID to be used
+     */
+    public void setNextTeamId(int nextTeamId){
+        this.nextTeamId.set(nextTeamId);
+    }
+
+    /**
+     * Gives out the next rider ID and moves the counter on in one atomic step, so two callers never get the same ID
+     * @return The rider ID to be used
+     */
+    public int allocateRiderId(){
+        return nextRiderId.getAndIncrement();
     }
 
     /**
-     * Increments the team ID counter
+     * Sets the rider ID counter. Used when a session is read from a snapshot.
+     * @param nextRiderId   The next rider ID to be used
      */
-    public void incrementTeamId(){
-        nextTeamId++;
+    public void setNextRiderId(int nextRiderId){
+        this.nextRiderId.set(nextRiderId);
     }
 
     /**
-     * Increments the rider ID counter
+     * Gives out the next race ID and moves the counter on in one atomic step, so two callers never get the same ID
+     * @return The race ID to be used
      */
-    public void incrementRiderId(){
-        nextRiderId++;
+    public int allocateRaceId(){
+        return nextRaceId.getAndIncrement();
     }
 
     /**
-     * Increments the race ID counter
+     * Sets the race ID counter. Used when a session is read from a snapshot.
+     * @param nextRaceId   The next race ID to be used
      */
-    public void incrementRaceId(){
-        nextRaceId++;
+    public void setNextRaceId(int nextRaceId){
+        this.nextRaceId.set(nextRaceId);
     }
 
     /**
-     * Increments the stage ID counter
+     * Gives out the next stage ID and moves the counter on in one atomic step, so two callers never get the same ID
+     * @return The stage ID to be used
      */
-    public void incrementStageId(){
-        nextStageId++;
+    public int allocateStageId(){
+        return nextStageId.getAndIncrement();
     }
 
     /**
-     * Increments the segment ID counter
+     * Sets the stage ID counter. Used when a session is read from a snapshot.
+     * @param nextStageId   The next stage ID to be used
      */
-    public void incrementSegmentId(){
-        nextSegmentId++;
+    public void setNextStageId(int nextStageId){
+        this.nextStageId.set(nextStageId);
     }
+
+    /**
+     * Gives out the next segment ID and moves the counter on in one atomic step, so two callers never get the same ID
+     * @return The segment ID to be used
+     */
+    public int allocateSegmentId(){
+        return nextSegmentId.getAndIncrement();
+    }
+
+    /**
+     * Sets the segment ID counter. Used when a session is read from a snapshot.
+     * @param nextSegmentId   The next segment ID to be used
+     */
+    public void setNextSegmentId(int nextSegmentId){
+        this.nextSegmentId.set(nextSegmentId);
+    }
+    /**
+     * Reads any races still in an archive before the session is serialised, as the archive isn't saved with it
+     * @param out   The stream the session is written to
+     * @throws IOException If the session can't be written
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException{
+        getAllRaces();
+        out.defaultWriteObject();
+    }
+
+    /**
+     * Creates a copy of the session that won't see any later changes. Teams, races, stages and segments are copied
+     * but riders and every stage's results are shared with this session, so the cost depends on how many of them
+     * there are rather than on how many results have been registered. A stage copies its results the first
+     * time it changes them after a snapshot.
+     * @return The copy of the session
+     */
+    public Session snapshot(){
+        Session copy=new Session();
+        copy.nextTeamId.set(nextTeamId.get());
+        copy.nextRiderId.set(nextRiderId.get());
+        copy.nextRaceId.set(nextRaceId.get());
+        copy.nextStageId.set(nextStageId.get());
+        copy.nextSegmentId.set(nextSegmentId.get());
+        copy.journalSequence=journalSequence;
+        for(int i=0;i<allTeams.size();i++){
+            copy.allTeams.add(allTeams.get(i).snapshot());
+        }
+        ArrayList<Race> races=getAllRaces();//Reads any races still in an archive
+        for(int i=0;i<races.size();i++){
+            copy.allRaces.add(races.get(i).snapshot());
+        }
+        copy.rebuildIndexes();
+        return copy;
+    }
+
     /**
      * Creates a new session with an empty list of teams and races and ID counters of 1
      */
     public Session(){
         allTeams= new ArrayList<Team>();
-        nextTeamId=1;
-        nextRiderId=1;
-        nextRaceId=1;
-        nextSegmentId=1;
-        nextStageId=1;
+        nextTeamId=new AtomicInteger(1);
+        nextRiderId=new AtomicInteger(1);
+        nextRaceId=new AtomicInteger(1);
+        nextSegmentId=new AtomicInteger(1);
+        nextStageId=new AtomicInteger(1);
         allRaces= new ArrayList<Race>();
+        rebuildIndexes();
     }
 }
\ No newline at end of file
@@ -0,0 +1,194 @@
+package cycling;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * SnapshotArchive --- The races of a snapshot that have been left in its buffer until they are needed.
+ * The buffer is usually a memory mapped file, so a race that is never looked at is never read into the heap.
+ * The race directory at the start of the snapshot says which race each stage and segment ID and each race and
+ * stage name belongs to, so looking up any of them, including checking a new name is unused, only reads the one race.
+ * It also lists the riders with a result in each race, so finding a rider's results only reads the races they rode.
+ * Contains attributes:
+ * buffer(ByteBuffer) - The snapshot
+ * raceIds(int[]) - The ID of each race in the directory, in the order the races were saved
+ * offsets, lengths(int[]) - Where each race body starts in the buffer and how many bytes it takes up
+ * riderIds(int[][]) - The IDs of the riders with a result in each race, in ascending order
+ * loaded(boolean[]) - Whether each race has been read
+ * raceEntries, stageEntries, segmentEntries(HashMap<Integer,Integer>) - The directory entry of each race, stage and segment ID
+ * raceNameEntries, stageNameEntries(HashMap<String,Integer>) - The directory entry of each race and stage name
+ *
+ * @author Matt Trenchard
+ * @version 1.2
+ */
+public class SnapshotArchive{
+    private ByteBuffer buffer;
+    private int[] raceIds;
+    private int[] offsets;
+    private int[] lengths;
+    private int[][] riderIds;
+    private boolean[] loaded;
+    private int loadedCount;
+    private HashMap<Integer,Integer> raceEntries;
+    private HashMap<Integer,Integer> stageEntries;
+    private HashMap<Integer,Integer> segmentEntries;
+    private HashMap<String,Integer> raceNameEntries;
+    private HashMap<String,Integer> stageNameEntries;
+
+    /**
+     * Gets the number of races in the archive
+     * @return The number of races
+     */
+    public int getRaceCount(){
+        return raceIds.length;
+    }
+
+    /**
+     * Gets the ID of a race in the archive
+     * @param entry   The position of the race in the directory
+     * @return The race's ID
+     */
+    public int getRaceId(int entry){
+        return raceIds[entry];
+    }
+
+    /**
+     * Checks whether a race has been read from the archive
+     * @param entry   The position of the race in the directory
+     * @return True if the race has been read
+     */
+    public boolean isLoaded(int entry){
+        return loaded[entry];
+    }
+
+    /**
+     * Checks whether every race has been read, after which the archive is no longer needed
+     * @return True if every race has been read
+     */
+    public boolean isFullyLoaded(){
+        return loadedCount==raceIds.length;
+    }
+
+    /**
+     * Finds the directory entry of a race
+     * @param raceId   The ID of the race
+     * @return The position of the race in the directory or -1 if it isn't in the archive
+     */
+    public int entryOfRace(int raceId){
+        Integer entry=raceEntries.get(raceId);
+        return entry==null ? -1 : entry;
+    }
+
+    /**
+     * Finds the directory entry of the race a stage belongs to
+     * @param stageId   The ID of the stage
+     * @return The position of the race in the directory or -1 if the stage isn't in the archive
+     */
+    public int entryOfStage(int stageId){
+        Integer entry=stageEntries.get(stageId);
+        return entry==null ? -1 : entry;
+    }
+
+    /**
+     * Finds the directory entry of the race a segment belongs to
+     * @param segmentId   The ID of the segment
+     * @return The position of the race in the directory or -1 if the segment isn't in the archive
+     */
+    public int entryOfSegment(int segmentId){
+        Integer entry=segmentEntries.get(segmentId);
+        return entry==null ? -1 : entry;
+    }
+
+    /**
+     * Finds the directory entry of the race with a name
+     * @param name   The name of the race
+     * @return The position of the race in the directory or -1 if no race in the archive has the name
+     */
+    public int entryOfRaceName(String name){
+        Integer entry=raceNameEntries.get(name);
+        return entry==null ? -1 : entry;
+    }
+
+    /**
+     * Finds the directory entry of the race holding the stage with a name
+     * @param name   The name of the stage
+     * @return The position of the race in the directory or -1 if no stage in the archive has the name
+     */
+    public int entryOfStageName(String name){
+        Integer entry=stageNameEntries.get(name);
+        return entry==null ? -1 : entry;
+    }
+
+    /**
+     * Finds the directory entries of the races a rider has a result in that haven't been read yet
+     * @param riderId   The ID of the rider
+     * @return The positions of the races in the directory
+     */
+    public ArrayList<Integer> entriesOfRider(int riderId){
+        ArrayList<Integer> entries=new ArrayList<Integer>();
+        for(int i=0;i<raceIds.length;i++){
+            if(!loaded[i] && Arrays.binarySearch(riderIds[i],riderId)>=0){
+                entries.add(i);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Reads a race, its stages and their results from the archive
+     * @param entry   The position of the race in the directory
+     * @return The race, not yet added to a session
+     * @throws IOException If the race is malformed
+     */
+    public Race load(int entry) throws IOException{
+        ByteBuffer body=buffer.duplicate();//A separate position so the shared buffer is never moved
+        body.limit(offsets[entry]+lengths[entry]);
+        body.position(offsets[entry]);
+        Race race=SnapshotFormat.readRaceBody(body);
+        if(!loaded[entry]){
+            loaded[entry]=true;
+            loadedCount++;
+        }
+        return race;
+    }
+
+    /**
+     * Creates an archive from the race directory of a snapshot
+     * @param buffer   The snapshot
+     * @param raceIds   The ID of each race
+     * @param raceNames   The name of each race
+     * @param stageIds   The IDs of the stages of each race
+     * @param stageNames   The names of the stages of each race
+     * @param segmentIds   The IDs of the segments of each race
+     * @param riderIds   The IDs of the riders with a result in each race, in ascending order
+     * @param offsets   Where each race body starts in the buffer
+     * @param lengths   The length of each race body in bytes
+     */
+    public SnapshotArchive(ByteBuffer buffer, int[] raceIds, String[] raceNames, int[][] stageIds, String[][] stageNames, int[][] segmentIds, int[][] riderIds, int[] offsets, int[] lengths){
+        this.buffer=buffer;
+        this.raceIds=raceIds;
+        this.offsets=offsets;
+        this.lengths=lengths;
+        this.riderIds=riderIds;
+        loaded=new boolean[raceIds.length];
+        raceEntries=new HashMap<Integer,Integer>();
+        stageEntries=new HashMap<Integer,Integer>();
+        segmentEntries=new HashMap<Integer,Integer>();
+        raceNameEntries=new HashMap<String,Integer>();
+        stageNameEntries=new HashMap<String,Integer>();
+        for(int i=0;i<raceIds.length;i++){
+            raceEntries.put(raceIds[i],i);
+            raceNameEntries.put(raceNames[i],i);
+            for(int j=0;j<stageIds[i].length;j++){
+                stageEntries.put(stageIds[i][j],i);
+                stageNameEntries.put(stageNames[i][j],i);
+            }
+            for(int j=0;j<segmentIds[i].length;j++){
+                segmentEntries.put(segmentIds[i][j],i);
+            }
+        }
+    }
+}
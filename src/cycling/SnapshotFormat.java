@@ -0,0 +1,600 @@
+package cycling;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * SnapshotFormat --- Writes and reads a session in a compact binary format instead of Java serialisation.
+ * A snapshot starts with a magic number and a format version. IDs and counts are written as variable length
+ * integers, every name and description is written once in a string table and referred to by its position,
+ * and the results of a stage are written a column at a time in time order so each time is stored as the
+ * gap from the time before it.
+ * Layout:
+ * magic, version, the five ID counters, the journal sequence number, the string table, the teams with their riders,
+ * the race directory, then the race bodies.
+ * A string is referred to by its position in its table plus one, 0 meaning no string.
+ * The directory gives each race's ID and name, the IDs and names of its stages, the IDs of its segments, the IDs of
+ * the riders with a result in any of its stages and the length of its body, so a race can be found by ID, name or
+ * rider and read on its own from a mapped file. The rider IDs are sorted and written as the gap from the one before. Its names are
+ * in the first string table. Each race body has its own string table followed by the
+ * race and its stages.
+ * A stage's start time is written after a flag byte that is 0 when the stage has no start time.
+ * Each stage holds its segments and then its results: the rider IDs in start order followed by
+ * each column's order and times.
+ * Contains attributes:
+ * MAGIC(int) - The first four bytes of every snapshot, "CYCP"
+ * VERSION(int) - The version of the format written
+ * EXTENSION(String) - The file extension that selects this format when saving or loading a portal
+ *
+ * @author Matt Trenchard
+ * @version 1.4
+ */
+public class SnapshotFormat{
+    public static final int MAGIC=0x43594350;
+    public static final int VERSION=1;
+    public static final String EXTENSION=".cyc";
+
+    /**
+     * Writes a session as a snapshot
+     * @param session   The session to be written
+     * @param out   The stream the snapshot is written to. It is flushed but not closed.
+     * @throws IOException If the snapshot can't be written
+     */
+    public static void write(Session session, DataOutputStream out) throws IOException{
+        ArrayList<String> strings=new ArrayList<String>();
+        HashMap<String,Integer> stringIds=new HashMap<String,Integer>();
+        ArrayList<Team> teams=session.getAllTeams();
+        ArrayList<Race> races=session.getAllRaces();
+        for(int i=0;i<teams.size();i++){//Collects every string so each is only written once
+            addString(teams.get(i).getName(),strings,stringIds);
+            addString(teams.get(i).getDesc(),strings,stringIds);
+            for(int j=0;j<teams.get(i).getRiders().size();j++){
+                addString(teams.get(i).getRiders().get(j).getName(),strings,stringIds);
+            }
+        }
+        for(int i=0;i<races.size();i++){//Race and stage names for the directory
+            addString(races.get(i).getName(),strings,stringIds);
+            for(int j=0;j<races.get(i).getAllStages().size();j++){
+                addString(races.get(i).getAllStages().get(j).getName(),strings,stringIds);
+            }
+        }
+
+        out.writeInt(MAGIC);
+        writeVarInt(out,VERSION);
+        writeVarInt(out,session.getNextTeamId());
+        writeVarInt(out,session.getNextRiderId());
+        writeVarInt(out,session.getNextRaceId());
+        writeVarInt(out,session.getNextStageId());
+        writeVarInt(out,session.getNextSegmentId());
+        writeVarLong(out,session.getJournalSequence());
+        writeStrings(out,strings);
+
+        writeVarInt(out,teams.size());
+        for(int i=0;i<teams.size();i++){
+            Team team=teams.get(i);
+            writeVarInt(out,team.getId());
+            writeVarInt(out,ref(team.getName(),stringIds));
+            writeVarInt(out,ref(team.getDesc(),stringIds));
+            writeVarInt(out,team.getRiders().size());
+            for(int j=0;j<team.getRiders().size();j++){
+                Rider rider=team.getRiders().get(j);
+                writeVarInt(out,rider.getId());
+                writeVarInt(out,ref(rider.getName(),stringIds));
+                writeVarLong(out,zigZag(rider.getYearOfBirth()));
+            }
+        }
+
+        byte[][] bodies=new byte[races.size()][];
+        for(int i=0;i<races.size();i++){//Bodies are written first so the directory can give their lengths
+            ByteArrayOutputStream buffer=new ByteArrayOutputStream();
+            DataOutputStream body=new DataOutputStream(buffer);
+            writeRace(body,races.get(i));
+            body.flush();
+            bodies[i]=buffer.toByteArray();
+        }
+        writeVarInt(out,races.size());
+        for(int i=0;i<races.size();i++){
+            Race race=races.get(i);
+            writeVarInt(out,race.getId());
+            writeVarInt(out,ref(race.getName(),stringIds));
+            writeVarInt(out,race.getAllStages().size());
+            int segmentCount=0;
+            for(int j=0;j<race.getAllStages().size();j++){
+                writeVarInt(out,race.getAllStages().get(j).getId());
+                writeVarInt(out,ref(race.getAllStages().get(j).getName(),stringIds));
+                segmentCount+=race.getAllStages().get(j).getSegments().size();
+            }
+            writeVarInt(out,segmentCount);
+            for(int j=0;j<race.getAllStages().size();j++){
+                ArrayList<Segment> segments=race.getAllStages().get(j).getSegments();
+                for(int k=0;k<segments.size();k++){
+                    writeVarInt(out,segments.get(k).getId());
+                }
+            }
+            int[] riderIds=ridersOfRace(race);
+            writeVarInt(out,riderIds.length);
+            for(int j=0;j<riderIds.length;j++){
+                writeVarInt(out,riderIds[j]-(j==0 ? 0 : riderIds[j-1]));
+            }
+            writeVarInt(out,bodies[i].length);
+        }
+        for(int i=0;i<races.size();i++){
+            out.write(bodies[i]);
+        }
+        out.flush();
+    }
+
+    /**
+     * Gets the riders with a result in any stage of a race, for the directory
+     * @param race   The race
+     * @return The IDs of the riders in ascending order
+     */
+    private static int[] ridersOfRace(Race race){
+        HashSet<Integer> riders=new HashSet<Integer>();
+        for(int i=0;i<race.getAllStages().size();i++){
+            int[] stageRiders=race.getAllStages().get(i).getRiderIds();
+            for(int j=0;j<stageRiders.length;j++){
+                riders.add(stageRiders[j]);
+            }
+        }
+        int[] riderIds=new int[riders.size()];
+        int i=0;
+        for(int riderId : riders){
+            riderIds[i++]=riderId;
+        }
+        Arrays.sort(riderIds);
+        return riderIds;
+    }
+
+    /**
+     * Writes a race body: its own string table, the race and its stages
+     * @param out   The stream being written to
+     * @param race   The race to be written
+     * @throws IOException If the race can't be written
+     */
+    private static void writeRace(DataOutputStream out, Race race) throws IOException{
+        ArrayList<String> strings=new ArrayList<String>();
+        HashMap<String,Integer> stringIds=new HashMap<String,Integer>();
+        addString(race.getName(),strings,stringIds);
+        addString(race.getDesc(),strings,stringIds);
+        for(int i=0;i<race.getAllStages().size();i++){
+            Stage stage=race.getAllStages().get(i);
+            addString(stage.getName(),strings,stringIds);
+            addString(stage.getDesc(),strings,stringIds);
+            addString(stage.getState(),strings,stringIds);
+        }
+        writeStrings(out,strings);
+        writeVarInt(out,race.getId());
+        writeVarInt(out,ref(race.getName(),stringIds));
+        writeVarInt(out,ref(race.getDesc(),stringIds));
+        writeVarInt(out,race.getAllStages().size());
+        for(int i=0;i<race.getAllStages().size();i++){
+            writeStage(out,race.getAllStages().get(i),stringIds);
+        }
+    }
+
+    /**
+     * Writes a string table
+     * @param out   The stream being written to
+     * @param strings   The strings in the table
+     * @throws IOException If the table can't be written
+     */
+    private static void writeStrings(DataOutputStream out, ArrayList<String> strings) throws IOException{
+        writeVarInt(out,strings.size());
+        for(int i=0;i<strings.size();i++){
+            byte[] bytes=strings.get(i).getBytes(StandardCharsets.UTF_8);
+            writeVarInt(out,bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Writes a stage, its segments and its results
+     * @param out   The stream being written to
+     * @param stage   The stage to be written
+     * @param stringIds   The position of every string in the string table
+     * @throws IOException If the stage can't be written
+     */
+    private static void writeStage(DataOutputStream out, Stage stage, HashMap<String,Integer> stringIds) throws IOException{
+        writeVarInt(out,stage.getId());
+        writeVarInt(out,ref(stage.getName(),stringIds));
+        writeVarInt(out,ref(stage.getDesc(),stringIds));
+        writeVarInt(out,ref(stage.getState(),stringIds));
+        writeVarInt(out,stage.getType().ordinal());
+        out.writeDouble(stage.getLength());
+        out.writeBoolean(stage.getStartTime()!=null);//The portal accepts a stage with no start time
+        if(stage.getStartTime()!=null){
+            writeVarLong(out,zigZag(stage.getStartTime().toEpochSecond(ZoneOffset.UTC)));
+            writeVarInt(out,stage.getStartTime().getNano());
+        }
+        writeVarInt(out,stage.getSegments().size());
+        for(int i=0;i<stage.getSegments().size();i++){
+            Segment segment=stage.getSegments().get(i);
+            writeVarInt(out,segment.getId());
+            writeVarInt(out,segment.getType().ordinal());
+            out.writeDouble(segment.getLocation());
+            out.writeDouble(segment.getAvgGrad());
+        }
+
+        StageResults results=stage.getResults();
+        int[] byStart=results.rowsInOrder(0);
+        int[] indexOfRow=new int[results.getRowCapacity()];
+        writeVarInt(out,byStart.length);
+        for(int i=0;i<byStart.length;i++){
+            indexOfRow[byStart[i]]=i;
+            writeVarInt(out,results.getRiderId(byStart[i]));
+        }
+        for(int column=0;column<results.getColumns();column++){
+            int[] sorted= column==0 ? byStart : results.rowsInOrder(column);
+            if(column>0){//The start column is in the same order as the rider IDs so its order isn't written
+                for(int i=0;i<sorted.length;i++){
+                    writeVarInt(out,indexOfRow[sorted[i]]);
+                }
+            }
+            long previous=0;
+            for(int i=0;i<sorted.length;i++){//Times are in order so every gap is zero or more
+                long nanos=results.getNanos(column,sorted[i]);
+                writeVarLong(out,nanos-previous);
+                previous=nanos;
+            }
+        }
+    }
+
+    /**
+     * Reads a session from a snapshot
+     * @param in   The buffer holding the snapshot, such as the whole file read into memory
+     * @return The session in the snapshot, with its indexes built
+     * @throws IOException If the buffer isn't a snapshot of a version that can be read, or is cut short
+     */
+    public static Session read(ByteBuffer in) throws IOException{
+        return read(in,false);
+    }
+
+    /**
+     * Reads the teams and race directory of a snapshot, leaving the races to be read when they are first needed.
+     * @param in   The buffer holding the snapshot, usually a mapped file. It must not change while the session is in use.
+     * @return The session in the snapshot, with its races held in an archive
+     * @throws IOException If the buffer isn't a snapshot of a version that can be read, or is cut short
+     */
+    public static Session readArchive(ByteBuffer in) throws IOException{
+        return read(in,true);
+    }
+
+    /**
+     * Reads a session from a snapshot, turning a malformed snapshot into an IOException
+     * @param in   The buffer holding the snapshot
+     * @param lazy   True if the races should be left in the buffer until needed
+     * @return The session in the snapshot
+     * @throws IOException If the buffer isn't a snapshot of a version that can be read, or is cut short
+     */
+    private static Session read(ByteBuffer in, boolean lazy) throws IOException{
+        try{
+            return readSession(in,lazy);
+        }
+        catch(BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e){//Cut short or holding a reference past the end of a table
+            throw new IOException("Malformed snapshot",e);
+        }
+    }
+
+    /**
+     * Reads the contents of a snapshot
+     * @param in   The buffer holding the snapshot
+     * @param lazy   True if the races should be left in the buffer until needed
+     * @return The session in the snapshot
+     * @throws IOException If the buffer isn't a snapshot of a version that can be read
+     */
+    private static Session readSession(ByteBuffer in, boolean lazy) throws IOException{
+        if(in.getInt()!=MAGIC){
+            throw new IOException("Not a cycling portal snapshot");
+        }
+        int version=readVarInt(in);
+        if(version!=VERSION){
+            throw new IOException("Unsupported snapshot version "+version);
+        }
+        Session session=new Session();
+        session.setNextTeamId(readVarInt(in));
+        session.setNextRiderId(readVarInt(in));
+        session.setNextRaceId(readVarInt(in));
+        session.setNextStageId(readVarInt(in));
+        session.setNextSegmentId(readVarInt(in));
+        session.setJournalSequence(readVarLong(in));
+        String[] strings=readStrings(in);
+
+        int teamCount=readVarInt(in);
+        for(int i=0;i<teamCount;i++){
+            int id=readVarInt(in);
+            String name=string(strings,readVarInt(in));
+            Team team=new Team(name,string(strings,readVarInt(in)),id);
+            session.appendTeam(team);
+            int riderCount=readVarInt(in);
+            for(int j=0;j<riderCount;j++){
+                int riderId=readVarInt(in);
+                String riderName=string(strings,readVarInt(in));
+                session.appendRider(team,new Rider(riderName,(int) unZigZag(readVarLong(in)),riderId));
+            }
+        }
+
+        int raceCount=readVarInt(in);
+        SnapshotArchive archive=readDirectory(in,raceCount,strings);
+        if(lazy){
+            session.setArchive(archive);
+        }
+        else{
+            for(int i=0;i<raceCount;i++){
+                session.appendRace(archive.load(i));
+            }
+        }
+        return session;
+    }
+
+    /**
+     * Reads the race directory. The race bodies follow it in the same order.
+     * @param in   The buffer being read from, positioned at the directory
+     * @param raceCount   The number of races in the directory
+     * @param strings   The string table holding the race and stage names
+     * @return An archive of the races in the buffer
+     * @throws IOException If the directory is malformed
+     */
+    private static SnapshotArchive readDirectory(ByteBuffer in, int raceCount, String[] strings) throws IOException{
+        int[] raceIds=new int[raceCount];
+        String[] raceNames=new String[raceCount];
+        int[][] stageIds=new int[raceCount][];
+        String[][] stageNames=new String[raceCount][];
+        int[][] segmentIds=new int[raceCount][];
+        int[][] riderIds=new int[raceCount][];
+        int[] lengths=new int[raceCount];
+        for(int i=0;i<raceCount;i++){
+            raceIds[i]=readVarInt(in);
+            raceNames[i]=string(strings,readVarInt(in));
+            stageIds[i]=new int[readVarInt(in)];
+            stageNames[i]=new String[stageIds[i].length];
+            for(int j=0;j<stageIds[i].length;j++){
+                stageIds[i][j]=readVarInt(in);
+                stageNames[i][j]=string(strings,readVarInt(in));
+            }
+            segmentIds[i]=new int[readVarInt(in)];
+            for(int j=0;j<segmentIds[i].length;j++){
+                segmentIds[i][j]=readVarInt(in);
+            }
+            riderIds[i]=new int[readVarInt(in)];
+            for(int j=0;j<riderIds[i].length;j++){
+                riderIds[i][j]=readVarInt(in)+(j==0 ? 0 : riderIds[i][j-1]);
+            }
+            lengths[i]=readVarInt(in);
+        }
+        int[] offsets=new int[raceCount];
+        int offset=in.position();
+        for(int i=0;i<raceCount;i++){
+            offsets[i]=offset;
+            offset+=lengths[i];
+        }
+        if(offset>in.limit()){
+            throw new IOException("Snapshot is shorter than its race directory");
+        }
+        return new SnapshotArchive(in,raceIds,raceNames,stageIds,stageNames,segmentIds,riderIds,offsets,lengths);
+    }
+
+    /**
+     * Reads a race body: its string table, the race and its stages
+     * @param in   The buffer holding just the race body
+     * @return The race, not yet added to a session
+     * @throws IOException If the race is malformed
+     */
+    public static Race readRaceBody(ByteBuffer in) throws IOException{
+        try{
+            return readRace(in,readStrings(in));
+        }
+        catch(BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e){
+            throw new IOException("Malformed race in snapshot",e);
+        }
+    }
+
+    /**
+     * Reads a race and its stages
+     * @param in   The buffer being read from
+     * @param strings   The string table the race refers to
+     * @return The race, not yet added to a session
+     * @throws IOException If the race is malformed
+     */
+    private static Race readRace(ByteBuffer in, String[] strings) throws IOException{
+        int id=readVarInt(in);
+        String name=string(strings,readVarInt(in));
+        Race race=new Race(id,name,string(strings,readVarInt(in)));
+        int stageCount=readVarInt(in);
+        for(int i=0;i<stageCount;i++){
+            race.insertStage(readStage(in,strings));
+        }
+        return race;
+    }
+
+    /**
+     * Reads a string table
+     * @param in   The buffer being read from
+     * @return The strings in the table
+     * @throws IOException If the table is malformed
+     */
+    private static String[] readStrings(ByteBuffer in) throws IOException{
+        String[] strings=new String[readVarInt(in)];
+        for(int i=0;i<strings.length;i++){
+            byte[] bytes=new byte[readVarInt(in)];
+            in.get(bytes);
+            strings[i]=new String(bytes,StandardCharsets.UTF_8);
+        }
+        return strings;
+    }
+
+    /**
+     * Reads a stage, its segments and its results
+     * @param in   The buffer being read from
+     * @param strings   The string table
+     * @return The stage, not yet added to a race
+     * @throws IOException If the stage is malformed
+     */
+    private static Stage readStage(ByteBuffer in, String[] strings) throws IOException{
+        int id=readVarInt(in);
+        String name=string(strings,readVarInt(in));
+        String desc=string(strings,readVarInt(in));
+        String state=string(strings,readVarInt(in));
+        StageType type=StageType.values()[readVarInt(in)];
+        double length=in.getDouble();
+        LocalDateTime startTime=null;
+        if(in.get()!=0){
+            long epochSecond=unZigZag(readVarLong(in));
+            startTime=LocalDateTime.ofEpochSecond(epochSecond,readVarInt(in),ZoneOffset.UTC);
+        }
+        Stage stage=new Stage(id,name,desc,length,startTime,type);
+        int segmentCount=readVarInt(in);
+        for(int i=0;i<segmentCount;i++){
+            int segmentId=readVarInt(in);
+            SegmentType segmentType=SegmentType.values()[readVarInt(in)];
+            double location=in.getDouble();
+            stage.insertSegment(new Segment(segmentId,location,in.getDouble(),segmentType));//Saved in location order so each is appended
+        }
+        if("wait".equals(state)){
+            stage.concludePrep();
+        }
+
+        int[] riderIds=new int[readVarInt(in)];
+        for(int i=0;i<riderIds.length;i++){
+            riderIds[i]=readVarInt(in);
+        }
+        int columns=segmentCount+2;
+        long[][] nanos=new long[columns][riderIds.length];
+        int[][] sorted=new int[columns][riderIds.length];
+        for(int column=0;column<columns;column++){
+            for(int i=0;i<riderIds.length;i++){
+                sorted[column][i]= column==0 ? i : readVarInt(in);
+            }
+            long previous=0;
+            for(int i=0;i<riderIds.length;i++){
+                previous+=readVarLong(in);
+                nanos[column][sorted[column][i]]=previous;
+            }
+        }
+        stage.loadResults(riderIds,nanos,sorted);
+        return stage;
+    }
+
+    /**
+     * Adds a string to the string table if it isn't already in it
+     * @param string   The string
+     * @param strings   The string table
+     * @param stringIds   The position of every string already in the table
+     */
+    private static void addString(String string, ArrayList<String> strings, HashMap<String,Integer> stringIds){
+        if(string!=null && !stringIds.containsKey(string)){
+            stringIds.put(string,strings.size());
+            strings.add(string);
+        }
+    }
+
+    /**
+     * Gets the reference written for a string
+     * @param string   The string, which may be null
+     * @param stringIds   The position of every string in the string table
+     * @return 0 for a null value, otherwise the position of the string in the table plus one
+     */
+    private static int ref(String string, HashMap<String,Integer> stringIds){
+        if(string==null){
+            return 0;
+        }
+        return stringIds.get(string)+1;
+    }
+
+    /**
+     * Gets the string a reference refers to
+     * @param strings   The string table
+     * @param ref   The reference read from the snapshot
+     * @return The string or a null value if the reference is 0
+     * @throws IOException If the reference is outside the string table
+     */
+    private static String string(String[] strings, int ref) throws IOException{
+        if(ref==0){
+            return null;
+        }
+        if(ref<0 || ref>strings.length){
+            throw new IOException("Malformed string reference");
+        }
+        return strings[ref-1];
+    }
+
+    /**
+     * Writes a non negative int in as few bytes as possible, 7 bits per byte
+     * @param out   The stream being written to
+     * @param value   The value
+     * @throws IOException If the value can't be written
+     */
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException{
+        writeVarLong(out,value & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Writes a long in as few bytes as possible, 7 bits per byte with the top bit set on every byte but the last
+     * @param out   The stream being written to
+     * @param value   The value, treated as unsigned
+     * @throws IOException If the value can't be written
+     */
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException{
+        while((value & ~0x7FL)!=0){
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value>>>=7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Reads an int written by {@link #writeVarInt(DataOutputStream, int)}
+     * @param in   The buffer being read from
+     * @return The value
+     * @throws IOException If the value is too long
+     */
+    private static int readVarInt(ByteBuffer in) throws IOException{
+        return (int) readVarLong(in);
+    }
+
+    /**
+     * Reads a long written by {@link #writeVarLong(DataOutputStream, long)}
+     * @param in   The buffer being read from
+     * @return The value
+     * @throws IOException If the value is too long
+     */
+    private static long readVarLong(ByteBuffer in) throws IOException{
+        long value=0;
+        for(int shift=0;shift<64;shift+=7){
+            int b=in.get() & 0xFF;
+            value|=(long) (b & 0x7F)<<shift;
+            if((b & 0x80)==0){
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length number");
+    }
+
+    /**
+     * Maps a signed value to an unsigned one so small negative numbers stay short
+     * @param value   The signed value
+     * @return The zig zag encoded value
+     */
+    private static long zigZag(long value){
+        return (value<<1)^(value>>63);
+    }
+
+    /**
+     * Reverses {@link #zigZag(long)}
+     * @param value   The zig zag encoded value
+     * @return The signed value
+     */
+    private static long unZigZag(long value){
+        return (value>>>1)^-(value & 1);
+    }
+}
@@ -0,0 +1,90 @@
+package cycling;
+
+import java.time.Duration;
+
+/**
+ * SnapshotReport --- What happened when a background snapshot was taken.
+ * Contains attributes:
+ * filename(String) - The file the snapshot was written to
+ * journalSequence(long) - The last journal record included in the snapshot
+ * size(long) - The size of the snapshot in bytes
+ * captureTime(Duration) - How long the portal was held while the session was copied
+ * writeTime(Duration) - How long the background thread took to encode the copy and write it to disk
+ *
+ * @author Matt Trenchard
+ * @version 1.0
+ */
+public class SnapshotReport{
+    private String filename;
+    /**
+     * Gets the file the snapshot was written to
+     * @return The snapshot's filename
+     */
+    public String getFilename(){
+        return filename;
+    }
+    private long journalSequence;
+    /**
+     * Gets the sequence number of the last journal record included in the snapshot
+     * @return The journal sequence number
+     */
+    public long getJournalSequence(){
+        return journalSequence;
+    }
+    private long size;
+    /**
+     * Gets the size of the snapshot
+     * @return The size in bytes
+     */
+    public long getSize(){
+        return size;
+    }
+    private Duration captureTime;
+    /**
+     * Gets how long the portal was held while the session was copied
+     * @return The capture time
+     */
+    public Duration getCaptureTime(){
+        return captureTime;
+    }
+    private Duration writeTime;
+    /**
+     * Gets how long it took to encode the snapshot and write it to disk
+     * @return The write time
+     */
+    public Duration getWriteTime(){
+        return writeTime;
+    }
+
+    /**
+     * Gets the total time taken to capture and write the snapshot
+     * @return The total duration
+     */
+    public Duration getDuration(){
+        return captureTime.plus(writeTime);
+    }
+
+    /**
+     * Describes the snapshot
+     * @return The filename, size and times of the snapshot
+     */
+    public String toString(){
+        return String.format("%s: %d bytes, captured in %d ms, written in %d ms",filename,size,captureTime.toMillis(),writeTime.toMillis());
+    }
+
+    /**
+     * Creates a report of a snapshot
+     * @param filename   The file the snapshot was written to
+     * @param journalSequence   The last journal record included in the snapshot
+     * @param size   The size of the snapshot in bytes
+     * @param captureTime   How long the session took to copy
+     * @param writeTime   How long the snapshot took to encode and write
+     */
+    public SnapshotReport(String filename, long journalSequence, long size, Duration captureTime, Duration writeTime){
+        this.filename=filename;
+        this.journalSequence=journalSequence;
+        this.size=size;
+        this.captureTime=captureTime;
+        this.writeTime=writeTime;
+    }
+}
@@ -0,0 +1,198 @@
+package cycling;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SnapshotWriter --- Takes snapshots of a session and writes them to disk on a background thread.
+ * A snapshot is captured with {@link Session#snapshot()}, a copy on write copy of the session that costs
+ * O(teams + races + stages) rather than O(results) and gives a consistent picture of the session at that moment.
+ * The portal can be changed again as soon as capturing is done while the copy is encoded and written out on
+ * the writer's own thread.
+ * Snapshots are named prefix-number.cyc with the number going up each time. Each is written to a temporary
+ * file and moved into place once complete, so a crash never leaves half a snapshot under a snapshot's name.
+ * Only the newest snapshots are kept.
+ * Contains attributes:
+ * directory(Path) - The directory snapshots are written to
+ * prefix(String) - The start of every snapshot's filename
+ * keep(int) - How many snapshots are kept
+ * nextNumber(long) - The number of the next snapshot
+ * snapshots(ArrayList<Path>) - The snapshots on disk, oldest first
+ * lastReport(SnapshotReport) - The report of the last snapshot written
+ * executor(ExecutorService) - The thread snapshots are written on
+ *
+ * @author Matt Trenchard
+ * @version 1.1
+ */
+public class SnapshotWriter{
+    private Path directory;
+    private String prefix;
+    private int keep;
+    private long nextNumber;
+    private ArrayList<Path> snapshots;
+    private volatile SnapshotReport lastReport;
+    /**
+     * Gets the report of the last snapshot written
+     * @return The last report or a null value if no snapshot has been written yet
+     */
+    public SnapshotReport getLastReport(){
+        return lastReport;
+    }
+    private ExecutorService executor;
+
+    /**
+     * Captures a session and encodes and writes it on the background thread
+     * @param session   The session. It must not be changed while this method runs, which only lasts as long as
+     *                  copying the session's teams, races, stages and segments. It can be changed again as soon as this returns.
+     * @return A future completed with the report once the snapshot is on disk
+     */
+    public CompletableFuture<SnapshotReport> submit(Session session){
+        long start=System.nanoTime();
+        Session snapshot=session.snapshot();
+        Duration captureTime=Duration.ofNanos(System.nanoTime()-start);
+        Path path;
+        synchronized(this){
+            path=directory.resolve(prefix+"-"+(nextNumber++)+SnapshotFormat.EXTENSION);
+        }
+        return CompletableFuture.supplyAsync(()->{
+            try{
+                return write(path,snapshot,captureTime);
+            }
+            catch(IOException e){
+                throw new UncheckedIOException(e);
+            }
+        },executor);
+    }
+
+    /**
+     * Encodes a captured session, writes it to disk and removes the oldest snapshots beyond the number kept
+     * @param path   The snapshot's file
+     * @param session   The captured copy of the session, which nothing else changes
+     * @param captureTime   How long capturing took
+     * @return The report of the snapshot
+     * @throws IOException If the snapshot can't be encoded or written
+     */
+    private SnapshotReport write(Path path, Session session, Duration captureTime) throws IOException{
+        long start=System.nanoTime();
+        ByteArrayOutputStream bytes=new ByteArrayOutputStream();
+        SnapshotFormat.write(session,new DataOutputStream(bytes));
+        byte[] snapshot=bytes.toByteArray();
+        Path temporary=path.resolveSibling(path.getFileName()+".tmp");
+        FileChannel channel=FileChannel.open(temporary,StandardOpenOption.CREATE,StandardOpenOption.WRITE,StandardOpenOption.TRUNCATE_EXISTING);
+        try{
+            ByteBuffer buffer=ByteBuffer.wrap(snapshot);
+            while(buffer.hasRemaining()){
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        finally{
+            channel.close();
+        }
+        Files.move(temporary,path,StandardCopyOption.ATOMIC_MOVE,StandardCopyOption.REPLACE_EXISTING);
+        synchronized(this){
+            snapshots.add(path);
+            while(snapshots.size()>keep){//Rotation, the oldest snapshots go first
+                Files.deleteIfExists(snapshots.remove(0));
+            }
+        }
+        SnapshotReport report=new SnapshotReport(path.toString(),session.getJournalSequence(),snapshot.length,captureTime,Duration.ofNanos(System.nanoTime()-start));
+        lastReport=report;
+        return report;
+    }
+
+    /**
+     * Gets the newest complete snapshot on disk
+     * @return The newest snapshot's filename or a null value if there are none
+     */
+    public synchronized String getLatestSnapshot(){
+        return snapshots.isEmpty() ? null : snapshots.get(snapshots.size()-1).toString();
+    }
+
+    /**
+     * Waits for any snapshots still being written and stops the background thread
+     */
+    public void close(){
+        executor.shutdown();
+        try{
+            executor.awaitTermination(Long.MAX_VALUE,TimeUnit.NANOSECONDS);
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Gets the number in a snapshot's filename
+     * @param name   The filename
+     * @return The number or -1 if the name isn't one of this writer's snapshots
+     */
+    private long numberOf(String name){
+        if(!name.startsWith(prefix+"-") || !name.endsWith(SnapshotFormat.EXTENSION)){
+            return -1;
+        }
+        try{
+            return Long.parseLong(name.substring(prefix.length()+1,name.length()-SnapshotFormat.EXTENSION.length()));
+        }
+        catch(NumberFormatException e){
+            return -1;
+        }
+    }
+
+    /**
+     * Creates a writer, carrying on the numbering of any snapshots already in the directory
+     * @param directory   The directory snapshots are written to
+     * @param prefix   The start of every snapshot's filename
+     * @param keep   How many snapshots are kept. At least 1.
+     * @throws IOException If the directory can't be read
+     */
+    public SnapshotWriter(String directory, String prefix, int keep) throws IOException{
+        if(keep<1){
+            throw new IllegalArgumentException("At least one snapshot must be kept");
+        }
+        this.directory=Paths.get(directory);
+        this.prefix=prefix;
+        this.keep=keep;
+        ArrayList<Long> numbers=new ArrayList<Long>();
+        DirectoryStream<Path> existing=Files.newDirectoryStream(this.directory);
+        try{
+            for(Path path : existing){
+                long number=numberOf(path.getFileName().toString());
+                if(number>=0){
+                    numbers.add(number);
+                }
+            }
+        }
+        finally{
+            existing.close();
+        }
+        Collections.sort(numbers);
+        snapshots=new ArrayList<Path>();
+        for(int i=0;i<numbers.size();i++){
+            snapshots.add(this.directory.resolve(prefix+"-"+numbers.get(i)+SnapshotFormat.EXTENSION));
+        }
+        nextNumber= numbers.isEmpty() ? 1 : numbers.get(numbers.size()-1)+1;
+        executor=Executors.newSingleThreadExecutor(runnable->{
+            Thread thread=new Thread(runnable,"snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
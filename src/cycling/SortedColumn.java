@@ -0,0 +1,321 @@
+package cycling;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * SortedColumn --- The rows of one column of a stage's results in time order, a sort permutation split into blocks.
+ * Each block is an int array of at most BLOCK_SIZE rows and the position of the first row of every block is kept
+ * up to date, so the row at a position is found with a binary search over the blocks. Adding or removing a row
+ * shifts the rest of its block and moves the later blocks on by one, O(log n + BLOCK_SIZE + n / BLOCK_SIZE).
+ * A full block is split in half, except that a row added after every other row starts a new block, so results
+ * registered in time order leave every block full.
+ * Only row numbers are stored. The times are passed in by the StageResults that owns the column.
+ * Contains attributes:
+ * blocks(int[][]) - The rows of each block in time order
+ * sizes(int[]) - How many rows each block holds
+ * starts(int[]) - The position of the first row of each block
+ * blockCount(int) - How many blocks are in use
+ * length(int) - How many rows the column holds
+ *
+ * @author Matt Trenchard
+ * @version 1.0
+ */
+public class SortedColumn implements Serializable{
+    public static final int BLOCK_SIZE=256;
+    private static final int FIRST_BLOCK=8;
+
+    private int[][] blocks;
+    private int[] sizes;
+    private int[] starts;
+    private int blockCount;
+    private int length;
+    /**
+     * Gets the number of rows in the column
+     * @return The number of rows
+     */
+    public int size(){
+        return length;
+    }
+
+    /**
+     * Gets the row at a position
+     * @param position   The position. 0 is the earliest time.
+     * @return The row
+     */
+    public int get(int position){
+        int block=blockOf(position);
+        return blocks[block][position-starts[block]];
+    }
+
+    /**
+     * Gets the last row, the one with the latest time
+     * @return The last row. The column must not be empty.
+     */
+    public int last(){
+        return blocks[blockCount-1][sizes[blockCount-1]-1];
+    }
+
+    /**
+     * Gets the rows at a run of positions in O(log n + k)
+     * @param from   The first position
+     * @param count   The most rows to get
+     * @return The rows in time order. Shorter than the count if the column runs out.
+     */
+    public int[] range(int from, int count){
+        int[] ranged=new int[Math.max(0,Math.min(length-from,count))];
+        if(ranged.length==0){
+            return ranged;
+        }
+        int block=blockOf(from);
+        int offset=from-starts[block];
+        int copied=0;
+        while(copied<ranged.length){//Copies the rest of each block until the run is full
+            int n=Math.min(sizes[block]-offset,ranged.length-copied);
+            System.arraycopy(blocks[block],offset,ranged,copied,n);
+            copied+=n;
+            block++;
+            offset=0;
+        }
+        return ranged;
+    }
+
+    /**
+     * Gets every row in time order
+     * @return The rows
+     */
+    public int[] toArray(){
+        return range(0,length);
+    }
+
+    /**
+     * Finds the first position whose time isn't before a time
+     * @param times   The times of the column, indexed by row
+     * @param time   The time
+     * @return The position, or the number of rows if every time is before it
+     */
+    public int lowerBound(long[] times, long time){
+        int low=0;
+        int high=blockCount;
+        while(low<high){//The first block whose last time isn't before the time
+            int mid=(low+high)>>>1;
+            if(times[blocks[mid][sizes[mid]-1]]<time){
+                low=mid+1;
+            }
+            else{
+                high=mid;
+            }
+        }
+        if(low==blockCount){
+            return length;
+        }
+        int[] block=blocks[low];
+        int first=0;
+        int end=sizes[low];
+        while(first<end){
+            int mid=(first+end)>>>1;
+            if(times[block[mid]]<time){
+                first=mid+1;
+            }
+            else{
+                end=mid;
+            }
+        }
+        return starts[low]+first;
+    }
+
+    /**
+     * Finds the position of a row. Rows with the same time as it are walked past one at a time.
+     * @param times   The times of the column, indexed by row
+     * @param row   The row, which must be in the column
+     * @return The position of the row
+     */
+    public int positionOf(long[] times, int row){
+        int position=lowerBound(times,times[row]);
+        int block=blockOf(position);
+        int offset=position-starts[block];
+        while(blocks[block][offset]!=row){
+            offset++;
+            if(offset==sizes[block]){
+                block++;
+                offset=0;
+            }
+        }
+        return starts[block]+offset;
+    }
+
+    /**
+     * Adds a row in time order. A time equal to or after the slowest time so far goes after every equal time,
+     * otherwise it goes before them.
+     * @param times   The times of the column, indexed by row
+     * @param row   The row to be added
+     */
+    public void add(long[] times, int row){
+        if(length==0 || times[last()]<=times[row]){
+            insert(length,row);
+        }
+        else{
+            insert(lowerBound(times,times[row]),row);
+        }
+    }
+
+    /**
+     * Adds a row at a position
+     * @param position   The position the row will have
+     * @param row   The row
+     */
+    public void insert(int position, int row){
+        if(blockCount==0){
+            addBlock(0,new int[FIRST_BLOCK],0);
+        }
+        int block=position==length ? blockCount-1 : blockOf(position);
+        int offset=position-starts[block];
+        if(sizes[block]==blocks[block].length){
+            if(blocks[block].length<BLOCK_SIZE){
+                blocks[block]=Arrays.copyOf(blocks[block],Math.min(BLOCK_SIZE,Math.max(FIRST_BLOCK,blocks[block].length+(blocks[block].length>>1))));
+            }
+            else if(block==blockCount-1 && offset==sizes[block]){//A row after every other row starts a new block
+                addBlock(blockCount,new int[FIRST_BLOCK],length);
+                block++;
+                offset=0;
+            }
+            else{
+                int half=sizes[block]/2;
+                int[] upper=new int[BLOCK_SIZE];
+                System.arraycopy(blocks[block],half,upper,0,sizes[block]-half);
+                addBlock(block+1,upper,starts[block]+half);
+                sizes[block+1]=sizes[block]-half;
+                sizes[block]=half;
+                if(offset>half){
+                    block++;
+                    offset-=half;
+                }
+            }
+        }
+        int[] rows=blocks[block];
+        System.arraycopy(rows,offset,rows,offset+1,sizes[block]-offset);
+        rows[offset]=row;
+        sizes[block]++;
+        for(int b=block+1;b<blockCount;b++){
+            starts[b]++;
+        }
+        length++;
+    }
+
+    /**
+     * Removes the row at a position. A block left empty is dropped.
+     * @param position   The position
+     */
+    public void remove(int position){
+        int block=blockOf(position);
+        int offset=position-starts[block];
+        int[] rows=blocks[block];
+        System.arraycopy(rows,offset+1,rows,offset,sizes[block]-offset-1);
+        sizes[block]--;
+        if(sizes[block]==0){
+            removeBlock(block);
+        }
+        else{
+            block++;
+        }
+        for(int b=block;b<blockCount;b++){
+            starts[b]--;
+        }
+        length--;
+    }
+
+    /**
+     * Replaces the column with rows already in time order, packed into full blocks
+     * @param sorted   The rows in time order
+     */
+    public void fill(int[] sorted){
+        blockCount=(sorted.length+BLOCK_SIZE-1)/BLOCK_SIZE;
+        blocks=new int[Math.max(1,blockCount)][];
+        sizes=new int[blocks.length];
+        starts=new int[blocks.length];
+        for(int b=0;b<blockCount;b++){
+            int from=b*BLOCK_SIZE;
+            blocks[b]=Arrays.copyOfRange(sorted,from,Math.min(sorted.length,from+BLOCK_SIZE));
+            sizes[b]=blocks[b].length;
+            starts[b]=from;
+        }
+        length=sorted.length;
+    }
+
+    /**
+     * Finds the block holding a position
+     * @param position   The position, which must be less than the number of rows
+     * @return The last block starting at or before the position
+     */
+    private int blockOf(int position){
+        int low=0;
+        int high=blockCount-1;
+        while(low<high){
+            int mid=(low+high+1)>>>1;
+            if(starts[mid]<=position){
+                low=mid;
+            }
+            else{
+                high=mid-1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Puts a new empty block into the list
+     * @param index   Where the block goes in the list
+     * @param rows   The block's array
+     * @param start   The position of the block's first row
+     */
+    private void addBlock(int index, int[] rows, int start){
+        if(blockCount==blocks.length){
+            blocks=Arrays.copyOf(blocks,blockCount*2);
+            sizes=Arrays.copyOf(sizes,blockCount*2);
+            starts=Arrays.copyOf(starts,blockCount*2);
+        }
+        System.arraycopy(blocks,index,blocks,index+1,blockCount-index);
+        System.arraycopy(sizes,index,sizes,index+1,blockCount-index);
+        System.arraycopy(starts,index,starts,index+1,blockCount-index);
+        blocks[index]=rows;
+        sizes[index]=0;
+        starts[index]=start;
+        blockCount++;
+    }
+
+    /**
+     * Takes a block out of the list
+     * @param index   The block
+     */
+    private void removeBlock(int index){
+        System.arraycopy(blocks,index+1,blocks,index,blockCount-index-1);
+        System.arraycopy(sizes,index+1,sizes,index,blockCount-index-1);
+        System.arraycopy(starts,index+1,starts,index,blockCount-index-1);
+        blockCount--;
+        blocks[blockCount]=null;
+    }
+
+    /**
+     * Creates an empty column
+     */
+    public SortedColumn(){
+        blocks=new int[1][];
+        sizes=new int[1];
+        starts=new int[1];
+    }
+
+    /**
+     * Creates a copy of a column that can be changed without changing the original
+     * @param other   The column to copy
+     */
+    public SortedColumn(SortedColumn other){
+        blocks=new int[Math.max(1,other.blockCount)][];
+        for(int b=0;b<other.blockCount;b++){
+            blocks[b]=other.blocks[b].clone();
+        }
+        sizes=Arrays.copyOf(other.sizes,blocks.length);
+        starts=Arrays.copyOf(other.starts,blocks.length);
+        blockCount=other.blockCount;
+        length=other.length;
+    }
+}
@@ -1,9 +1,15 @@
 package cycling;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Set;
 import java.io.Serializable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.util.concurrent.atomic.AtomicLong;
 import cycling.StageType;
 
 /**
@@ -18,13 +24,33 @@ import cycling.StageType;
  * length(double) - The length of the stage
  * startTime(LocalDateTime) - The date and time at which the stage starts
  * state(String) - Represents if the stage is in the prep phase or waiting for results
- * finishResults(ArrayList<RiderResult>) - An ArrayList of the times at which riders finished the stage
- * startTimes(ArrayList<RiderResult>) - An ArrayList of the times at which riders started the stage
+ * results(StageResults) - Every start, checkpoint and finish time registered in the stage
+ * resultsShared(boolean) - True when a snapshot of the stage holds the same results, so they are copied before they next change
+ * finishResults(RankedResultList) - A view of the times at which riders finished the stage, sorted by time
+ * startTimes(RankedResultList) - A view of the times at which riders started the stage, sorted by time
+ * version(long) - Moves on every time the stage's results change
+ * classification(StageClassification) - The rankings, times and points worked out for the current version
+ * cacheHits, cacheMisses(AtomicLong) - How many classification requests were answered from the cache or had to be worked out
  * 
  * @author Matt Trenchard
- * @version 1.0
+ * @version 1.2
  */
 public class Stage implements Serializable{
+    private static final EnumMap<StageType,int[]> FINISH_POINTS=new EnumMap<StageType,int[]>(StageType.class);
+    private static final EnumMap<SegmentType,int[]> SEGMENT_POINTS=new EnumMap<SegmentType,int[]>(SegmentType.class);
+    static{//Points availible for each finishing position by stage type and for each position at a segment by segment type
+        FINISH_POINTS.put(StageType.FLAT,new int[] {50,30,20,18,16,14,12,10,8,7,6,5,4,3,2});
+        FINISH_POINTS.put(StageType.MEDIUM_MOUNTAIN,new int[] {30,25,22,19,17,15,13,11,9,7,6,5,4,3,2});
+        FINISH_POINTS.put(StageType.HIGH_MOUNTAIN,new int[] {20,17,15,13,11,10,9,8,7,6,5,4,3,2,1});
+        FINISH_POINTS.put(StageType.TT,new int[] {20,17,15,13,11,10,9,8,7,6,5,4,3,2,1});
+        SEGMENT_POINTS.put(SegmentType.SPRINT,new int[] {20,17,15,13,11,10,9,8,7,6,5,4,3,2,1});
+        SEGMENT_POINTS.put(SegmentType.C4,new int[] {1});
+        SEGMENT_POINTS.put(SegmentType.C3,new int[] {2,1});
+        SEGMENT_POINTS.put(SegmentType.C2,new int[] {5,3,2,1});
+        SEGMENT_POINTS.put(SegmentType.C1,new int[] {10,8,6,4,2,1});
+        SEGMENT_POINTS.put(SegmentType.HC,new int[] {20,15,12,10,8,6,4,2});
+    }
+
     private ArrayList<Segment> segments;
     /**
      * Gets all the segments from the stage
@@ -89,49 +115,430 @@ public class Stage implements Serializable{
     public String getState(){
         return state;
     }
-    private ArrayList<RiderResult> finishResults;
+    private StageResults results;
+    /**
+     * Gets the store of every time registered in the stage
+     * @return The stage's results
+     */
+    public StageResults getResults(){
+        return results;
+    }
+    private transient boolean resultsShared;
+    private long version;
+    /**
+     * Gets the version of the stage's results. This changes every time a result is added or removed.
+     * @return The version of the results
+     */
+    public long getVersion(){
+        return version;
+    }
+    private transient volatile StageClassification classification;
+    private transient AtomicLong cacheHits;
+    /**
+     * Gets the number of classification requests answered from the cache
+     * @return The number of cache hits
+     */
+    public long getCacheHits(){
+        return cacheHits.get();
+    }
+    private transient AtomicLong cacheMisses;
+    /**
+     * Gets the number of classification requests that had to be worked out from the results
+     * @return The number of cache misses
+     */
+    public long getCacheMisses(){
+        return cacheMisses.get();
+    }
+    private RankedResultList finishResults;
     /**
      * Gets all the finish times for the stage
-     * @return ArrayList of finish times
+     * @return List of finish times sorted by time
      */
-    public ArrayList<RiderResult> getFinishResults(){
+    public RankedResultList getFinishResults(){
         return finishResults;
     }
-    private ArrayList<RiderResult> startTimes;
+    private RankedResultList startTimes;
     /**
      * Gets all the rider start times for the stage
-     * @return ArrayList of start times
+     * @return List of start times sorted by time
      */
-    public ArrayList<RiderResult> getStartTimes(){
+    public RankedResultList getStartTimes(){
         return startTimes;
     }
 
     /**
-     * Used to add a start time of a rider to the stage. It is inserted based on the time.
-     * @param result   The rider result being added
+     * Adds a rider's start, checkpoint and finish times to the stage.
+     * @param riderId   The ID of the rider
+     * @param checkpoints   The times of the rider. The start time, a time for each segment and the finish time.
      */
-    public void insertStartTime(RiderResult result){
-        if(startTimes.size()==0){
-            startTimes.add(result);
+    public void insertResult(int riderId, LocalTime[] checkpoints){
+        ownResults();
+        results.insert(riderId,checkpoints);
+        changed();
+    }
+
+    /**
+     * Removes a rider's start, checkpoint and finish times from the stage.
+     * @param riderId   The ID of the rider
+     * @return True if the rider had a result in the stage
+     */
+    public boolean removeResult(int riderId){
+        if(results.rowOf(riderId)==-1){
+            return false;//Nothing changes so the cached classification is still right
         }
-        else if(startTimes.get(startTimes.size()-1).getTime().isBefore(result.getTime())){//If the time to be added is the slowest it is appended
-            startTimes.add(result);
+        ownResults();
+        changed();
+        return results.remove(riderId);
+    }
+
+    /**
+     * Gets the riders in order of their position in the stage. For time trials this is the order of the
+     * time taken from start to finish, otherwise it is the finishing order.
+     * @return The IDs of the riders in ranking order
+     */
+    public int[] getRanking(){
+        countRequest(classification().getRanking());
+        return ranking().clone();//Copied so callers can't change the cache
+    }
+
+    /**
+     * Gets the riders in ranking order without counting the request in the cache statistics, for race classifications
+     * @return The IDs of the riders in ranking order. Must not be modified.
+     */
+    int[] ranking(){
+        StageClassification current=classification();
+        if(current.getRanking()==null){
+            int[] rows=getRankedRows();
+            int[] ranking=new int[rows.length];
+            for(int i=0;i<rows.length;i++){
+                ranking[i]=results.getRiderId(rows[i]);
+            }
+            current.setRanking(ranking);
         }
-        else if(startTimes.get(startTimes.size()-1).getTime().equals(result.getTime())){//If the time is equal to the slowest it is appened
-            startTimes.add(result);
+        return current.getRanking();
+    }
+
+    /**
+     * Counts a classification request as a cache hit or miss
+     * @param cached   The cached answer to the request, or a null value if it has to be worked out
+     */
+    private void countRequest(Object cached){
+        if(cached==null){
+            cacheMisses.incrementAndGet();
         }
         else{
-            for(int i=0;i<startTimes.size();i++){//Iterates through all current times until a time that is equal or after the time to be added is found
-                if(result.getTime().isBefore(startTimes.get(i).getTime())){
-                    startTimes.add(i,result);
-                    break;
+            cacheHits.incrementAndGet();
+        }
+    }
+
+    /**
+     * Gets the riders at a run of positions in the stage, such as the top ten, without copying the whole ranking
+     * @param offset   The first position. 0 is the winner.
+     * @param limit   The most riders to get
+     * @return The IDs of the riders in ranking order. Shorter than the limit if the ranking runs out.
+     */
+    public int[] getRanking(int offset, int limit){
+        int[] rows=getRankedRows(offset,limit);
+        int[] ranking=new int[rows.length];
+        for(int i=0;i<rows.length;i++){
+            ranking[i]=results.getRiderId(rows[i]);
+        }
+        return ranking;
+    }
+
+    /**
+     * Gets the rows at a run of positions in the ranking. Other stages are ranked by finish order, so the rows are
+     * read straight off the finish column's sort order in O(log n + k). Time trials are ranked by time taken, which
+     * no column is sorted by, so the run is copied out of the cached ranking.
+     * @param offset   The first position. 0 is the winner.
+     * @param limit   The most rows to get
+     * @return The rows of the results in ranking order
+     */
+    private int[] getRankedRows(int offset, int limit){
+        if(type==StageType.TT){
+            int[] rows=getRankedRows();
+            return Arrays.copyOfRange(rows,Math.min(offset,rows.length),Math.min(rows.length,(int) Math.min((long) offset+limit,Integer.MAX_VALUE)));
+        }
+        return results.rowsInRange(segments.size()+1,offset,limit);
+    }
+
+    /**
+     * Gets a rider's position in the stage's ranking
+     * @param riderId   The ID of the rider
+     * @return The position of the rider, 0 being the winner, or -1 if they have no result in the stage
+     */
+    public int getRankOf(int riderId){
+        int row=results.rowOf(riderId);
+        if(row==-1){
+            return -1;
+        }
+        if(type==StageType.TT){
+            return getRankPositions()[row];
+        }
+        return results.rankOfRow(segments.size()+1,row);
+    }
+
+    /**
+     * Gets the rows of the stage's results in ranking order, working them out if the results have changed.
+     * @return The rows of the results in ranking order. Must not be modified.
+     */
+    public int[] getRankedRows(){
+        StageClassification current=classification();
+        if(current.getRankedRows()==null){
+            if(type==StageType.TT){
+                current.setRankedRows(rankTimeTrial());
+            }
+            else{
+                current.setRankedRows(results.rowsInOrder(segments.size()+1));//Finish results are already sorted
+            }
+        }
+        return current.getRankedRows();
+    }
+
+    /**
+     * Gets a rider's adjusted elapsed time. If a rider finishes less than a second behind the rider ahead of them
+     * they get the same finish time, unless the stage is a time trial.
+     * @param riderId   The ID of the rider
+     * @return The adjusted elapsed time or a null value if the rider has no result in the stage
+     */
+    public LocalTime getAdjustedElapsedTime(int riderId){
+        int row=results.rowOf(riderId);
+        if(row==-1){
+            return null;
+        }
+        return LocalTime.ofSecondOfDay(getAdjustedSeconds()[row]);
+    }
+
+    /**
+     * Gets the adjusted elapsed time of every rider in ranking order
+     * @return The adjusted elapsed times in the same order as {@link #getRanking()}
+     */
+    public LocalTime[] getRankedAdjustedElapsedTimes(){
+        StageClassification current=classification();
+        if(current.getAdjustedTimes()==null){
+            cacheMisses.incrementAndGet();
+            int[] rows=getRankedRows();
+            long[] seconds=getAdjustedSeconds();
+            LocalTime[] times=new LocalTime[rows.length];
+            for(int i=0;i<rows.length;i++){
+                times[i]=LocalTime.ofSecondOfDay(seconds[rows[i]]);
+            }
+            current.setAdjustedTimes(times);
+        }
+        else{
+            cacheHits.incrementAndGet();
+        }
+        return current.getAdjustedTimes().clone();
+    }
+
+    /**
+     * Gets the adjusted elapsed times at a run of positions in the ranking.
+     * The adjusted seconds of every row are worked out once for each version of the results, so only the
+     * run itself is read here.
+     * @param offset   The first position. 0 is the winner.
+     * @param limit   The most times to get
+     * @return The adjusted elapsed times in the same order as {@link #getRanking(int, int)}
+     */
+    public LocalTime[] getRankedAdjustedElapsedTimes(int offset, int limit){
+        int[] rows=getRankedRows(offset,limit);
+        LocalTime[] times=new LocalTime[rows.length];
+        if(rows.length==0){
+            return times;
+        }
+        long[] seconds=getAdjustedSeconds();
+        for(int i=0;i<rows.length;i++){
+            times[i]=LocalTime.ofSecondOfDay(seconds[rows[i]]);
+        }
+        return times;
+    }
+
+    /**
+     * Gets the adjusted elapsed seconds of every row of the results, working them out if the results have changed.
+     * Bunches are found in one pass over the finish order: a rider less than a second behind the rider ahead
+     * takes the finish time of the first rider of that bunch.
+     * @return The adjusted elapsed seconds of each row. Must not be modified.
+     */
+    public long[] getAdjustedSeconds(){
+        StageClassification current=classification();
+        if(current.getAdjustedSeconds()==null){
+            int finish=segments.size()+1;
+            int[] byFinish=results.rowsInOrder(finish);
+            long[] seconds=new long[results.getRowCapacity()];
+            long bunchTime=0;
+            for(int i=0;i<byFinish.length;i++){
+                int row=byFinish[i];
+                long finishTime=results.getNanos(finish,row);
+                if(type==StageType.TT || i==0 || finishTime-results.getNanos(finish,byFinish[i-1])>=1000000000L){//A gap of a second or more starts a new bunch
+                    bunchTime=finishTime;
                 }
-                else if(result.getTime().equals(startTimes.get(i).getTime())){
-                    startTimes.add(i,result);
-                    break;
+                seconds[row]=(bunchTime-results.getNanos(0,row))/1000000000L;
+            }
+            current.setAdjustedSeconds(seconds);
+        }
+        return current.getAdjustedSeconds();
+    }
+
+    /**
+     * Gets the points each rider earned in the stage from their finishing position and any intermediate sprints.
+     * @return The points of each rider in the same order as {@link #getRanking()}
+     */
+    public int[] getPoints(){
+        countRequest(classification().getPoints());
+        return points().clone();
+    }
+
+    /**
+     * Gets the points of each rider without counting the request in the cache statistics, for race classifications
+     * @return The points of each rider in the same order as {@link #ranking()}. Must not be modified.
+     */
+    int[] points(){
+        StageClassification current=classification();
+        if(current.getPoints()==null){
+            int[] rows=getRankedRows();
+            int[] position=getRankPositions();
+            int[] points=new int[rows.length];
+            int finish=segments.size()+1;
+            int[] finishPoints=FINISH_POINTS.get(type);
+            for(int i=0;i<finishPoints.length && i<rows.length;i++){//Points for the first finishers. Time trials use their time taken ranking.
+                int row= type==StageType.TT ? rows[i] : results.rowAt(finish,i);
+                points[position[row]]+=finishPoints[i];
+            }
+            if(type!=StageType.TT){//Time trials have no sprints
+                for(int i=0;i<segments.size();i++){
+                    if(segments.get(i).getType()==SegmentType.SPRINT){
+                        awardSegmentPoints(i+1,SEGMENT_POINTS.get(SegmentType.SPRINT),position,points);
+                    }
                 }
             }
+            current.setPoints(points);
+        }
+        return current.getPoints();
+    }
+
+    /**
+     * Gets the mountain points each rider earned in the stage from the categorised climbs.
+     * @return The mountain points of each rider in the same order as {@link #getRanking()}
+     */
+    public int[] getMountainPoints(){
+        countRequest(classification().getMountainPoints());
+        return mountainPoints().clone();
+    }
+
+    /**
+     * Gets the mountain points of each rider without counting the request in the cache statistics, for race classifications
+     * @return The mountain points of each rider in the same order as {@link #ranking()}. Must not be modified.
+     */
+    int[] mountainPoints(){
+        StageClassification current=classification();
+        if(current.getMountainPoints()==null){
+            int[] position=getRankPositions();
+            int[] points=new int[results.size()];
+            for(int i=0;i<segments.size();i++){
+                if(segments.get(i).getType()!=SegmentType.SPRINT){
+                    awardSegmentPoints(i+1,SEGMENT_POINTS.get(segments.get(i).getType()),position,points);
+                }
+            }
+            current.setMountainPoints(points);
+        }
+        return current.getMountainPoints();
+    }
+
+    /**
+     * Adds the points for a segment to the riders that reached its checkpoint first.
+     * @param column   The column of the segment's times in the results
+     * @param segmentPoints   The points availible for each position at the segment
+     * @param position   The ranking position of each row of the results
+     * @param points   The points of each rider in ranking order, which are added to
+     */
+    private void awardSegmentPoints(int column, int[] segmentPoints, int[] position, int[] points){
+        for(int j=0;j<segmentPoints.length && j<results.size();j++){
+            points[position[results.rowAt(column,j)]]+=segmentPoints[j];
+        }
+    }
+
+    /**
+     * Gets the ranking position of every row of the results, so a scoring rider can be found without searching the ranking.
+     * @return The position of each row in {@link #getRanking()}. Must not be modified.
+     */
+    private int[] getRankPositions(){
+        StageClassification current=classification();
+        if(current.getRankPositions()==null){
+            int[] rows=getRankedRows();
+            int[] position=new int[results.getRowCapacity()];
+            for(int i=0;i<rows.length;i++){
+                position[rows[i]]=i;
+            }
+            current.setRankPositions(position);
+        }
+        return current.getRankPositions();
+    }
+
+    /**
+     * Gets the classification for the current version of the results, replacing the cached one if it is out of date.
+     * Readers on different threads may each replace an out of date classification, but every replacement is for
+     * the same version so at worst some work is repeated.
+     * @return The classification of the current results
+     */
+    private StageClassification classification(){
+        StageClassification current=classification;//Read once as another reader may replace it
+        if(current==null || current.getVersion()!=version){
+            current=new StageClassification(version);
+            classification=current;
+        }
+        return current;
+    }
+
+    /**
+     * Restores the cache counters after the stage has been read from a file
+     * @param in   The stream the stage is read from
+     * @throws IOException If the stage could not be read
+     * @throws ClassNotFoundException If a class in the stream could not be found
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+        in.defaultReadObject();
+        cacheHits=new AtomicLong();
+        cacheMisses=new AtomicLong();
+    }
+
+    /**
+     * Moves the version of the results on so the cached classification is worked out again
+     */
+    private void changed(){
+        version++;
+    }
+
+    /**
+     * Ranks a time trial by the whole seconds each rider took from their start to their finish.
+     * Riders are considered in finishing order. A rider whose time is equal to or slower than every time so far
+     * goes after equal times, otherwise they go before them, which matches the original insertion sort.
+     * Each rider's time and tie break are packed into one long so a single primitive sort orders them.
+     * @return The rows of the results in ranking order
+     */
+    private int[] rankTimeTrial(){
+        int finish=segments.size()+1;
+        int[] byFinish=results.rowsInOrder(finish);
+        long[] keys=new long[byFinish.length];
+        long slowest=Long.MIN_VALUE;
+        for(int i=0;i<byFinish.length;i++){
+            int row=byFinish[i];
+            long seconds=(results.getNanos(finish,row)-results.getNanos(0,row))/1000000000L;//Whole seconds, as ChronoUnit.SECONDS
+            long tie;
+            if(seconds>=slowest){
+                tie=i+1;
+                slowest=seconds;
+            }
+            else{
+                tie=-(i+1);
+            }
+            keys[i]=(seconds<<32)+(tie+Integer.MAX_VALUE);//Low 32 bits hold the tie break offset to be positive
         }
+        Arrays.sort(keys);
+        int[] ranked=new int[keys.length];
+        for(int i=0;i<keys.length;i++){
+            long tie=(keys[i]&0xFFFFFFFFL)-Integer.MAX_VALUE;
+            ranked[i]=byFinish[(int) Math.abs(tie)-1];
+        }
+        return ranked;
     }
 
     /**
@@ -141,12 +548,7 @@ public class Stage implements Serializable{
      *         If no result is found a null value is returned
      */
     public RiderResult findRiderResult(int riderId){
-        for(int i=0;i<finishResults.size();i++){
-            if(finishResults.get(i).getRiderId()==riderId){
-                return finishResults.get(i);
-            }
-        }
-        return null;
+        return finishResults.find(riderId);
     }
 
     /**
@@ -156,56 +558,114 @@ public class Stage implements Serializable{
      *         If no start time is found a null value is returned
      */
     public RiderResult findRiderStart(int riderId){
-        for(int i=0;i<startTimes.size();i++){
-            if(startTimes.get(i).getRiderId()==riderId){
-                return startTimes.get(i);
-            }
-        }
-        return null;
+        return startTimes.find(riderId);
     }
 
     /**
-     * Inserts a rider's finishing result. Result is inserted based on time.
-     * @param result   The finishing result to be inserted
+     * Removes the results of many riders from the stage's start, checkpoint and finish times in one pass
+     * @param riderIds   The IDs of the riders. Riders without a result are ignored.
+     * @return The number of results removed
      */
-    public void insertFinish(RiderResult result){
-        if(finishResults.size()==0){
-            finishResults.add(result);
-        }
-        else if(finishResults.get(finishResults.size()-1).getTime().isBefore(result.getTime())){//If the time to be added is the slowest it is appended
-            finishResults.add(result);
+    public int removeResults(Set<Integer> riderIds){
+        ownResults();
+        int removed=results.removeAll(riderIds);
+        if(removed>0){
+            changed();
         }
-        else if(finishResults.get(finishResults.size()-1).getTime().equals(result.getTime())){//If the time is equal to the slowest it is appened
-            finishResults.add(result);
+        return removed;
+    }
+
+    /**
+     * Gets the riders with a result in the stage
+     * @return The IDs of the riders, in start time order
+     */
+    public int[] getRiderIds(){
+        int[] rows=results.rowsInOrder(0);
+        int[] riderIds=new int[rows.length];
+        for(int i=0;i<rows.length;i++){
+            riderIds[i]=results.getRiderId(rows[i]);
         }
-        else{
-            for(int i=0;i<finishResults.size();i++){//Iterates through all current times until a time that is equal or after the time to be added is found
-                if(result.getTime().isBefore(finishResults.get(i).getTime())){
-                    finishResults.add(i,result);
-                    break;
-                }
-                else if(result.getTime().equals(finishResults.get(i).getTime())){
-                    finishResults.add(i,result);
-                    break;
-                }
-            }
+        return riderIds;
+    }
+
+    /**
+     * Inserts the results of many riders at once. Each column of times is sorted once and
+     * then added to the stage's results in a single pass.
+     * @param riderIds   The IDs of the riders
+     * @param checkpoints   The times of each rider. Row i holds the start, checkpoint and finish times of rider i
+     */
+    public void insertResults(int[] riderIds, LocalTime[][] checkpoints){
+        ownResults();
+        results.insertAll(riderIds,checkpoints);
+        changed();
+    }
+
+    /**
+     * Fills the stage's empty results with results read from a snapshot, keeping the order of each column as it was saved
+     * @param riderIds   The IDs of the riders
+     * @param nanos   The times of each column as nanoseconds of the day, indexed by column and then rider
+     * @param sorted   The order of each column as positions in riderIds
+     */
+    public void loadResults(int[] riderIds, long[][] nanos, int[][] sorted){
+        ownResults();
+        results.load(riderIds,nanos,sorted);
+        changed();
+    }
+
+    /**
+     * Creates a new empty store of results with a column for every segment and
+     * points the finish, start and checkpoint views at it.
+     * Segments can only change while the stage is in preparation so there are never any results to keep.
+     */
+    private void resetResults(){
+        results=new StageResults(segments.size()+2);
+        resultsShared=false;
+        changed();
+        viewResults();
+    }
+
+    /**
+     * Points the finish, start and checkpoint views at the stage's current results
+     */
+    private void viewResults(){
+        startTimes=new RankedResultList(results,0);
+        finishResults=new RankedResultList(results,segments.size()+1);
+        for(int i=0;i<segments.size();i++){
+            segments.get(i).setCheckpointResults(new RankedResultList(results,i+1));
         }
     }
 
     /**
-     * Removes a rider's start time
-     * @param result   The start result to be removed
+     * Copies the results if a snapshot holds them, so the change about to be made isn't seen by the snapshot
      */
-    public void removeRiderStartTime(RiderResult result){
-        startTimes.remove(result);
+    private void ownResults(){
+        if(resultsShared){
+            results=new StageResults(results);
+            resultsShared=false;
+            viewResults();
+        }
     }
 
     /**
-     * Removes a rider's finish time
-     * @param result   The finish time to be removed
+     * Creates a copy of the stage that won't see any later changes. The copy shares the stage's results and
+     * cached classification rather than copying them; the results are only copied if this stage changes them.
+     * Segments are copied as they hold views of the results.
+     * @return The copy of the stage
      */
-    public void removeFinishResult(RiderResult result){
-        finishResults.remove(result);
+    public Stage snapshot(){
+        Stage copy=new Stage(id,name,desc,length,startTime,type);
+        for(int i=0;i<segments.size();i++){
+            Segment segment=segments.get(i);
+            copy.segments.add(new Segment(segment.getId(),segment.getLocation(),segment.getAvgGrad(),segment.getType()));
+        }
+        copy.state=state;
+        copy.results=results;
+        copy.resultsShared=true;
+        copy.version=version;
+        copy.classification=classification;//Worked out from the same results so it stays valid for the copy
+        copy.viewResults();
+        resultsShared=true;
+        return copy;
     }
 
     /**
@@ -229,6 +689,7 @@ public class Stage implements Serializable{
                 segments.add(segment);
             }
         }
+        resetResults();
     }
 
     /**
@@ -261,6 +722,7 @@ public class Stage implements Serializable{
      */
     public void removeSegment(Segment segment){
         segments.remove(segment);
+        resetResults();
     }
 
 
@@ -281,8 +743,9 @@ public class Stage implements Serializable{
         this.startTime=startTime;
         this.type=type;
         segments= new ArrayList<Segment>();
-        finishResults= new ArrayList<RiderResult>();
-        startTimes=new ArrayList<RiderResult>();
+        cacheHits=new AtomicLong();
+        cacheMisses=new AtomicLong();
+        resetResults();
         state="prep";
     }
 }
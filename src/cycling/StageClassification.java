@@ -0,0 +1,145 @@
+package cycling;
+
+import java.time.LocalTime;
+
+/**
+ * StageClassification --- The results worked out from a stage's times for one version of the stage.
+ * Each array is filled in the first time it is asked for. When the stage's results change the stage's
+ * version moves on and a new, empty classification replaces this one. The arrays are volatile so a classification
+ * filled in by one reader is seen whole by the others.
+ * Contains attributes:
+ * version(long) - The version of the stage the classification was worked out from
+ * rankedRows(int[]) - The rows of the stage's results in ranking order
+ * adjustedSeconds(long[]) - The adjusted elapsed time in seconds of each row of the results
+ * rankPositions(int[]) - The ranking position of each row of the results
+ * ranking(int[]) - The rider IDs in ranking order
+ * adjustedTimes(LocalTime[]) - The adjusted elapsed times in ranking order
+ * points(int[]) - The points of each rider in ranking order
+ * mountainPoints(int[]) - The mountain points of each rider in ranking order
+ *
+ * @author Matt Trenchard
+ * @version 1.2
+ */
+public class StageClassification{
+    private long version;
+    /**
+     * Gets the version of the stage the classification belongs to
+     * @return The stage version
+     */
+    public long getVersion(){
+        return version;
+    }
+    private volatile int[] rankedRows;
+    /**
+     * Gets the rows of the results in ranking order
+     * @return The ranked rows or a null value if not yet worked out
+     */
+    public int[] getRankedRows(){
+        return rankedRows;
+    }
+    /**
+     * Sets the rows of the results in ranking order
+     * @param rankedRows   The ranked rows
+     */
+    public void setRankedRows(int[] rankedRows){
+        this.rankedRows=rankedRows;
+    }
+    private volatile long[] adjustedSeconds;
+    /**
+     * Gets the adjusted elapsed seconds of each row
+     * @return The adjusted seconds or a null value if not yet worked out
+     */
+    public long[] getAdjustedSeconds(){
+        return adjustedSeconds;
+    }
+    /**
+     * Sets the adjusted elapsed seconds of each row
+     * @param adjustedSeconds   The adjusted seconds
+     */
+    public void setAdjustedSeconds(long[] adjustedSeconds){
+        this.adjustedSeconds=adjustedSeconds;
+    }
+    private volatile int[] rankPositions;
+    /**
+     * Gets the ranking position of each row of the results
+     * @return The position of each row, or a null value if not worked out yet. Must not be modified.
+     */
+    public int[] getRankPositions(){
+        return rankPositions;
+    }
+    /**
+     * Sets the ranking position of each row of the results
+     * @param rankPositions   The position of each row
+     */
+    public void setRankPositions(int[] rankPositions){
+        this.rankPositions=rankPositions;
+    }
+    private volatile int[] ranking;
+    /**
+     * Gets the rider IDs in ranking order
+     * @return The ranking or a null value if not yet worked out
+     */
+    public int[] getRanking(){
+        return ranking;
+    }
+    /**
+     * Sets the rider IDs in ranking order
+     * @param ranking   The ranking
+     */
+    public void setRanking(int[] ranking){
+        this.ranking=ranking;
+    }
+    private volatile LocalTime[] adjustedTimes;
+    /**
+     * Gets the adjusted elapsed times in ranking order
+     * @return The adjusted times or a null value if not yet worked out
+     */
+    public LocalTime[] getAdjustedTimes(){
+        return adjustedTimes;
+    }
+    /**
+     * Sets the adjusted elapsed times in ranking order
+     * @param adjustedTimes   The adjusted times
+     */
+    public void setAdjustedTimes(LocalTime[] adjustedTimes){
+        this.adjustedTimes=adjustedTimes;
+    }
+    private volatile int[] points;
+    /**
+     * Gets the points of each rider in ranking order
+     * @return The points or a null value if not yet worked out
+     */
+    public int[] getPoints(){
+        return points;
+    }
+    /**
+     * Sets the points of each rider in ranking order
+     * @param points   The points
+     */
+    public void setPoints(int[] points){
+        this.points=points;
+    }
+    private volatile int[] mountainPoints;
+    /**
+     * Gets the mountain points of each rider in ranking order
+     * @return The mountain points or a null value if not yet worked out
+     */
+    public int[] getMountainPoints(){
+        return mountainPoints;
+    }
+    /**
+     * Sets the mountain points of each rider in ranking order
+     * @param mountainPoints   The mountain points
+     */
+    public void setMountainPoints(int[] mountainPoints){
+        this.mountainPoints=mountainPoints;
+    }
+
+    /**
+     * Creates an empty classification for a version of a stage
+     * @param version   The version of the stage
+     */
+    public StageClassification(long version){
+        this.version=version;
+    }
+}
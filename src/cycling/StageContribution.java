@@ -0,0 +1,85 @@
+package cycling;
+
+/**
+ * StageContribution --- What one version of a stage adds to the classifications of its race.
+ * It is worked out from the stage's own classification and kept by the race so it can be taken
+ * away again when the stage's results change.
+ * Contains attributes:
+ * stageId(int) - The ID of the stage
+ * version(long) - The version of the stage's results it was worked out from
+ * riderIds(int[]) - The riders with a result in the stage, in ranking order
+ * seconds(long[]) - The adjusted elapsed time in seconds of each rider
+ * points(int[]) - The points of each rider
+ * mountainPoints(int[]) - The mountain points of each rider
+ *
+ * @author Matt Trenchard
+ * @version 1.0
+ */
+public class StageContribution{
+    private int stageId;
+    /**
+     * Gets the ID of the stage
+     * @return The stage ID
+     */
+    public int getStageId(){
+        return stageId;
+    }
+    private long version;
+    /**
+     * Gets the version of the stage's results the contribution was worked out from
+     * @return The stage version
+     */
+    public long getVersion(){
+        return version;
+    }
+    private int[] riderIds;
+    /**
+     * Gets the riders with a result in the stage
+     * @return The rider IDs in ranking order
+     */
+    public int[] getRiderIds(){
+        return riderIds;
+    }
+    private long[] seconds;
+    /**
+     * Gets the adjusted elapsed time of each rider
+     * @return The adjusted elapsed seconds in the same order as {@link #getRiderIds()}
+     */
+    public long[] getSeconds(){
+        return seconds;
+    }
+    private int[] points;
+    /**
+     * Gets the points of each rider
+     * @return The points in the same order as {@link #getRiderIds()}
+     */
+    public int[] getPoints(){
+        return points;
+    }
+    private int[] mountainPoints;
+    /**
+     * Gets the mountain points of each rider
+     * @return The mountain points in the same order as {@link #getRiderIds()}
+     */
+    public int[] getMountainPoints(){
+        return mountainPoints;
+    }
+
+    /**
+     * Works out the contribution of the current results of a stage
+     * @param stage   The stage
+     */
+    public StageContribution(Stage stage){
+        stageId=stage.getId();
+        version=stage.getVersion();//Read first so a change part way through is picked up next time
+        riderIds=stage.ranking();//Not counted as stage queries, and shared with the stage's cache as neither changes them
+        int[] rows=stage.getRankedRows();
+        long[] adjusted=stage.getAdjustedSeconds();
+        seconds=new long[rows.length];
+        for(int i=0;i<rows.length;i++){
+            seconds[i]=adjusted[rows[i]];
+        }
+        points=stage.points();
+        mountainPoints=stage.mountainPoints();
+    }
+}
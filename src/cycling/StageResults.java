@@ -0,0 +1,482 @@
+package cycling;
+
+import java.io.Serializable;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * StageResults --- A compact store of every result registered in a stage.
+ * Each rider that has a result owns a row. Column 0 holds start times, columns 1 to n hold the
+ * segment checkpoint times and the last column holds finish times. Times are stored as nanoseconds
+ * of the day in primitive arrays so no objects are created per result.
+ * Every column also keeps its sort permutation, the rows in time order, as a {@link SortedColumn} of int
+ * blocks, so a result costs a long and an int in each column. A row is added in O(log n) plus a shift
+ * within one block, and a row is fetched by position in O(log n).
+ * A time equal to or after the current slowest time in the column is placed after every equal time,
+ * otherwise it is placed before them.
+ * Riders are found through an open addressing table of rows keyed by rider ID, so no boxed keys are kept.
+ * Contains attributes:
+ * columns(int) - The number of times recorded for each rider
+ * riderIds(int[]) - The rider ID that owns each row
+ * rowTable(int[]) - The rows with a result plus one, placed by a hash of their rider ID. 0 is an empty slot.
+ * count(int) - The number of riders with a result
+ * times(long[][]) - The time of each row in each column as nanoseconds of the day
+ * sorted(SortedColumn[]) - The rows of each column in time order
+ * freeRows(int[]) - Rows that have been emptied and can be reused
+ *
+ * @author Matt Trenchard
+ * @version 1.2
+ */
+public class StageResults implements Serializable{
+    private static final int NONE=-1;
+
+    private int columns;
+    /**
+     * Gets the number of times recorded for each rider
+     * @return The number of columns. The number of segments plus two.
+     */
+    public int getColumns(){
+        return columns;
+    }
+    private int[] riderIds;
+    private int[] rowTable;
+    private int count;
+    private long[][] times;
+    private SortedColumn[] sorted;
+    private int usedRows;
+    private int[] freeRows;
+    private int freeCount;
+
+    /**
+     * Gets the number of riders with a result
+     * @return The number of results
+     */
+    public int size(){
+        return count;
+    }
+
+    /**
+     * Gets the row holding a rider's result
+     * @param riderId   The ID of the rider
+     * @return The row of the rider or -1 if they have no result
+     */
+    public int rowOf(int riderId){
+        int mask=rowTable.length-1;
+        for(int slot=hash(riderId)&mask;rowTable[slot]!=0;slot=(slot+1)&mask){
+            if(riderIds[rowTable[slot]-1]==riderId){
+                return rowTable[slot]-1;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Gets the number of rows the store currently has room for. Every row is below this number.
+     * @return The row capacity of the store
+     */
+    public int getRowCapacity(){
+        return riderIds.length;
+    }
+
+    /**
+     * Gets the rider that owns a row
+     * @param row   The row
+     * @return The rider's ID
+     */
+    public int getRiderId(int row){
+        return riderIds[row];
+    }
+
+    /**
+     * Gets a time from the store
+     * @param column   The column of the time
+     * @param row   The row of the time
+     * @return The time as nanoseconds of the day
+     */
+    public long getNanos(int column, int row){
+        return times[column][row];
+    }
+
+    /**
+     * Gets a time from the store
+     * @param column   The column of the time
+     * @param row   The row of the time
+     * @return The time
+     */
+    public LocalTime getTime(int column, int row){
+        return LocalTime.ofNanoOfDay(times[column][row]);
+    }
+
+    /**
+     * Gets the row at a position in the sorted order of a column
+     * @param column   The column
+     * @param index   The position. 0 is the earliest time.
+     * @return The row at that position
+     */
+    public int rowAt(int column, int index){
+        if(index<0 || index>=size()){
+            throw new IndexOutOfBoundsException("Index: "+index+", Size: "+size());
+        }
+        return sorted[column].get(index);
+    }
+
+    /**
+     * Gets every row in the sorted order of a column
+     * @param column   The column
+     * @return The rows in time order
+     */
+    public int[] rowsInOrder(int column){
+        return sorted[column].toArray();
+    }
+
+    /**
+     * Gets the rows at a run of positions in the sorted order of a column in O(log n + k)
+     * @param column   The column
+     * @param from   The first position. 0 is the earliest time.
+     * @param count   The most rows to get
+     * @return The rows in time order. Shorter than the count if the column runs out.
+     */
+    public int[] rowsInRange(int column, int from, int count){
+        return sorted[column].range(from,count);
+    }
+
+    /**
+     * Gets the position of a row in the sorted order of a column
+     * @param column   The column
+     * @param row   The row
+     * @return The position of the row. 0 is the earliest time.
+     */
+    public int rankOfRow(int column, int row){
+        return sorted[column].positionOf(times[column],row);
+    }
+
+    /**
+     * Adds a rider's times to the store
+     * @param riderId   The ID of the rider
+     * @param checkpoints   The start, checkpoint and finish times of the rider
+     */
+    public void insert(int riderId, LocalTime[] checkpoints){
+        int row=allocateRow(riderId,checkpoints);
+        for(int column=0;column<columns;column++){
+            sorted[column].add(times[column],row);
+        }
+    }
+
+    /**
+     * Adds the times of many riders at once. The riders end up in the same order as if they had been
+     * inserted one at a time in the order given.
+     * If the store is empty each column is sorted once instead: each row is given a tie break in the order given,
+     * after equal times if it is the slowest time so far and before them otherwise, and the rows are sorted by
+     * time and then tie break.
+     * @param newRiderIds   The IDs of the riders
+     * @param checkpoints   The times of each rider. Row i holds the times of rider i
+     */
+    public void insertAll(int[] newRiderIds, LocalTime[][] checkpoints){
+        boolean empty=size()==0;
+        int[] newRows=new int[newRiderIds.length];
+        for(int i=0;i<newRiderIds.length;i++){
+            newRows[i]=allocateRow(newRiderIds[i],checkpoints[i]);
+        }
+        for(int column=0;column<columns;column++){
+            if(empty){
+                long[] ties=new long[newRows.length];
+                long slowest=Long.MIN_VALUE;
+                for(int i=0;i<newRows.length;i++){
+                    long time=times[column][newRows[i]];
+                    ties[i]=slowest<=time ? i+1 : -(i+1);//The slowest time so far goes after equal times
+                    slowest=Math.max(slowest,time);
+                }
+                sorted[column].fill(sortRows(newRows,times[column],ties));
+            }
+            else{
+                for(int i=0;i<newRows.length;i++){
+                    sorted[column].add(times[column],newRows[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fills an empty store with results in a known order, such as results read from a snapshot.
+     * Each column's order is taken as given, so equal times keep the order they were saved in, and the arrays
+     * are sized to fit the results exactly.
+     * @param newRiderIds   The IDs of the riders. Rider i is given row i.
+     * @param nanos   The times of each column as nanoseconds of the day, indexed by column and then rider
+     * @param order   The order of each column as positions in newRiderIds
+     */
+    public void load(int[] newRiderIds, long[][] nanos, int[][] order){
+        if(riderIds.length<newRiderIds.length){
+            resize(newRiderIds.length);
+        }
+        int capacity=8;
+        while(capacity<newRiderIds.length*2){
+            capacity*=2;
+        }
+        rowTable=new int[capacity];
+        count=0;
+        for(int row=0;row<newRiderIds.length;row++){
+            riderIds[row]=newRiderIds[row];
+            for(int column=0;column<columns;column++){
+                times[column][row]=nanos[column][row];
+            }
+            addToTable(row);
+        }
+        usedRows=newRiderIds.length;
+        for(int column=0;column<columns;column++){
+            sorted[column].fill(order[column]);
+        }
+    }
+
+    /**
+     * Removes a rider's times from the store
+     * @param riderId   The ID of the rider
+     * @return True if the rider had a result
+     */
+    public boolean remove(int riderId){
+        int row=rowOf(riderId);
+        if(row==NONE){
+            return false;
+        }
+        for(int column=0;column<columns;column++){
+            sorted[column].remove(sorted[column].positionOf(times[column],row));
+        }
+        removeFromTable(riderId);
+        if(freeCount==freeRows.length){
+            freeRows=Arrays.copyOf(freeRows,Math.max(4,freeRows.length*2));
+        }
+        freeRows[freeCount++]=row;
+        return true;
+    }
+
+    /**
+     * Removes the times of many riders at once. Each column is rebuilt once from the rows that are left,
+     * in their current order, rather than removing the riders one at a time.
+     * @param riderIdsToRemove   The IDs of the riders. Riders without a result are ignored.
+     * @return The number of results removed
+     */
+    public int removeAll(Set<Integer> riderIdsToRemove){
+        boolean[] removed=new boolean[riderIds.length];
+        int removedCount=0;
+        for(int riderId : riderIdsToRemove){
+            int row=rowOf(riderId);
+            if(row!=NONE){
+                removed[row]=true;
+                removedCount++;
+            }
+        }
+        if(removedCount==0){
+            return 0;
+        }
+        for(int column=0;column<columns;column++){
+            int[] ordered=sorted[column].toArray();
+            int[] kept=new int[ordered.length-removedCount];
+            int k=0;
+            for(int i=0;i<ordered.length;i++){
+                if(!removed[ordered[i]]){
+                    kept[k++]=ordered[i];
+                }
+            }
+            sorted[column].fill(kept);
+        }
+        if(freeCount+removedCount>freeRows.length){
+            freeRows=Arrays.copyOf(freeRows,Math.max(freeCount+removedCount,freeRows.length*2));
+        }
+        for(int row=0;row<removed.length;row++){
+            if(removed[row]){
+                removeFromTable(riderIds[row]);
+                freeRows[freeCount++]=row;
+            }
+        }
+        return removedCount;
+    }
+
+    /**
+     * Gives a rider a row and copies their times into it
+     * @param riderId   The ID of the rider
+     * @param checkpoints   The times of the rider
+     * @return The row given to the rider
+     */
+    private int allocateRow(int riderId, LocalTime[] checkpoints){
+        int row;
+        if(freeCount>0){//Reuses an emptied row if there is one
+            row=freeRows[--freeCount];
+        }
+        else{
+            if(usedRows==riderIds.length){
+                resize(Math.max(8,riderIds.length+(riderIds.length>>1)));
+            }
+            row=usedRows++;
+        }
+        riderIds[row]=riderId;
+        for(int column=0;column<columns;column++){
+            times[column][row]=checkpoints[column].toNanoOfDay();
+        }
+        addToTable(row);
+        return row;
+    }
+
+    /**
+     * Changes the number of rows the arrays can hold. Growing by half rather than doubling keeps less unused room.
+     * @param capacity   The new number of rows
+     */
+    private void resize(int capacity){
+        riderIds=Arrays.copyOf(riderIds,capacity);
+        for(int column=0;column<columns;column++){
+            times[column]=Arrays.copyOf(times[column],capacity);
+        }
+    }
+
+    /**
+     * Spreads rider IDs over the row table
+     * @param riderId   The ID of the rider
+     * @return The hash of the ID
+     */
+    private static int hash(int riderId){
+        int h=riderId*0x9E3779B9;
+        return h^(h>>>16);
+    }
+
+    /**
+     * Adds a row to the row table under its rider's ID, doubling the table once it is half full
+     * @param row   The row
+     */
+    private void addToTable(int row){
+        if((count+1)*2>rowTable.length){
+            int[] old=rowTable;
+            rowTable=new int[old.length*2];
+            for(int i=0;i<old.length;i++){
+                if(old[i]!=0){
+                    place(old[i]-1);
+                }
+            }
+        }
+        place(row);
+        count++;
+    }
+
+    /**
+     * Puts a row in the first empty slot from its rider's hash
+     * @param row   The row
+     */
+    private void place(int row){
+        int mask=rowTable.length-1;
+        int slot=hash(riderIds[row])&mask;
+        while(rowTable[slot]!=0){
+            slot=(slot+1)&mask;
+        }
+        rowTable[slot]=row+1;
+    }
+
+    /**
+     * Takes a rider out of the row table. The rows after it are moved back into the gap where they can be,
+     * so a lookup never stops at the gap before reaching them.
+     * @param riderId   The ID of a rider in the table
+     */
+    private void removeFromTable(int riderId){
+        int mask=rowTable.length-1;
+        int slot=hash(riderId)&mask;
+        while(riderIds[rowTable[slot]-1]!=riderId){
+            slot=(slot+1)&mask;
+        }
+        rowTable[slot]=0;
+        for(int next=(slot+1)&mask;rowTable[next]!=0;next=(next+1)&mask){
+            int home=hash(riderIds[rowTable[next]-1])&mask;
+            if(((next-home)&mask)>=((next-slot)&mask)){//The gap is between the row's own slot and where it is
+                rowTable[slot]=rowTable[next];
+                rowTable[next]=0;
+                slot=next;
+            }
+        }
+        count--;
+    }
+
+    /**
+     * Sorts rows by their time in a column and then by a tie break value
+     * @param rowsToSort   The rows to be sorted
+     * @param keys   The times of the column, indexed by row
+     * @param ties   The tie break value of each row, in the same order as rowsToSort
+     * @return A new array of the rows in time order
+     */
+    private static int[] sortRows(int[] rowsToSort, long[] keys, long[] ties){
+        int[] sorted=new int[rowsToSort.length];
+        for(int i=0;i<sorted.length;i++){
+            sorted[i]=i;
+        }
+        int[] buffer=new int[sorted.length];
+        for(int width=1;width<sorted.length;width*=2){//Bottom up merge sort of positions in rowsToSort
+            for(int start=0;start<sorted.length;start+=2*width){
+                int mid=Math.min(start+width,sorted.length);
+                int end=Math.min(start+2*width,sorted.length);
+                int i=start;
+                int j=mid;
+                for(int k=start;k<end;k++){
+                    if(i<mid && (j>=end || compare(keys[rowsToSort[sorted[i]]],ties[sorted[i]],keys[rowsToSort[sorted[j]]],ties[sorted[j]])<=0)){
+                        buffer[k]=sorted[i++];
+                    }
+                    else{
+                        buffer[k]=sorted[j++];
+                    }
+                }
+            }
+            int[] swap=sorted;
+            sorted=buffer;
+            buffer=swap;
+        }
+        for(int i=0;i<sorted.length;i++){
+            sorted[i]=rowsToSort[sorted[i]];
+        }
+        return sorted;
+    }
+
+    /**
+     * Compares two times and then their tie break values
+     * @param timeA   The first time
+     * @param tieA   The tie break of the first time
+     * @param timeB   The second time
+     * @param tieB   The tie break of the second time
+     * @return A negative number if the first comes first, a positive number if the second comes first
+     */
+    private static int compare(long timeA, long tieA, long timeB, long tieB){
+        if(timeA!=timeB){
+            return Long.compare(timeA,timeB);
+        }
+        return Long.compare(tieA,tieB);
+    }
+
+    /**
+     * Creates an empty store
+     * @param columns   The number of times recorded for each rider. The number of segments plus two.
+     */
+    public StageResults(int columns){
+        this.columns=columns;
+        riderIds=new int[0];
+        rowTable=new int[8];
+        times=new long[columns][0];
+        sorted=new SortedColumn[columns];
+        for(int column=0;column<columns;column++){
+            sorted[column]=new SortedColumn();
+        }
+        freeRows=new int[0];
+    }
+
+    /**
+     * Creates a copy of a store that can be changed without changing the original
+     * @param other   The store to copy
+     */
+    public StageResults(StageResults other){
+        columns=other.columns;
+        riderIds=other.riderIds.clone();
+        rowTable=other.rowTable.clone();
+        count=other.count;
+        times=new long[columns][];
+        sorted=new SortedColumn[columns];
+        for(int column=0;column<columns;column++){
+            times[column]=other.times[column].clone();
+            sorted[column]=new SortedColumn(other.sorted[column]);
+        }
+        usedRows=other.usedRows;
+        freeRows=other.freeRows.clone();
+        freeCount=other.freeCount;
+    }
+}
@@ -0,0 +1,91 @@
+package cycling;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+/**
+ * Team --- A class to represent a team which contains riders.
+ * Contains the following attributes:
+ * name (String) - The name of the team
+ * desc (String) - A description of the team
+ * id (int) - Unique to each team
+ * riders (ArrayList<Rider>) - An ArrayList containing every rider that rides for the team
+ * 
+ * @author Matt Trenchard
+ * @version 1.0
+ */
+public class Team implements Serializable{
+    private String name;
+    /**
+     * Gets a teams name.
+     * @return Team's name.
+     */
+    public String getName(){
+        return name;
+    }
+    private String desc;
+    /**
+     * Gets a team's description.
+     * @return Team's description.
+     */
+    public String getDesc(){
+        return desc;
+    }
+    private int id;
+    /**
+     * Gets a team's ID.
+     * @return Team's ID.
+     */
+    public int getId(){
+        return id;
+    }
+    private ArrayList<Rider> riders;
+    /**
+     * Gets a list of every rider riding for the team.
+     * @return ArrayList of Riders riding for the team.
+     */
+    public ArrayList<Rider> getRiders(){
+        return riders;
+    }
+
+
+    /**
+     * Adds a rider to the ArrayList of riders for a team.
+     * @param rider   A Rider object to be added.
+     */
+    public void appendRider(Rider rider){
+        riders.add(rider);
+    }
+
+    /**
+     * Removes a rider from the ArrayList of riders for a team
+     * @param rider   A Rider object to be removed.
+     */
+    public void deleteRider(Rider rider){
+        riders.remove(rider);
+    }
+
+    
+    /**
+     * Creates a team with the specified parameters and an empty ArrayList of riders.
+     * @param name   Name of the team.
+     * @param desc   The description of the team.
+     * @param id   Unique id of the team.
+     */
+    public Team(String name, String desc, int id){
+        this.name=name;
+        this.desc=desc;
+        riders= new ArrayList<Rider>();
+        this.id=id;
+    }
+
+    /**
+     * Creates a copy of the team that won't see riders joining or leaving later. Riders can't change so they are shared.
+     * @return The copy of the team
+     */
+    public Team snapshot(){
+        Team copy=new Team(name,desc,id);
+        copy.riders.addAll(riders);
+        return copy;
+    }
+}
@@ -0,0 +1,63 @@
+package cycling;
+
+import java.time.LocalTime;
+
+/**
+ * TimingEvent --- One rider crossing one timing point of a stage, as reported by a transponder mat.
+ * Contains attributes:
+ * stageId(int) - The ID of the stage
+ * riderId(int) - The ID of the rider
+ * checkpoint(int) - Which time of the rider's row this is. 0 is the start, 1 to n are the segments and n+1 is the finish.
+ * time(LocalTime) - When the rider crossed
+ *
+ * @author Matt Trenchard
+ * @version 1.0
+ */
+public class TimingEvent{
+    private int stageId;
+    /**
+     * Gets the ID of the stage the event is from
+     * @return The stage ID
+     */
+    public int getStageId(){
+        return stageId;
+    }
+    private int riderId;
+    /**
+     * Gets the ID of the rider who crossed
+     * @return The rider ID
+     */
+    public int getRiderId(){
+        return riderId;
+    }
+    private int checkpoint;
+    /**
+     * Gets which time of the rider's row the event fills in
+     * @return The checkpoint index. 0 is the start and the last index is the finish.
+     */
+    public int getCheckpoint(){
+        return checkpoint;
+    }
+    private LocalTime time;
+    /**
+     * Gets when the rider crossed
+     * @return The time of the crossing
+     */
+    public LocalTime getTime(){
+        return time;
+    }
+
+    /**
+     * Creates an event
+     * @param stageId   The ID of the stage
+     * @param riderId   The ID of the rider
+     * @param checkpoint   Which time of the rider's row this is
+     * @param time   When the rider crossed
+     */
+    public TimingEvent(int stageId, int riderId, int checkpoint, LocalTime time){
+        this.stageId=stageId;
+        this.riderId=riderId;
+        this.checkpoint=checkpoint;
+        this.time=time;
+    }
+}